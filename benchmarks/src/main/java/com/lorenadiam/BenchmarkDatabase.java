@@ -0,0 +1,64 @@
+package com.lorenadiam;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+// Starts the real application (same entities, repositories and settings) on a fresh in-memory H2 and seeds it with Faker students.
+final class BenchmarkDatabase {
+
+    private static final int SEED_CHUNK = 10_000;
+
+    private BenchmarkDatabase() {
+    }
+
+    // profile "default" = application.properties only, "bulk" = batching profile
+    static ConfigurableApplicationContext start(String profile) {
+        return start(profile, false);
+    }
+
+    // web = true starts Tomcat on random port (local.server.port), extraArgs are more --property=value settings
+    static ConfigurableApplicationContext start(String profile, boolean web, String... extraArgs) {
+        List<String> args = new ArrayList<>(List.of( // command line args win over application.properties
+                "--spring.datasource.url=jdbc:h2:mem:benchmark" + System.nanoTime() + ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE",
+                "--spring.datasource.username=sa",
+                "--spring.datasource.password=",
+                "--spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+                "--spring.jpa.show-sql=false",
+                "--spring.jpa.properties.hibernate.format_sql=false",
+                web ? "--server.port=0" : "--spring.main.web-application-type=none",
+                "--logging.level.root=WARN"));
+        args.addAll(List.of(extraArgs));
+        return new SpringApplicationBuilder(Main.class)
+                .profiles(profile)
+                .run(args.toArray(String[]::new));
+    }
+
+    // every student gets id card, 2 books and enrolment in one of 2 courses, like in Main.commandLineRunner.
+    // saveAll() per 10 000 students (one transaction each), every chunk enrols its students in its own 2 courses
+    static void seed(StudentRepository studentRepository, int studentsCount) {
+        for (int chunkStart = 0; chunkStart < studentsCount; chunkStart += SEED_CHUNK) {
+            Course computerScience = new Course("Computer Science", "IT");
+            Course springDataJpa = new Course("Spring Data JPA", "IT");
+            int chunkEnd = Math.min(studentsCount, chunkStart + SEED_CHUNK);
+            List<Student> students = new ArrayList<>(chunkEnd - chunkStart);
+            for (int i = chunkStart; i < chunkEnd; i++) {
+                students.add(studentGraph(studentRepository, "seed" + i, i % 2 == 0 ? computerScience : springDataJpa));
+            }
+            studentRepository.saveAll(students);
+        }
+    }
+
+    static Student studentGraph(StudentRepository studentRepository, String uniquePrefix, Course course) {
+        Student student = Main.generateStudent(studentRepository);
+        student.setEmail(uniquePrefix + "." + student.getEmail()); // faker names repeat, email is unique
+        student.setStudentIdCard(new StudentIdCard(uniquePrefix, student));
+        student.addBook(new Book("Clean code", LocalDateTime.now().minusDays(4)));
+        student.addBook(new Book("Spring Data JPA", LocalDateTime.now()));
+        student.addEnrolment(new Enrolment(student, course, LocalDateTime.now()));
+        return student;
+    }
+}
@@ -0,0 +1,121 @@
+package com.lorenadiam;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Course roster questions answered by EnrolmentRosterIndex (bitmaps in memory) vs the same question as JPQL over the enrolment table.
+// Data from SeedDataGenerator: 50 courses, every student in 1-3 of them (~2 000 students per course with 50 000 students).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EnrolmentRosterBenchmark {
+
+    @Param({"50000"})
+    public int students;
+
+    private ConfigurableApplicationContext context;
+    private EnrolmentRosterIndex enrolmentRosterIndex;
+    private EntityManager entityManager; // outside of a transaction every query gets its own EntityManager, like a repository call
+    private long firstCourse;
+    private long secondCourse;
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = BenchmarkDatabase.start("default");
+        context.getBean(SeedDataGenerator.class).generate(students, 42);
+        enrolmentRosterIndex = context.getBean(EnrolmentRosterIndex.class);
+        enrolmentRosterIndex.rebuild(); // seed rows are JDBC inserts, no entity events
+        entityManager = SharedEntityManagerCreator.createSharedEntityManager(context.getBean(EntityManagerFactory.class));
+
+        // seeded courses have the highest ids, a student with 2+ courses has them 7 ids apart (see SeedDataGenerator)
+        secondCourse = entityManager.createQuery("SELECT MAX(c.id) FROM Course c", Long.class).getSingleResult();
+        firstCourse = secondCourse - 7;
+        System.out.printf("Courses %d and %d: %d and %d students, %d in both%n", firstCourse, secondCourse,
+                enrolmentRosterIndex.headcount(firstCourse), enrolmentRosterIndex.headcount(secondCourse),
+                enrolmentRosterIndex.countInAll(firstCourse, secondCourse));
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public long[] indexStudentsInCourse() {
+        return enrolmentRosterIndex.studentsIn(firstCourse);
+    }
+
+    @Benchmark
+    public List<Long> jpqlStudentsInCourse() {
+        return entityManager.createQuery(
+                        "SELECT e.id.studentId FROM Enrolment e WHERE e.id.courseId = ?1 ORDER BY e.id.studentId", Long.class)
+                .setParameter(1, firstCourse)
+                .getResultList();
+    }
+
+    @Benchmark
+    public long[] indexStudentsInBothCourses() {
+        return enrolmentRosterIndex.studentsInAll(firstCourse, secondCourse);
+    }
+
+    @Benchmark
+    public List<Long> jpqlStudentsInBothCourses() { // self join of the link table
+        return entityManager.createQuery(
+                        "SELECT a.id.studentId FROM Enrolment a JOIN Enrolment b ON b.id.studentId = a.id.studentId " +
+                                "WHERE a.id.courseId = ?1 AND b.id.courseId = ?2 ORDER BY a.id.studentId", Long.class)
+                .setParameter(1, firstCourse)
+                .setParameter(2, secondCourse)
+                .getResultList();
+    }
+
+    @Benchmark
+    public long indexCountInBothCourses() {
+        return enrolmentRosterIndex.countInAll(firstCourse, secondCourse);
+    }
+
+    @Benchmark
+    public long jpqlCountInBothCourses() {
+        return entityManager.createQuery(
+                        "SELECT COUNT(a) FROM Enrolment a JOIN Enrolment b ON b.id.studentId = a.id.studentId " +
+                                "WHERE a.id.courseId = ?1 AND b.id.courseId = ?2", Long.class)
+                .setParameter(1, firstCourse)
+                .setParameter(2, secondCourse)
+                .getSingleResult();
+    }
+
+    @Benchmark
+    public long[] indexStudentsInEitherCourse() {
+        return enrolmentRosterIndex.studentsInAny(firstCourse, secondCourse);
+    }
+
+    @Benchmark
+    public List<Long> jpqlStudentsInEitherCourse() {
+        return entityManager.createQuery(
+                        "SELECT DISTINCT e.id.studentId FROM Enrolment e WHERE e.id.courseId IN (?1, ?2) ORDER BY e.id.studentId", Long.class)
+                .setParameter(1, firstCourse)
+                .setParameter(2, secondCourse)
+                .getResultList();
+    }
+
+    @Benchmark
+    public Map<Long, Long> indexHeadcounts() {
+        return enrolmentRosterIndex.headcounts();
+    }
+
+    @Benchmark
+    public List<Object[]> jpqlHeadcounts() {
+        return entityManager.createQuery(
+                        "SELECT e.id.courseId, COUNT(e) FROM Enrolment e GROUP BY e.id.courseId", Object[].class)
+                .getResultList();
+    }
+}
@@ -0,0 +1,70 @@
+package com.lorenadiam;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Paging and sorting from Main.pagingExamples / sortingExamples, and keyset paging for the same page.
+// Page 10 000 of 5 = OFFSET 50 000, so 60 000 students are seeded (~1-2 min per trial)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PagingBenchmark {
+
+    private static final int PAGE_SIZE = 5;
+    private static final Sort BY_FIRST_NAME_AND_ID = Sort.by("firstName", "id");
+
+    @Param({"60000"})
+    public int students;
+
+    @Param({"0", "1000", "10000"})
+    public int pageNumber;
+
+    private ConfigurableApplicationContext context;
+    private StudentRepository studentRepository;
+    private Student lastOfPreviousPage;
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = BenchmarkDatabase.start("default");
+        studentRepository = context.getBean(StudentRepository.class);
+        BenchmarkDatabase.seed(studentRepository, students);
+
+        if (pageNumber > 0) {
+            List<Student> previousPage = studentRepository
+                    .findAll(PageRequest.of(pageNumber - 1, PAGE_SIZE, BY_FIRST_NAME_AND_ID)).getContent();
+            lastOfPreviousPage = previousPage.get(PAGE_SIZE - 1);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public Page<Student> offsetPage() { // OFFSET/LIMIT + count(*)
+        return studentRepository.findAll(PageRequest.of(pageNumber, PAGE_SIZE, BY_FIRST_NAME_AND_ID));
+    }
+
+    @Benchmark
+    public List<Student> keysetPage() {
+        PageRequest limit = PageRequest.ofSize(PAGE_SIZE);
+        return lastOfPreviousPage == null
+                ? studentRepository.findFirstOrderByFirstName(limit)
+                : studentRepository.findNextOrderByFirstName(lastOfPreviousPage.getFirstName(), lastOfPreviousPage.getId(), limit);
+    }
+
+    @Benchmark
+    public List<Student> sortByFirstNameThenAge() { // whole table, like sortingExamples
+        return studentRepository.findAll(Sort.by("firstName").ascending().and(Sort.by("age")).descending());
+    }
+}
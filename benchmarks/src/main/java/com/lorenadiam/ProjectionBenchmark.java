@@ -0,0 +1,59 @@
+package com.lorenadiam;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Listing all students: managed entities vs read-only entities vs record and interface projections.
+// For allocation per listing run with GC profiler: java -jar benchmarks.jar ProjectionBenchmark -prof gc (gc.alloc.rate.norm)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class ProjectionBenchmark {
+
+    @Param({"100000"})
+    public int students;
+
+    private ConfigurableApplicationContext context;
+    private StudentRepository studentRepository;
+    private StudentReadService studentReadService;
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = BenchmarkDatabase.start("default");
+        studentRepository = context.getBean(StudentRepository.class);
+        studentReadService = context.getBean(StudentReadService.class);
+        BenchmarkDatabase.seed(studentRepository, students);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<Student> entities() { // + one SELECT per student for its EAGER id card
+        return studentRepository.findAll();
+    }
+
+    @Benchmark
+    public List<Student> readOnlyEntitiesWithCard() { // id card JOINed, no snapshots
+        return studentReadService.listStudents(0, students);
+    }
+
+    @Benchmark
+    public List<StudentSummary> recordProjection() {
+        return studentRepository.findAllSummaries(PageRequest.ofSize(students));
+    }
+
+    @Benchmark
+    public List<StudentSummaryView> interfaceProjection() {
+        return studentRepository.findAllViewsBy(PageRequest.ofSize(students)).getContent();
+    }
+}
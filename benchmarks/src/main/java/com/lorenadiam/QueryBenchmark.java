@@ -0,0 +1,63 @@
+package com.lorenadiam;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+// The same search written as JPQL, native with ?1 params and native with :named params
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+
+    @Param({"10000"})
+    public int students;
+
+    private ConfigurableApplicationContext context;
+    private StudentRepository studentRepository;
+    private String firstName;
+    private String email;
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = BenchmarkDatabase.start("default");
+        studentRepository = context.getBean(StudentRepository.class);
+        BenchmarkDatabase.seed(studentRepository, students);
+
+        Student someStudent = studentRepository.findAll(PageRequest.of(students / 2, 1)).getContent().get(0);
+        firstName = someStudent.getFirstName();
+        email = someStudent.getEmail();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<Student> jpql() {
+        return studentRepository.findStudentsByFirstNameEqualsAndAgeGreaterThan(firstName, 18);
+    }
+
+    @Benchmark
+    public List<Student> nativePositionalParams() {
+        return studentRepository.findStudentsByFirstNameEqualsAndAgeGreaterThanNative(firstName, 18);
+    }
+
+    @Benchmark
+    public List<Student> nativeNamedParams() {
+        return studentRepository.testDifferentParamLogic(firstName, 18);
+    }
+
+    @Benchmark
+    public Optional<Student> jpqlByEmail() {
+        return studentRepository.findStudentByEmail(email);
+    }
+}
@@ -0,0 +1,74 @@
+package com.lorenadiam;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// save() in a loop (transaction per student) vs saveAll() (one transaction), and the cascading save from Main.commandLineRunner.
+// "bulk" profile param shows what JDBC batching + pooled ids change.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SaveBenchmark {
+
+    @Param({"default", "bulk"})
+    public String profile;
+
+    @Param({"100"})
+    public int studentsPerOperation;
+
+    private ConfigurableApplicationContext context;
+    private StudentRepository studentRepository;
+    private long uniqueCounter;
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = BenchmarkDatabase.start(profile);
+        studentRepository = context.getBean(StudentRepository.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<Student> saveOneByOne() {
+        List<Student> saved = new ArrayList<>(studentsPerOperation);
+        for (Student student : newStudents()) {
+            saved.add(studentRepository.save(student));
+        }
+        return saved;
+    }
+
+    @Benchmark
+    public List<Student> saveAll() {
+        return studentRepository.saveAll(newStudents());
+    }
+
+    // student + id card + 2 books + 2 enrolments (with 2 new courses), the same graph commandLineRunner saves
+    @Benchmark
+    public Student saveStudentWithCardBooksAndEnrolments() {
+        String unique = "g" + uniqueCounter++;
+        Student student = BenchmarkDatabase.studentGraph(studentRepository, unique, new Course("Computer Science", "IT"));
+        student.addEnrolment(new Enrolment(student, new Course("Spring Data JPA", "IT"), LocalDateTime.now()));
+        return studentRepository.save(student);
+    }
+
+    private List<Student> newStudents() {
+        List<Student> students = new ArrayList<>(studentsPerOperation);
+        for (int i = 0; i < studentsPerOperation; i++) {
+            Student student = Main.generateStudent(studentRepository);
+            student.setEmail("s" + uniqueCounter++ + "." + student.getEmail());
+            students.add(student);
+        }
+        return students;
+    }
+}
@@ -0,0 +1,87 @@
+package com.lorenadiam;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Type-ahead search: StudentSearchIndex alone (ids from memory), StudentRepository.search (index + 1 SELECT by primary key)
+// and the usual LIKE query it replaces. Every call is the next keystroke of a few typed names ("jo", "joh", "john", "john s"...,
+// with typos too), SampleTime mode prints p0.99 over that mix.
+// Faker names (SeedDataGenerator), 1M students by default (seeding takes ~5 min per benchmark method).
+// 5M needs ~10 GB heap for the H2 in-memory database: ... StudentSearchBenchmark -p students=5000000 -jvmArgsAppend -Xmx12g
+// (index alone with 5M students, no books/enrolments: p50 ~0.4 ms, p99 ~6 ms per keystroke; jpqlLike is ~200 ms already at 1M)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class StudentSearchBenchmark {
+
+    private static final List<String> TYPED = List.of("john smith", "jonh smiht", "maria garcia", "wilson", "gutkowski", "emily.brown");
+
+    @Param({"1000000"})
+    public int students;
+
+    private ConfigurableApplicationContext context;
+    private StudentSearchIndex studentSearchIndex;
+    private StudentRepository studentRepository;
+    private EntityManager entityManager;
+    private final List<String> keystrokes = new ArrayList<>();
+    private int next;
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = BenchmarkDatabase.start("default", false, "--student-search.rebuild-on-start=false",
+                "--roster-index.rebuild-on-start=false");
+        context.getBean(SeedDataGenerator.class).generate(students, 42);
+        studentSearchIndex = context.getBean(StudentSearchIndex.class);
+        studentSearchIndex.rebuild(); // seed rows are JDBC inserts, no entity events
+        studentRepository = context.getBean(StudentRepository.class);
+        entityManager = SharedEntityManagerCreator.createSharedEntityManager(context.getBean(EntityManagerFactory.class));
+        for (String typed : TYPED) {
+            for (int length = 2; length <= typed.length(); length++) {
+                keystrokes.add(typed.substring(0, length));
+            }
+        }
+        for (String typed : TYPED) {
+            System.out.printf("'%s': %d of first 1000 found%n", typed, studentSearchIndex.search(typed, 1000).length);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    private String nextQuery() {
+        next = (next + 1) % keystrokes.size();
+        return keystrokes.get(next);
+    }
+
+    @Benchmark
+    public long[] indexSearch() {
+        return studentSearchIndex.search(nextQuery(), 20);
+    }
+
+    @Benchmark
+    public List<StudentSummary> repositorySearch() {
+        return studentRepository.search(nextQuery(), 20);
+    }
+
+    @Benchmark
+    public List<StudentSummary> jpqlLike() { // only the first word, LIKE can't do more words in any order or typos
+        return entityManager.createQuery(
+                        "SELECT new com.lorenadiam.StudentSummary(s.id, s.firstName, s.lastName, s.email, s.age) FROM Student s " +
+                                "WHERE LOWER(s.firstName) LIKE ?1 OR LOWER(s.lastName) LIKE ?1 OR s.email LIKE ?1 ORDER BY s.id", StudentSummary.class)
+                .setParameter(1, "%" + nextQuery().split(" ")[0] + "%")
+                .setMaxResults(20)
+                .getResultList();
+    }
+}
@@ -0,0 +1,89 @@
+package com.lorenadiam;
+
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Not JMH: many concurrent HTTP clients against the real app, once on Tomcat platform threads ("default") and once on
+// virtual threads ("virtual" profile). Both use the same connection pool size so only the threading model differs.
+// Run: java -cp benchmarks/target/benchmarks.jar com.lorenadiam.VirtualThreadLoadTest [concurrentClients] [requestsPerClient]
+public final class VirtualThreadLoadTest {
+
+    private static final String POOL_SIZE = "--spring.datasource.hikari.maximum-pool-size=50";
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int requestsPerClient = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        for (String profile : List.of("default", "virtual")) {
+            ConfigurableApplicationContext context = BenchmarkDatabase.start(profile, true, POOL_SIZE);
+            try {
+                BenchmarkDatabase.seed(context.getBean(StudentRepository.class), 10_000);
+                String port = context.getEnvironment().getProperty("local.server.port");
+                URI uri = URI.create("http://localhost:" + port + "/api/students/scroll?sort=AGE&size=20");
+                run(profile, uri, clients, requestsPerClient);
+            } finally {
+                context.close();
+            }
+        }
+    }
+
+    private static void run(String profile, URI uri, int clients, int requestsPerClient) throws Exception {
+        HttpClient httpClient = HttpClient.newBuilder()
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        HttpRequest request = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(30)).GET().build();
+        AtomicInteger errors = new AtomicInteger();
+
+        long start = System.nanoTime();
+        List<Future<long[]>> results = new ArrayList<>(clients);
+        try (ExecutorService clientThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < clients; c++) {
+                results.add(clientThreads.submit(() -> {
+                    long[] latencies = new long[requestsPerClient];
+                    for (int r = 0; r < requestsPerClient; r++) {
+                        long requestStart = System.nanoTime();
+                        try {
+                            if (httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() != 200) {
+                                errors.incrementAndGet();
+                            }
+                        } catch (Exception e) {
+                            errors.incrementAndGet();
+                        }
+                        latencies[r] = System.nanoTime() - requestStart;
+                    }
+                    return latencies;
+                }));
+            }
+        }
+        long elapsedNanos = System.nanoTime() - start;
+
+        long[] all = new long[clients * requestsPerClient];
+        int i = 0;
+        for (Future<long[]> result : results) {
+            for (long latency : result.get()) {
+                all[i++] = latency;
+            }
+        }
+        Arrays.sort(all);
+        System.out.printf("%-8s clients=%d requests=%d errors=%d throughput=%.0f req/s p50=%.1f ms p99=%.1f ms max=%.1f ms%n",
+                profile, clients, all.length, errors.get(), all.length / (elapsedNanos / 1e9),
+                millis(all, 0.50), millis(all, 0.99), all[all.length - 1] / 1e6);
+    }
+
+    private static double millis(long[] sortedLatencies, double percentile) {
+        return sortedLatencies[(int) Math.ceil(percentile * sortedLatencies.length) - 1] / 1e6;
+    }
+}
@@ -0,0 +1,405 @@
+package com.lorenadiam;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.Session;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.action.spi.BeforeTransactionCompletionProcess;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostUpdateEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+import org.postgresql.PGConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Books per student and enrolments per course for dashboards, read from the aggregate_counter summary table (V4 migration):
+// one indexed lookup of at most "stripes" rows, no Student.books / Course.enrolments collection is loaded and no GROUP BY scan.
+// Counters change in the SAME transaction as the rows they count: Hibernate insert/delete events of Book and Enrolment
+// (addBook/removeBook, addEnrolment/removeEnrolment, cascades, roster import; EnrolmentService adds its own) are summed per transaction and
+// written just before commit, after the last flush. Rollback = counters never changed.
+// Striped: a transaction adds its +/- to one random stripe row of the counter, so 2 transactions enrolling into the same course
+// at the same time usually don't wait for each other's row lock (with 1 stripe every enrolment into a course is serialized).
+// JPQL bulk statements and JDBC inserts (SeedDataGenerator) fire no events, reconcile() finds and repairs that drift.
+// EnrolmentRosterIndex also has headcounts, but only in memory of this instance; these are in the database for all instances.
+// Counts rows of the application database; with sharded students (sharding.urls) there are none to count, no bean then.
+@Component
+@ConditionalOnExpression(ShardingConfiguration.NOT_SHARDED)
+public class AggregateCounters implements PostInsertEventListener, PostDeleteEventListener, PostUpdateEventListener, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(AggregateCounters.class);
+
+    // counter name, table with the counted rows, its column pointing to the owner, owner table
+    public enum Aggregate {
+        STUDENT_BOOKS("student.books", "book", "student_id", "student"),
+        COURSE_ENROLMENTS("course.enrolments", "enrolment", "course_id", "course");
+
+        private final String counterName;
+        private final String table;
+        private final String ownerColumn;
+        private final String ownerTable;
+
+        Aggregate(String counterName, String table, String ownerColumn, String ownerTable) {
+            this.counterName = counterName;
+            this.table = table;
+            this.ownerColumn = ownerColumn;
+            this.ownerTable = ownerTable;
+        }
+
+        public String counterName() {
+            return counterName;
+        }
+    }
+
+    // expected = COUNT(*) of the counted rows, counted = what the counter says
+    public record Drift(Aggregate aggregate, long ownerId, long expected, long counted) {
+    }
+
+    // one statement per counter: adds to the stripe row, creates it when it isn't there yet
+    private static final String POSTGRES_ADD = "INSERT INTO aggregate_counter (name, entity_id, stripe, amount) VALUES (?, ?, ?, ?) " +
+            "ON CONFLICT (name, entity_id, stripe) DO UPDATE SET amount = aggregate_counter.amount + EXCLUDED.amount";
+    private static final String MERGE_ADD = "MERGE INTO aggregate_counter c " + // H2 has no ON CONFLICT DO UPDATE
+            "USING (VALUES (CAST(? AS TEXT), CAST(? AS BIGINT), CAST(? AS SMALLINT), CAST(? AS BIGINT))) d (name, entity_id, stripe, amount) " +
+            "ON c.name = d.name AND c.entity_id = d.entity_id AND c.stripe = d.stripe " +
+            "WHEN MATCHED THEN UPDATE SET amount = c.amount + d.amount " +
+            "WHEN NOT MATCHED THEN INSERT (name, entity_id, stripe, amount) VALUES (d.name, d.entity_id, d.stripe, d.amount)";
+
+    // pg_advisory_xact_lock key of reconcile(), any number no other code locks
+    private static final long RECONCILE_LOCK = 0x4167_6743_6f75_6e74L; // "AggCount"
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int stripes;
+    private final boolean repair;
+    private final Duration reconcileInterval;
+    private final Map<Aggregate, Counter> driftCounters = new EnumMap<>(Aggregate.class);
+
+    // changes of the running transactions, by Hibernate session (one transaction per session at a time)
+    private final Map<EventSource, Deltas> pending = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+
+    public AggregateCounters(
+            DataSource dataSource,
+            PlatformTransactionManager transactionManager,
+            EntityManagerFactory entityManagerFactory,
+            MeterRegistry meterRegistry,
+            @Value("${aggregate-counters.stripes:8}") int stripes,
+            @Value("${aggregate-counters.reconcile.repair:true}") boolean repair,
+            @Value("${aggregate-counters.reconcile.interval:1h}") Duration reconcileInterval) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(transactionManager); // read-write, reconcile must see primary
+        this.stripes = stripes;
+        this.repair = repair;
+        this.reconcileInterval = reconcileInterval;
+        for (Aggregate aggregate : Aggregate.values()) {
+            driftCounters.put(aggregate, meterRegistry.counter("aggregate.counters.drift", "counter", aggregate.counterName));
+        }
+
+        EventListenerRegistry listeners = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry().getService(EventListenerRegistry.class);
+        listeners.appendListeners(EventType.POST_INSERT, this);
+        listeners.appendListeners(EventType.POST_DELETE, this);
+        listeners.appendListeners(EventType.POST_UPDATE, this);
+    }
+
+    public long booksOf(long studentId) {
+        return value(Aggregate.STUDENT_BOOKS, studentId);
+    }
+
+    public long enrolmentsIn(long courseId) {
+        return value(Aggregate.COURSE_ENROLMENTS, courseId);
+    }
+
+    // only committed changes, uses the primary key (name, entity_id, stripe)
+    public long value(Aggregate aggregate, long ownerId) {
+        Long value = jdbcTemplate.queryForObject(
+                "SELECT COALESCE(SUM(amount), 0) FROM aggregate_counter WHERE name = ? AND entity_id = ?",
+                Long.class, aggregate.counterName, ownerId);
+        return value == null ? 0 : value;
+    }
+
+    // owner id -> value, owners at 0 are left out (e.g. headcount of every course for a dashboard)
+    public Map<Long, Long> values(Aggregate aggregate) {
+        Map<Long, Long> values = new HashMap<>();
+        jdbcTemplate.query(
+                "SELECT entity_id, SUM(amount) FROM aggregate_counter WHERE name = ? GROUP BY entity_id HAVING SUM(amount) <> 0",
+                (RowCallbackHandler) resultSet -> values.put(resultSet.getLong(1), resultSet.getLong(2)),
+                aggregate.counterName);
+        return values;
+    }
+
+    // ---- reconciliation ----
+
+    // Every reconcile.interval, first one an interval after start
+    @EventListener(ApplicationReadyEvent.class)
+    public void scheduleReconcile() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "aggregate-counters-reconcile");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = reconcileInterval.toMillis();
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                reconcile();
+            } catch (RuntimeException e) { // next run tries again
+                log.warn("Aggregate counters reconciliation failed: {}", e.getMessage());
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    // Compares every counter with COUNT(*) of the base table in ONE statement (same snapshot of both). Drift is logged, counted
+    // in aggregate.counters.drift and, with reconcile.repair, fixed by ADDING the difference: a transaction committing meanwhile
+    // changes rows and counter together, so its own +/- stays correct. Counter rows of deleted owners are removed too.
+    // One run at a time: 2 runs seeing the same drift would both add the difference (counter overshoots). synchronized for
+    // this instance (scheduler, seed runner, reconcileAfterCommit), on postgres also a transaction-level advisory lock for the
+    // other app instances. A run that waited for the lock reads after the other one committed (read committed), sees no drift.
+    public synchronized List<Drift> reconcile() {
+        return transactionTemplate.execute(status -> {
+            lockReconcile();
+            List<Drift> drifts = new ArrayList<>();
+            for (Aggregate aggregate : Aggregate.values()) {
+                List<Drift> found = findDrift(aggregate);
+                if (!found.isEmpty()) {
+                    driftCounters.get(aggregate).increment(found.size());
+                    log.warn("{} counters of {} differ from {} table{}, e.g. {}", found.size(), aggregate.counterName,
+                            aggregate.table, repair ? " (repaired)" : "", found.get(0));
+                }
+                if (repair) {
+                    Deltas corrections = new Deltas(0);
+                    found.forEach(drift -> corrections.add(aggregate, drift.ownerId(), drift.expected() - drift.counted()));
+                    jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+                        write(connection, corrections);
+                        return null;
+                    });
+                    jdbcTemplate.update("DELETE FROM aggregate_counter WHERE name = ? AND NOT EXISTS " +
+                                    "(SELECT 1 FROM " + aggregate.ownerTable + " o WHERE o.id = aggregate_counter.entity_id)",
+                            aggregate.counterName);
+                }
+                drifts.addAll(found);
+            }
+            return drifts;
+        });
+    }
+
+    // After commit of the current transaction (or now if there is none), for code that changes rows without entity events
+    public void reconcileAfterCommit() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    reconcile();
+                }
+            });
+        } else {
+            reconcile();
+        }
+    }
+
+    // released by commit/rollback of the reconcile transaction. H2 runs inside this one app, synchronized is enough there
+    private void lockReconcile() {
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            if (connection.isWrapperFor(PGConnection.class)) {
+                try (PreparedStatement statement = connection.prepareStatement("SELECT pg_advisory_xact_lock(?)")) {
+                    statement.setLong(1, RECONCILE_LOCK);
+                    statement.executeQuery().close();
+                }
+            }
+            return null;
+        });
+    }
+
+    private List<Drift> findDrift(Aggregate aggregate) {
+        return jdbcTemplate.query( // UNION ALL + GROUP BY instead of FULL OUTER JOIN, H2 doesn't have it
+                "SELECT owner_id, SUM(rows_count), SUM(counted) FROM (" +
+                        "SELECT " + aggregate.ownerColumn + " AS owner_id, COUNT(*) AS rows_count, 0 AS counted FROM " +
+                        aggregate.table + " GROUP BY " + aggregate.ownerColumn +
+                        " UNION ALL " +
+                        "SELECT entity_id, 0, SUM(amount) FROM aggregate_counter WHERE name = ? GROUP BY entity_id" +
+                        ") counts GROUP BY owner_id HAVING SUM(rows_count) <> SUM(counted)",
+                (resultSet, rowNum) -> new Drift(aggregate, resultSet.getLong(1), resultSet.getLong(2), resultSet.getLong(3)),
+                aggregate.counterName);
+    }
+
+    // ---- Hibernate events, inside the transaction (at flush) ----
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        if (event.getEntity() instanceof Book book) {
+            add(event.getSession(), Aggregate.STUDENT_BOOKS, studentId(book.getStudent()), 1);
+        } else if (event.getEntity() instanceof Enrolment enrolment) {
+            add(event.getSession(), Aggregate.COURSE_ENROLMENTS, enrolment.getId().getCourseId(), 1);
+        }
+    }
+
+    // deleted state, not the entity: removeBook() already set book.student to null
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        if (event.getEntity() instanceof Book) {
+            Object student = event.getDeletedState()[event.getPersister().getPropertyIndex("student")];
+            add(event.getSession(), Aggregate.STUDENT_BOOKS, studentId(student), -1);
+        } else if (event.getEntity() instanceof Enrolment enrolment) {
+            add(event.getSession(), Aggregate.COURSE_ENROLMENTS, enrolment.getId().getCourseId(), -1);
+        }
+    }
+
+    // book given to another student (addBook on the new one)
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        if (event.getEntity() instanceof Book && event.getOldState() != null) {
+            int student = event.getPersister().getPropertyIndex("student");
+            Long oldStudentId = studentId(event.getOldState()[student]);
+            Long newStudentId = studentId(event.getState()[student]);
+            if (oldStudentId != null && !oldStudentId.equals(newStudentId)) {
+                add(event.getSession(), Aggregate.STUDENT_BOOKS, oldStudentId, -1);
+                add(event.getSession(), Aggregate.STUDENT_BOOKS, newStudentId, 1);
+            }
+        }
+    }
+
+    @Override
+    public boolean requiresPostCommitHandling(EntityPersister persister) {
+        return false;
+    }
+
+    // Rows inserted with SQL in a Hibernate transaction (EnrolmentService): the +/- their entity events would have added,
+    // written with the others just before commit
+    public void addInTransaction(Session session, Aggregate aggregate, long ownerId, long delta) {
+        add((EventSource) session.unwrap(SessionImplementor.class), aggregate, ownerId, delta);
+    }
+
+    private static Long studentId(Object student) {
+        return student instanceof Student s ? s.getId() : null; // proxy too, getId() doesn't initialize it
+    }
+
+    private void add(EventSource session, Aggregate aggregate, Long ownerId, long delta) {
+        if (ownerId != null) {
+            pending.computeIfAbsent(session, this::startTransaction).add(aggregate, ownerId, delta);
+        }
+    }
+
+    // First change in this transaction: write the sums just before commit (Hibernate runs these after its last flush,
+    // on the transaction's connection). After completion (commit or rollback) they are forgotten.
+    private Deltas startTransaction(EventSource session) {
+        session.getActionQueue().registerProcess((BeforeTransactionCompletionProcess) (SessionImplementor completing) -> {
+            Deltas deltas = pending.remove(completing);
+            if (deltas != null) {
+                completing.doWork(connection -> write(connection, deltas));
+            }
+        });
+        session.getActionQueue().registerProcess((AfterTransactionCompletionProcess) (success, completed) -> pending.remove(completed));
+        return new Deltas(ThreadLocalRandom.current().nextInt(stripes));
+    }
+
+    // One JDBC batch. Counters are always written in the same order (name, owner id): 2 transactions touching the same
+    // counters lock them in the same order and can't deadlock
+    private static void write(Connection connection, Deltas deltas) throws SQLException {
+        if (deltas.sums.isEmpty()) {
+            return;
+        }
+        boolean postgres = connection.isWrapperFor(PGConnection.class);
+        try (PreparedStatement statement = connection.prepareStatement(postgres ? POSTGRES_ADD : MERGE_ADD)) {
+            for (Map.Entry<Key, Long> sum : deltas.sums.entrySet()) {
+                statement.setString(1, sum.getKey().aggregate().counterName);
+                statement.setLong(2, sum.getKey().ownerId());
+                statement.setShort(3, (short) deltas.stripe);
+                statement.setLong(4, sum.getValue());
+                if (postgres) {
+                    statement.addBatch();
+                } else {
+                    mergeAdd(statement);
+                }
+            }
+            if (postgres) {
+                statement.executeBatch();
+            }
+        }
+    }
+
+    // H2: 2 transactions creating the same stripe row at once -> MERGE of the second one fails with duplicate key
+    // (ON CONFLICT does this on PostgreSQL). By then the row is committed, so the same MERGE again adds to it.
+    // H2 keeps the transaction usable after a failed statement, PostgreSQL would not.
+    private static void mergeAdd(PreparedStatement statement) throws SQLException {
+        try {
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            if (!"23505".equals(e.getSQLState())) { // unique violation
+                throw e;
+            }
+            statement.executeUpdate();
+        }
+    }
+
+    private record Key(Aggregate aggregate, long ownerId) {
+    }
+
+    // +/- of one transaction summed per counter (10 enrolments into a course = one +10), zero sums are not written
+    private static class Deltas {
+
+        private static final Comparator<Key> ORDER = Comparator.comparing(Key::aggregate).thenComparingLong(Key::ownerId);
+
+        private final int stripe;
+        private final Map<Key, Long> sums = new TreeMap<>(ORDER);
+
+        Deltas(int stripe) {
+            this.stripe = stripe;
+        }
+
+        synchronized void add(Aggregate aggregate, long ownerId, long delta) {
+            Key key = new Key(aggregate, ownerId);
+            long sum = sums.getOrDefault(key, 0L) + delta;
+            if (sum == 0) {
+                sums.remove(key);
+            } else {
+                sums.put(key, sum);
+            }
+        }
+    }
+}
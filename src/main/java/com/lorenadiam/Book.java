@@ -1,10 +1,15 @@
 package com.lorenadiam;
 
 import jakarta.persistence.*;
-import lombok.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.Hibernate;
+
 import java.time.LocalDateTime;
 
-@Data
+@Getter
+@Setter
 @NoArgsConstructor
 @Entity(name = "Book")
 @Table(name = "book")
@@ -14,7 +19,7 @@ public class Book {
     @SequenceGenerator(
             name = "book_sequence",
             sequenceName = "book_sequence",
-            allocationSize = 1)
+            allocationSize = 50) // same as hibernate.jdbc.batch_size, one nextval per 50 rows
     @GeneratedValue(
             strategy = GenerationType.SEQUENCE,
             generator = "book_sequence")
@@ -53,4 +58,38 @@ public class Book {
         this.bookName = bookName;
         this.createdAt = createdAt;
     }
+
+    // created_at is the partition key of book on postgres (V6 migration), it can't be NULL there
+    @PrePersist
+    void borrowedNowIfNotSet() {
+        if (createdAt == null) {
+            createdAt = LocalDateTime.now();
+        }
+    }
+
+    // Same equality model as Student: id only (no association is touched), final so proxies don't get initialized
+    @Override
+    public final boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Book other)) {
+            return false;
+        }
+        return getId() != null && getId().equals(other.getId());
+    }
+
+    @Override
+    public final int hashCode() {
+        return Book.class.hashCode();
+    }
+
+    @Override
+    public final String toString() {
+        if (!Hibernate.isInitialized(this)) {
+            return "Book(id=" + getId() + ", not loaded)";
+        }
+        return "Book(id=" + getId() + ", bookName=" + getBookName() + ", createdAt=" + getCreatedAt() +
+                ", studentId=" + (getStudent() == null ? null : getStudent().getId()) + ")"; // only the id of the student
+    }
 }
@@ -0,0 +1,289 @@
+package com.lorenadiam;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+// Books borrowed before the retention window (book-archive.retention-months whole months before this one) leave the book table
+// for gzip CSV files in book-archive.directory: book_2024-09.<archived at millis>.csv.gz, header + BorrowedBook.toCsv() lines.
+// archivedBetween() reads them back (only the files of the asked months).
+// One month = one transaction: rows are written to a .tmp file, forced to disk and renamed to the final name, then removed from
+// the table and committed. A crash or rollback after the rename leaves a file whose rows are still in the table (rollback tries
+// to delete it): archivedBetween() skips every archived book that is still in the table and takes every id once (the rows of a
+// leftover file are archived again later, to a new file). So for readers a book is never in both or in none.
+// Postgres: the month's partition (BookPartitions) is locked, written, detached and dropped: no DELETE, nothing to vacuum.
+// H2 and books in book_default: SELECT ... FOR UPDATE, then DELETE by id.
+// Runs every book-archive.interval (first one an interval after start).
+// Books per student change: AggregateCounters are reconciled afterwards, like after bulk deletes (not on shards: counters are
+// kept for the application database only, ShardingConfiguration gives null, and there is no such bean when sharding is on).
+// Opt-in (book-archive.enabled, "archive" profile): it removes rows from the table. book-archive.directory must be an absolute
+// path, on a disk every app instance shares if there are several: archivedBetween() only finds files of this directory, and a
+// relative path would depend on the working directory the app happened to be started in.
+@Component
+@ConditionalOnProperty(name = "book-archive.enabled", havingValue = "true")
+public class BookArchiver implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(BookArchiver.class);
+
+    private static final Pattern ARCHIVE_FILE = Pattern.compile("book_(\\d{4}-\\d{2})\\.\\d+\\.csv\\.gz");
+    private static final String COLUMNS = "id, book_name, created_at, student_id";
+    private static final int FETCH_SIZE = 10_000; // rows per round trip while writing a month
+    private static final int DELETE_BATCH = 1_000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final BookPartitions bookPartitions;
+    private final AggregateCounters aggregateCounters;
+    private final int retentionMonths;
+    private final Path directory;
+    private final Duration interval;
+    private final Counter archivedBooks;
+    private ScheduledExecutorService scheduler;
+
+    public record ArchivedMonth(YearMonth month, long books, Path file) {
+    }
+
+    public BookArchiver(
+            DataSource dataSource,
+            PlatformTransactionManager transactionManager,
+            BookPartitions bookPartitions,
+            @Nullable AggregateCounters aggregateCounters,
+            MeterRegistry meterRegistry,
+            @Value("${book-archive.retention-months:12}") int retentionMonths,
+            @Value("${book-archive.directory:}") String directory,
+            @Value("${book-archive.interval:1d}") Duration interval) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(FETCH_SIZE);
+        this.transactionTemplate = new TransactionTemplate(transactionManager); // read-write, rows are removed on primary
+        this.bookPartitions = bookPartitions;
+        this.aggregateCounters = aggregateCounters;
+        this.retentionMonths = retentionMonths;
+        if (directory.isBlank() || !Path.of(directory).isAbsolute()) {
+            throw new IllegalStateException("book-archive.directory must be an absolute path (shared by all app instances), was '" +
+                    directory + "'");
+        }
+        this.directory = Path.of(directory);
+        this.interval = interval;
+        this.archivedBooks = meterRegistry.counter("book.archive.books");
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void scheduleArchiving() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "book-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = interval.toMillis();
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                archive();
+            } catch (RuntimeException e) { // next run tries again
+                log.warn("Book archiving failed: {}", e.getMessage());
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    // Every month before the retention window, oldest first. Returns the months that had books
+    public synchronized List<ArchivedMonth> archive() {
+        YearMonth keepFrom = YearMonth.now().minusMonths(retentionMonths);
+        List<ArchivedMonth> archived = new ArrayList<>();
+        for (YearMonth month : bookPartitions.months()) { // postgres: whole partitions, empty ones are just dropped
+            if (month.isBefore(keepFrom)) {
+                ArchivedMonth result = archivePartition(month);
+                if (result.books() > 0) {
+                    archived.add(result);
+                }
+            }
+        }
+        LocalDateTime oldest; // H2, or postgres rows in book_default. MIN() is the first entry of book_created_at_idx
+        while ((oldest = jdbcTemplate.queryForObject("SELECT MIN(created_at) FROM book WHERE created_at < ?",
+                LocalDateTime.class, start(keepFrom))) != null) {
+            archived.add(archiveRows(YearMonth.from(oldest)));
+        }
+
+        long books = archived.stream().mapToLong(ArchivedMonth::books).sum();
+        if (books > 0) {
+            archivedBooks.increment(books);
+            if (aggregateCounters != null) {
+                aggregateCounters.reconcileAfterCommit(); // no transaction here = now
+            }
+            log.info("Archived {} books of {} month(s) before {} to {}", books, archived.size(), keepFrom, directory);
+        }
+        return archived;
+    }
+
+    // Archived books with from <= createdAt < to, oldest first. Only the files of those months are read.
+    // Books still in the table are not archived (yet): their file is of an archive transaction that is running or rolled back
+    public List<BorrowedBook> archivedBetween(LocalDateTime from, LocalDateTime to) {
+        YearMonth first = YearMonth.from(from);
+        YearMonth last = YearMonth.from(to.minusNanos(1));
+        if (!Files.isDirectory(directory) || last.isBefore(first)) {
+            return List.of();
+        }
+        Map<Long, BorrowedBook> books = new HashMap<>(); // by id: a leftover file and the later one have the same rows
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Matcher name = ARCHIVE_FILE.matcher(file.getFileName().toString());
+                if (name.matches() && !YearMonth.parse(name.group(1)).isBefore(first) && !YearMonth.parse(name.group(1)).isAfter(last)) {
+                    try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(file)), UTF_8))) {
+                        BorrowedBook.readCsv(reader).stream()
+                                .filter(book -> !book.createdAt().isBefore(from) && book.createdAt().isBefore(to))
+                                .forEach(book -> books.putIfAbsent(book.id(), book));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read book archive " + directory, e);
+        }
+        if (!books.isEmpty()) { // read after the files: a transaction committing meanwhile has its rows in both, the file counts
+            jdbcTemplate.queryForList("SELECT id FROM book WHERE created_at >= ? AND created_at < ?", Long.class, from, to)
+                    .forEach(books::remove); // book_created_at_idx, months before the retention window have (almost) no rows left
+        }
+        List<BorrowedBook> sorted = new ArrayList<>(books.values());
+        sorted.sort(Comparator.comparing(BorrowedBook::createdAt).thenComparing(BorrowedBook::id));
+        return sorted;
+    }
+
+    // postgres: SHARE lock = reads go on, changes of that month wait (and are written after, to the next file of the month)
+    private ArchivedMonth archivePartition(YearMonth month) {
+        String partition = BookPartitions.name(month);
+        return transactionTemplate.execute(status -> {
+            jdbcTemplate.execute("LOCK TABLE " + partition + " IN SHARE MODE");
+            ArchivedMonth archived = write(month, "SELECT " + COLUMNS + " FROM " + partition + " ORDER BY id", null);
+            bookPartitions.detachAndDrop(month);
+            return archived;
+        });
+    }
+
+    private ArchivedMonth archiveRows(YearMonth month) {
+        return transactionTemplate.execute(status -> {
+            List<Long> ids = new ArrayList<>();
+            ArchivedMonth archived = write(month, "SELECT " + COLUMNS + " FROM book WHERE created_at >= ? AND created_at < ? " +
+                    "ORDER BY id FOR UPDATE", ids, start(month), start(month.plusMonths(1)));
+            for (int i = 0; i < ids.size(); i += DELETE_BATCH) { // by id: rows inserted meanwhile were not written, they stay
+                jdbcTemplate.batchUpdate("DELETE FROM book WHERE id = ?",
+                        ids.subList(i, Math.min(i + DELETE_BATCH, ids.size())).stream().map(id -> new Object[]{id}).toList());
+            }
+            return archived;
+        });
+    }
+
+    // Streams the rows into <final name>.tmp, renamed before the rows are removed (a half written file never has the final name),
+    // deleted again on rollback. ids (when not null) gets every written id
+    private ArchivedMonth write(YearMonth month, String sql, List<Long> ids, Object... parameters) {
+        Path file = directory.resolve("book_" + month + "." + System.currentTimeMillis() + ".csv.gz");
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        long[] books = {0};
+        try {
+            Files.createDirectories(directory);
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(temporary)), UTF_8))) {
+                writer.write(BorrowedBook.CSV_HEADER + "\n");
+                jdbcTemplate.query(sql, (RowCallbackHandler) resultSet -> {
+                    BorrowedBook book = new BorrowedBook(resultSet.getLong(1), resultSet.getString(2),
+                            resultSet.getObject(3, LocalDateTime.class), resultSet.getLong(4));
+                    try {
+                        writer.write(book.toCsv() + "\n");
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    if (ids != null) {
+                        ids.add(book.id());
+                    }
+                    books[0]++;
+                }, parameters);
+            }
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                channel.force(true); // on disk before the rows are gone
+            }
+            if (books[0] > 0) {
+                Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException e) {
+            deleteQuietly(temporary);
+            throw new UncheckedIOException("Could not write book archive " + temporary, e);
+        } catch (RuntimeException e) { // query failed, transaction rolls back
+            deleteQuietly(temporary);
+            throw e;
+        }
+
+        if (books[0] == 0) {
+            deleteQuietly(temporary);
+            return new ArchivedMonth(month, 0, null);
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    deleteQuietly(file); // when it stays, archivedBetween() skips its rows, they are still in the table
+                }
+            }
+        });
+        return new ArchivedMonth(month, books[0], file);
+    }
+
+    private static LocalDateTime start(YearMonth month) {
+        return month.atDay(1).atStartOfDay();
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Could not delete {}: {}", file, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.lorenadiam;
+
+import org.postgresql.PGConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Monthly partitions of the book table on postgres (V6 migration): book_p2024_09 = books borrowed in September 2024,
+// book_default = books of months that have no partition (yet). This month and book-partitions.months-ahead next ones are
+// created in advance, at start and every book-partitions.interval, so new books don't land in book_default.
+// On H2 (tests) book is a plain table: partitioned() is false, months() is empty and createAhead() does nothing.
+@Component
+public class BookPartitions implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(BookPartitions.class);
+
+    private static final DateTimeFormatter NAME = DateTimeFormatter.ofPattern("'book_p'yyyy_MM"); // same as to_char() in V6
+    private static final Pattern PARTITION = Pattern.compile("book_p(\\d{4})_(\\d{2})");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int monthsAhead;
+    private final Duration interval;
+    private volatile Boolean partitioned;
+    private ScheduledExecutorService scheduler;
+
+    public BookPartitions(
+            DataSource dataSource,
+            PlatformTransactionManager transactionManager,
+            @Value("${book-partitions.months-ahead:3}") int monthsAhead,
+            @Value("${book-partitions.interval:1d}") Duration interval) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(transactionManager); // read-write, DDL goes to primary
+        this.monthsAhead = monthsAhead;
+        this.interval = interval;
+    }
+
+    // postgres with the V6 migration applied (asked once)
+    public boolean partitioned() {
+        if (partitioned == null) {
+            partitioned = Boolean.TRUE.equals(jdbcTemplate.execute((ConnectionCallback<Boolean>) connection ->
+                    connection.isWrapperFor(PGConnection.class)))
+                    && Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                    "SELECT relkind = 'p' FROM pg_class WHERE oid = to_regclass('book')", Boolean.class));
+        }
+        return partitioned;
+    }
+
+    public static String name(YearMonth month) {
+        return NAME.format(month);
+    }
+
+    // months that have a partition, oldest first (book_default is not in it)
+    public List<YearMonth> months() {
+        if (!partitioned()) {
+            return List.of();
+        }
+        return jdbcTemplate.queryForList(
+                        "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = to_regclass('book')",
+                        String.class).stream()
+                .map(PARTITION::matcher)
+                .filter(Matcher::matches)
+                .map(name -> YearMonth.of(Integer.parseInt(name.group(1)), Integer.parseInt(name.group(2))))
+                .sorted()
+                .toList();
+    }
+
+    // Now and every interval after that (a running app crosses month ends). Only on postgres, H2 has nothing to create
+    @EventListener(ApplicationReadyEvent.class)
+    public void createAheadOnStart() {
+        if (!partitioned()) {
+            return;
+        }
+        createAheadAndLog();
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "book-partitions");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = interval.toMillis();
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                createAheadAndLog();
+            } catch (RuntimeException e) { // next run tries again
+                log.warn("Creating book partitions failed: {}", e.getMessage());
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void createAheadAndLog() {
+        List<YearMonth> created = createAhead();
+        if (!created.isEmpty()) {
+            log.info("Created book partitions for {}", created);
+        }
+    }
+
+    // this month and the next months-ahead ones, returns the months that were missing
+    public List<YearMonth> createAhead() {
+        if (!partitioned()) {
+            return List.of();
+        }
+        Set<YearMonth> existing = new HashSet<>(months());
+        List<YearMonth> created = new ArrayList<>();
+        YearMonth thisMonth = YearMonth.now();
+        for (int i = 0; i <= monthsAhead; i++) {
+            YearMonth month = thisMonth.plusMonths(i);
+            if (!existing.contains(month)) {
+                create(month);
+                created.add(month);
+            }
+        }
+        return created;
+    }
+
+    // Postgres refuses a new partition while book_default has rows of its month ("would be violated by some row").
+    // So: empty table, rows of that month moved into it from book_default, then attached. One transaction.
+    // Indexes, primary key and FK of book are created on it by ATTACH.
+    void create(YearMonth month) {
+        String name = name(month);
+        String from = month.atDay(1).toString();
+        String to = month.plusMonths(1).atDay(1).toString();
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.execute("CREATE TABLE " + name + " (LIKE book INCLUDING DEFAULTS INCLUDING CONSTRAINTS)");
+            int moved = jdbcTemplate.update("WITH moved AS (DELETE FROM book_default WHERE created_at >= CAST(? AS timestamp) " +
+                    "AND created_at < CAST(? AS timestamp) RETURNING *) INSERT INTO " + name + " SELECT * FROM moved", from, to);
+            jdbcTemplate.execute("ALTER TABLE book ATTACH PARTITION " + name + " FOR VALUES FROM ('" + from + "') TO ('" + to + "')");
+            if (moved > 0) {
+                log.info("Moved {} books from book_default to new partition {}", moved, name);
+            }
+        });
+    }
+
+    // BookArchiver, inside its transaction, after the rows are written to the archive file
+    void detachAndDrop(YearMonth month) {
+        String name = name(month);
+        jdbcTemplate.execute("ALTER TABLE book DETACH PARTITION " + name);
+        jdbcTemplate.execute("DROP TABLE " + name);
+    }
+}
@@ -0,0 +1,30 @@
+package com.lorenadiam;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+// Books by borrow date. Ranges are half open: from <= createdAt < to, e.g. a whole month is [1st of month, 1st of next month).
+// On postgres book is partitioned by month of created_at (V6 migration): a range reads only the partitions of its months
+// (partition pruning, checked by QueryPlanTests), on H2 it is a range scan of book_created_at_idx.
+// Archived months are not in the table anymore, BookArchiver.archivedBetween() reads them from the archive files.
+@Transactional(readOnly = true) // same as StudentRepository, own queries are read-only too
+public interface BookRepository extends CrudRepository<Book, Long> {
+
+    // oldest first, page through a big range with Pageable (LIMIT/OFFSET)
+    @Query("SELECT new com.lorenadiam.BorrowedBook(b.id, b.bookName, b.createdAt, b.student.id) FROM Book b " +
+            "WHERE b.createdAt >= ?1 AND b.createdAt < ?2 ORDER BY b.createdAt, b.id")
+    List<BorrowedBook> findBorrowedBetween(LocalDateTime from, LocalDateTime to, Pageable limit);
+
+    // b.student.id is the FK column, no join with student
+    @Query("SELECT new com.lorenadiam.BorrowedBook(b.id, b.bookName, b.createdAt, b.student.id) FROM Book b " +
+            "WHERE b.student.id = ?1 AND b.createdAt >= ?2 AND b.createdAt < ?3 ORDER BY b.createdAt, b.id")
+    List<BorrowedBook> findBorrowedByStudentBetween(Long studentId, LocalDateTime from, LocalDateTime to);
+
+    @Query("SELECT COUNT(b) FROM Book b WHERE b.createdAt >= ?1 AND b.createdAt < ?2")
+    long countBorrowedBetween(LocalDateTime from, LocalDateTime to);
+}
@@ -0,0 +1,39 @@
+package com.lorenadiam;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+// Record (DTO) of one book row: what BookRepository reads by borrow date and what BookArchiver writes to the archive files.
+// No entity, so no Student (ManyToOne is EAGER) is loaded with every book.
+public record BorrowedBook(Long id, String bookName, LocalDateTime createdAt, Long studentId) {
+
+    static final String CSV_HEADER = "id,book_name,created_at,student_id";
+
+    // CSV like the roster file (Csv): name in "..." when it has a comma, quote or line break, date as ISO text
+    String toCsv() {
+        return id + "," + Csv.quote(bookName) + "," + createdAt + "," + studentId;
+    }
+
+    // All rows of an archive file (header line is skipped). Reader has to support mark() (BufferedReader)
+    static List<BorrowedBook> readCsv(Reader reader) throws IOException {
+        List<BorrowedBook> books = new ArrayList<>();
+        boolean[] header = {true};
+        Csv.readRows(reader, fields -> {
+            if (!header[0]) {
+                books.add(fromFields(fields));
+            }
+            header[0] = false;
+        });
+        return books;
+    }
+
+    private static BorrowedBook fromFields(List<String> fields) {
+        if (fields.size() != 4) {
+            throw new IllegalArgumentException("Expected 4 columns but got " + fields.size() + ": " + fields);
+        }
+        return new BorrowedBook(Long.valueOf(fields.get(0)), fields.get(1), LocalDateTime.parse(fields.get(2)), Long.valueOf(fields.get(3)));
+    }
+}
@@ -0,0 +1,34 @@
+package com.lorenadiam;
+
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Hit/miss/eviction counters of every cache region, to see if regions in ehcache.xml are big enough.
+// Counters come from JCache statistics beans (enable-statistics in ehcache.xml). Empty without "cache" profile.
+@RestController
+public class CacheStatisticsController {
+
+    private static final String[] COUNTERS = {"CacheHits", "CacheMisses", "CachePuts", "CacheRemovals", "CacheEvictions"};
+
+    @GetMapping("/api/cache/statistics")
+    public Map<String, Map<String, Object>> statistics() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Map<String, Map<String, Object>> regions = new TreeMap<>();
+        for (ObjectName name : server.queryNames(new ObjectName("javax.cache:type=CacheStatistics,*"), null)) {
+            Map<String, Object> counters = new TreeMap<>();
+            for (String counter : COUNTERS) {
+                counters.put(counter, server.getAttribute(name, counter));
+            }
+            counters.put("CacheHitPercentage", server.getAttribute(name, "CacheHitPercentage"));
+            regions.put(name.getKeyProperty("Cache"), counters);
+        }
+        return regions;
+    }
+}
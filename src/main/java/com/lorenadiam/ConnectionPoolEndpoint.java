@@ -0,0 +1,126 @@
+package com.lorenadiam;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+// GET /actuator/pool -> every connection pool right now (active/idle/pending), how long getting a connection takes and statement cache hit rate.
+// Pool meters (hikaricp.connections.*) are registered by Spring Boot itself, here they are only put together in one place.
+// Statement cache: the PostgreSQL driver has no hit/miss counters, so hit rate is from Hibernate's query plan cache (JPQL -> SQL),
+// the driver's cache settings are shown next to it. Also as meters: query.plan.cache.hits / misses / hit.ratio
+@Component
+@Endpoint(id = "pool")
+public class ConnectionPoolEndpoint {
+
+    private static final String[] DRIVER_CACHE_SETTINGS = {
+            "prepareThreshold", "preparedStatementCacheQueries", "preparedStatementCacheSizeMiB", "reWriteBatchedInserts", "defaultRowFetchSize"};
+
+    private final ObjectProvider<HikariDataSource> hikariDataSources;
+    private final MeterRegistry meterRegistry;
+    private final Statistics statistics;
+
+    public ConnectionPoolEndpoint(
+            ObjectProvider<HikariDataSource> hikariDataSources,
+            MeterRegistry meterRegistry,
+            EntityManagerFactory entityManagerFactory) {
+        this.hikariDataSources = hikariDataSources;
+        this.meterRegistry = meterRegistry;
+        this.statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        FunctionCounter.builder("query.plan.cache.hits", statistics, Statistics::getQueryPlanCacheHitCount).register(meterRegistry);
+        FunctionCounter.builder("query.plan.cache.misses", statistics, Statistics::getQueryPlanCacheMissCount).register(meterRegistry);
+        Gauge.builder("query.plan.cache.hit.ratio", statistics, ConnectionPoolEndpoint::hitRatio).register(meterRegistry);
+    }
+
+    @ReadOperation
+    public PoolSummary pool() {
+        // every Hikari pool bean: Spring Boot's own one, or "primary" and "replica" behind the routing DataSource
+        List<PoolState> pools = hikariDataSources.orderedStream().map(this::state).toList();
+        return new PoolSummary(
+                pools,
+                new StatementCacheSummary(
+                        statistics.isStatisticsEnabled(),
+                        statistics.getQueryPlanCacheHitCount(),
+                        statistics.getQueryPlanCacheMissCount(),
+                        hitRatio(statistics)));
+    }
+
+    private PoolState state(HikariDataSource hikari) {
+        HikariPoolMXBean pool = hikari.getHikariPoolMXBean(); // null until first connection
+        String poolName = hikari.getPoolName();
+
+        Timer acquire = meterRegistry.find("hikaricp.connections.acquire").tag("pool", poolName).timer();
+        HistogramSnapshot latency = acquire == null ? null : acquire.takeSnapshot();
+        Counter timeouts = meterRegistry.find("hikaricp.connections.timeout").tag("pool", poolName).counter();
+
+        Map<String, String> driverSettings = new TreeMap<>();
+        for (String setting : DRIVER_CACHE_SETTINGS) {
+            driverSettings.put(setting, hikari.getDataSourceProperties().getProperty(setting, "driver default"));
+        }
+
+        return new PoolState(
+                poolName,
+                pool == null ? 0 : pool.getActiveConnections(),
+                pool == null ? 0 : pool.getIdleConnections(),
+                pool == null ? 0 : pool.getThreadsAwaitingConnection(),
+                pool == null ? 0 : pool.getTotalConnections(),
+                hikari.getMaximumPoolSize(),
+                latency == null ? 0 : latency.count(),
+                latency == null ? Double.NaN : latency.mean(TimeUnit.MILLISECONDS),
+                latency == null ? Double.NaN : RepositoryMetricsEndpoint.percentileMillis(latency, 0.5), // NaN without "perf" profile
+                latency == null ? Double.NaN : RepositoryMetricsEndpoint.percentileMillis(latency, 0.99),
+                latency == null ? Double.NaN : latency.max(TimeUnit.MILLISECONDS),
+                timeouts == null ? 0 : (long) timeouts.count(),
+                driverSettings);
+    }
+
+    private static double hitRatio(Statistics statistics) {
+        long hits = statistics.getQueryPlanCacheHitCount();
+        long total = hits + statistics.getQueryPlanCacheMissCount();
+        return total == 0 ? Double.NaN : (double) hits / total;
+    }
+
+    public record PoolSummary(
+            List<PoolState> pools, // empty with some other pool than Hikari
+            StatementCacheSummary statementCache) {
+    }
+
+    public record PoolState(
+            String pool,
+            int active,
+            int idle,
+            int pending, // threads waiting for a connection right now
+            int total,
+            int maximumPoolSize,
+            long acquires,
+            double acquireMeanMillis,
+            double acquireP50Millis,
+            double acquireP99Millis,
+            double acquireMaxMillis,
+            long acquireTimeouts,
+            Map<String, String> driverSettings) { // the driver's statement cache settings of this pool
+    }
+
+    public record StatementCacheSummary(
+            boolean statisticsEnabled, // counts stay 0 without hibernate.generate_statistics
+            long queryPlanHits,
+            long queryPlanMisses,
+            double queryPlanHitRatio) {
+    }
+}
@@ -1,14 +1,21 @@
 package com.lorenadiam;
 
 import jakarta.persistence.*;
-import lombok.Data;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.Hibernate;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import java.util.ArrayList;
 import java.util.List;
 
-@Data
+@Getter
+@Setter
 @NoArgsConstructor
+@Cacheable // 2nd level cache ("cache" profile). Courses are read all the time and almost never change
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "course")
 @Entity(name = "Course")
 @Table(name = "course")
 public class Course {
@@ -17,7 +24,7 @@ public class Course {
     @SequenceGenerator(
             name = "course_sequence",
             sequenceName = "course_sequence",
-            allocationSize = 1)
+            allocationSize = 50) // same as hibernate.jdbc.batch_size, one nextval per 50 rows
     @GeneratedValue(
             strategy = GenerationType.SEQUENCE,
             generator = "course_sequence")
@@ -62,4 +69,29 @@ public class Course {
     public void removeEnrolment(Enrolment enrolment){
         enrolments.remove(enrolment);
     }
+
+    // Same equality model as Student: id only (no association is touched), final so proxies don't get initialized
+    @Override
+    public final boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Course other)) {
+            return false;
+        }
+        return getId() != null && getId().equals(other.getId());
+    }
+
+    @Override
+    public final int hashCode() {
+        return Course.class.hashCode();
+    }
+
+    @Override
+    public final String toString() {
+        if (!Hibernate.isInitialized(this)) {
+            return "Course(id=" + getId() + ", not loaded)";
+        }
+        return "Course(id=" + getId() + ", name=" + getName() + ", department=" + getDepartment() + ")"; // no enrolments
+    }
 }
@@ -0,0 +1,145 @@
+package com.lorenadiam;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// The one CSV codec of the app: roster files, book archive files, seed data for postgres COPY.
+// Field with comma, quote or line break is wrapped in "..." ("" inside is a quote), so is an empty one (COPY reads a bare one as NULL).
+// Lists inside one field (books, courses) are separated with a character of their own; that character and \ in a value
+// get a \ in front, so "Love; Actually" or a course "CS/IT" come back as they were.
+final class Csv {
+
+    private static final char ESCAPE = '\\';
+
+    private Csv() {
+    }
+
+    static String quote(String field) {
+        if (!field.isEmpty() && field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0 && field.indexOf('\r') < 0) {
+            return field;
+        }
+        return '"' + field.replace("\"", "\"\"") + '"';
+    }
+
+    // fields of one line
+    static List<String> split(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    // Every row of a whole file, header too. Quoted fields can span lines, so it reads chars, not lines.
+    // Reader has to support mark() (BufferedReader)
+    static void readRows(Reader reader, Consumer<List<String>> rows) throws IOException {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        int c;
+        while ((c = reader.read()) != -1) {
+            if (quoted) {
+                if (c == '"') {
+                    reader.mark(1);
+                    if (reader.read() == '"') {
+                        field.append('"');
+                    } else {
+                        reader.reset();
+                        quoted = false;
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n') {
+                fields.add(field.toString());
+                field.setLength(0);
+                rows.accept(List.copyOf(fields));
+                fields.clear();
+            } else {
+                field.append((char) c);
+            }
+        }
+    }
+
+    // one list value, \ in front of \ and of every separator given
+    static String escape(String value, char... separators) {
+        StringBuilder escaped = new StringBuilder(value.length() + 8);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ESCAPE || contains(separators, c)) {
+                escaped.append(ESCAPE);
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+
+    // parts between separators that have no \ in front. Parts stay escaped (a part can be split again), unescape() at the end
+    static List<String> splitEscaped(String text, char separator) {
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == ESCAPE) {
+                i++; // next char is a value char, whatever it is
+            } else if (c == separator) {
+                parts.add(text.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(text.substring(start));
+        return parts;
+    }
+
+    static String unescape(String part) {
+        if (part.indexOf(ESCAPE) < 0) {
+            return part;
+        }
+        StringBuilder value = new StringBuilder(part.length());
+        for (int i = 0; i < part.length(); i++) {
+            char c = part.charAt(i);
+            if (c == ESCAPE && i + 1 < part.length()) {
+                c = part.charAt(++i);
+            }
+            value.append(c);
+        }
+        return value.toString();
+    }
+
+    private static boolean contains(char[] chars, char c) {
+        for (char candidate : chars) {
+            if (candidate == c) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
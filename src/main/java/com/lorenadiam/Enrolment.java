@@ -1,19 +1,21 @@
 package com.lorenadiam;
 
 import jakarta.persistence.*;
-import lombok.Data;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
 
 import java.time.LocalDateTime;
 
-@Data
+@Getter
+@Setter
 @NoArgsConstructor
 @Entity(name = "Enrolment")
 @Table(name = "enrolment")
 public class Enrolment {
 
     @EmbeddedId
-    private EnrolmentId id; // this is our composite key!
+    private EnrolmentId id = new EnrolmentId(); // this is our composite key! Empty, @MapsId copies student and course ids into it on persist
 
     @ManyToOne
     @MapsId("studentId") // this means just that this student is part of the id (studentId from enrolmentID class)
@@ -35,9 +37,36 @@ public class Enrolment {
         this.createdAt = createdAt;
     }
 
+    // Preferred: no EnrolmentId by hand, student and course don't even need ids yet (they get them when saved together)
     public Enrolment(Student student, Course course, LocalDateTime createdAt) {
         this.student = student;
         this.course = course;
         this.createdAt = createdAt;
     }
+
+    // Same equality model as Student: id only (no association is touched), final so proxies don't get initialized
+    @Override
+    public final boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Enrolment other)) {
+            return false;
+        }
+        // composite id is only complete after persist (@MapsId), before that only the same object is equal
+        EnrolmentId id = getId();
+        return id != null && id.getStudentId() != null && id.getCourseId() != null && id.equals(other.getId());
+    }
+
+    @Override
+    public final int hashCode() {
+        return Enrolment.class.hashCode();
+    }
+
+    @Override
+    public final String toString() {
+        EnrolmentId id = getId(); // both ids, not the Student and Course objects
+        return "Enrolment(studentId=" + (id == null ? null : id.getStudentId()) + ", courseId=" +
+                (id == null ? null : id.getCourseId()) + ", createdAt=" + getCreatedAt() + ")";
+    }
 }
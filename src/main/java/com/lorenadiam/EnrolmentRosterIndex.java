@@ -0,0 +1,327 @@
+package com.lorenadiam;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCommitDeleteEventListener;
+import org.hibernate.event.spi.PostCommitInsertEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.persister.entity.EntityPersister;
+import org.roaringbitmap.longlong.Roaring64Bitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+// Course -> students enrolled in it, as a compressed bitmap of student ids (RoaringBitmap), built from the enrolment link table.
+// "Who is in course X", "who is in X AND Y", "who is in X OR Y", headcounts: no SQL, no Enrolment/Student/Course entities,
+// microseconds even for big courses (a bitmap of 100 000 student ids is a few KB, intersection works on whole 64-bit words).
+// Kept up to date after COMMIT (Hibernate post-commit insert/delete of Enrolment = Student.addEnrolment/removeEnrolment
+// saved, roster import, deleted students; EnrolmentService calls enrolledAfterCommit()), rolled back enrolments never get here.
+// JPQL bulk deletes fire no entity events, code running them calls rebuildAfterCommit() (StudentBulkOperations).
+// Built once when the app is ready (roster-index.rebuild-on-start), after the command line runners loaded their data: that also
+// covers the JDBC rows of SeedDataGenerator (seedDataRunner rebuilds it itself only when rebuild-on-start is off).
+// The build runs in the background, readiness isn't held back by the whole enrolment table; queries wait for it.
+// Only ids are returned, caller loads the students it really needs (findAllById).
+// Built from the application database's enrolment table: not there when students (and their enrolments) are sharded.
+@Component
+@ConditionalOnExpression(ShardingConfiguration.NOT_SHARDED)
+public class EnrolmentRosterIndex implements PostCommitInsertEventListener, PostCommitDeleteEventListener {
+
+    private static final Logger log = LoggerFactory.getLogger(EnrolmentRosterIndex.class);
+    private static final Roaring64Bitmap EMPTY = new Roaring64Bitmap();
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean rebuildOnStart;
+
+    // Bitmaps are not thread safe: many readers at once, one writer alone. Writes are short (add/remove one id),
+    // rebuild reads the table WITHOUT the lock and only swaps the finished map under it.
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Map<Long, Roaring64Bitmap> rosters = new HashMap<>();
+    private List<Change> changesDuringRebuild; // not null while rebuild reads the table, replayed on the new map after it
+    // open after the first rebuild (or right away without rebuild-on-start: events only, like before)
+    private final CountDownLatch firstBuild;
+    private volatile boolean firstBuildFailed;
+
+    public EnrolmentRosterIndex(
+            DataSource dataSource,
+            PlatformTransactionManager transactionManager,
+            EntityManagerFactory entityManagerFactory,
+            MeterRegistry meterRegistry,
+            @Value("${roster-index.fetch-size:10000}") int fetchSize,
+            @Value("${roster-index.rebuild-on-start:true}") boolean rebuildOnStart) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(fetchSize);
+        // read-write on purpose: a read-only transaction may go to the replica (ReadWriteRoutingDataSource), which can be
+        // behind the commits we already got events for. Transaction also lets PostgreSQL stream rows by fetch size
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.rebuildOnStart = rebuildOnStart;
+        this.firstBuild = new CountDownLatch(rebuildOnStart ? 1 : 0);
+
+        Gauge.builder("roster.index.built", this, index -> index.isBuilt() ? 1 : 0).register(meterRegistry);
+        Gauge.builder("roster.index.courses", this, index -> index.read(() -> index.rosters.size())).register(meterRegistry);
+        Gauge.builder("roster.index.enrolments", this, EnrolmentRosterIndex::enrolments).register(meterRegistry);
+        Gauge.builder("roster.index.size", this, EnrolmentRosterIndex::sizeInBytes).baseUnit("bytes").register(meterRegistry);
+
+        EventListenerRegistry listeners = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry().getService(EventListenerRegistry.class);
+        listeners.appendListeners(EventType.POST_COMMIT_INSERT, this);
+        listeners.appendListeners(EventType.POST_COMMIT_DELETE, this);
+    }
+
+    // student ids in course, ascending
+    public long[] studentsIn(long courseId) {
+        return query(() -> roster(courseId).toArray());
+    }
+
+    // enrolled in EVERY given course (intersection)
+    public long[] studentsInAll(long... courseIds) {
+        return query(() -> {
+            if (courseIds.length == 0) {
+                return new long[0];
+            }
+            Roaring64Bitmap result = roster(courseIds[0]).clone();
+            for (int i = 1; i < courseIds.length && !result.isEmpty(); i++) {
+                result.and(roster(courseIds[i]));
+            }
+            return result.toArray();
+        });
+    }
+
+    // enrolled in AT LEAST ONE of the given courses (union), every student once
+    public long[] studentsInAny(long... courseIds) {
+        return query(() -> {
+            Roaring64Bitmap result = new Roaring64Bitmap();
+            for (long courseId : courseIds) {
+                result.or(roster(courseId));
+            }
+            return result.toArray();
+        });
+    }
+
+    // same as studentsInAll(...).length, for 2 courses without building the intersection at all
+    public long countInAll(long... courseIds) {
+        if (courseIds.length == 2) {
+            return query(() -> Roaring64Bitmap.andCardinality(roster(courseIds[0]), roster(courseIds[1])));
+        }
+        return studentsInAll(courseIds).length;
+    }
+
+    public long headcount(long courseId) {
+        return query(() -> roster(courseId).getLongCardinality());
+    }
+
+    // course id -> enrolled students, courses without students are not in the map
+    public Map<Long, Long> headcounts() {
+        return query(() -> {
+            Map<Long, Long> headcounts = new HashMap<>();
+            rosters.forEach((courseId, roster) -> headcounts.put(courseId, roster.getLongCardinality()));
+            return headcounts;
+        });
+    }
+
+    public boolean isEnrolled(long studentId, long courseId) {
+        return query(() -> roster(courseId).contains(studentId));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildOnStart() {
+        if (rebuildOnStart) {
+            Thread.ofPlatform().name("roster-index-rebuild").daemon().start(() -> {
+                try {
+                    rebuild();
+                } catch (RuntimeException e) {
+                    log.error("Roster index could not be built on start", e);
+                    firstBuildFailed = true;
+                    firstBuild.countDown();
+                }
+            });
+        }
+    }
+
+    // false while the first rebuild reads the table
+    public boolean isBuilt() {
+        return firstBuild.getCount() == 0 && !firstBuildFailed;
+    }
+
+    // Whole enrolment table again, only the 2 id columns (enrolment primary key index). Reads and commits go on meanwhile:
+    // readers see the old map, commits are applied to the old map AND remembered, and replayed on the new one before the swap
+    // (a commit may or may not be in what the query read, add/remove of the same id twice doesn't change anything).
+    public synchronized void rebuild() { // one at a time, changesDuringRebuild belongs to one rebuild
+        long start = System.nanoTime();
+        write(() -> changesDuringRebuild = new ArrayList<>());
+        Map<Long, Roaring64Bitmap> rebuilt = new HashMap<>();
+        try {
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.query(
+                    "SELECT course_id, student_id FROM enrolment",
+                    (RowCallbackHandler) resultSet -> rebuilt.computeIfAbsent(resultSet.getLong(1), courseId -> new Roaring64Bitmap())
+                            .addLong(resultSet.getLong(2))));
+        } catch (RuntimeException e) {
+            write(() -> changesDuringRebuild = null);
+            throw e;
+        }
+        write(() -> {
+            changesDuringRebuild.forEach(change -> change.applyTo(rebuilt));
+            changesDuringRebuild = null;
+            rosters = rebuilt;
+        });
+        firstBuildFailed = false;
+        firstBuild.countDown();
+        log.info("Roster index rebuilt: {} courses, {} enrolments, {} bytes in {} ms",
+                rebuilt.size(), enrolments(), sizeInBytes(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // After commit of the current transaction (or now if there is none)
+    public void rebuildAfterCommit() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    rebuild();
+                }
+            });
+        } else {
+            rebuild();
+        }
+    }
+
+    // Enrolments inserted with SQL (EnrolmentService), after commit of the current transaction
+    public void enrolledAfterCommit(List<EnrolmentService.EnrolmentPair> pairs) {
+        if (pairs.isEmpty()) {
+            return;
+        }
+        List<Change> changes = pairs.stream().map(pair -> new Change(pair.studentId(), pair.courseId(), true)).toList();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    changes.forEach(EnrolmentRosterIndex.this::apply);
+                }
+            });
+        } else {
+            changes.forEach(this::apply);
+        }
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        if (event.getEntity() instanceof Enrolment enrolment) {
+            apply(new Change(enrolment.getId().getStudentId(), enrolment.getId().getCourseId(), true));
+        }
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        if (event.getEntity() instanceof Enrolment enrolment) {
+            apply(new Change(enrolment.getId().getStudentId(), enrolment.getId().getCourseId(), false));
+        }
+    }
+
+    @Override
+    public boolean requiresPostCommitHandling(EntityPersister persister) {
+        return persister.getMappedClass() == Enrolment.class;
+    }
+
+    @Override
+    public void onPostInsertCommitFailed(PostInsertEvent event) { // rolled back, index only has committed enrolments
+    }
+
+    @Override
+    public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+    }
+
+    long enrolments() {
+        return read(() -> rosters.values().stream().mapToLong(Roaring64Bitmap::getLongCardinality).sum());
+    }
+
+    long sizeInBytes() {
+        return read(() -> rosters.values().stream().mapToLong(Roaring64Bitmap::getLongSizeInBytes).sum());
+    }
+
+    private void apply(Change change) {
+        write(() -> {
+            change.applyTo(rosters);
+            if (changesDuringRebuild != null) {
+                changesDuringRebuild.add(change);
+            }
+        });
+    }
+
+    // only under read or write lock
+    private Roaring64Bitmap roster(long courseId) {
+        return rosters.getOrDefault(courseId, EMPTY);
+    }
+
+    // read() for callers: waits until the first rebuild is done, a half-read table would give wrong rosters
+    private <T> T query(Supplier<T> reader) {
+        try {
+            firstBuild.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the roster index", e);
+        }
+        if (firstBuildFailed) {
+            throw new IllegalStateException("Roster index could not be built on start, see the log (rebuild() retries)");
+        }
+        return read(reader);
+    }
+
+    private <T> T read(Supplier<T> reader) {
+        lock.readLock().lock();
+        try {
+            return reader.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void write(Runnable writer) {
+        lock.writeLock().lock();
+        try {
+            writer.run();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private record Change(long studentId, long courseId, boolean enrolled) {
+
+        void applyTo(Map<Long, Roaring64Bitmap> rosters) {
+            if (enrolled) {
+                rosters.computeIfAbsent(courseId, id -> new Roaring64Bitmap()).addLong(studentId);
+                return;
+            }
+            Roaring64Bitmap roster = rosters.get(courseId);
+            if (roster != null) {
+                roster.removeLong(studentId);
+                if (roster.isEmpty()) {
+                    rosters.remove(courseId);
+                }
+            }
+        }
+    }
+}
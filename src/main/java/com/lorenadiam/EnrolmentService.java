@@ -0,0 +1,118 @@
+package com.lorenadiam;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.Session;
+import org.postgresql.PGConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Enrols many existing students into existing courses by ids (a whole cohort at once).
+// No entity at all: one INSERT ... SELECT FROM unnest(student ids, course ids) per chunk, only ids go to the database.
+// Idempotent: same pair twice in the request, or a pair that is already enrolled, is skipped and counted as duplicate.
+// ON CONFLICT DO NOTHING skips them in the database, also a pair a concurrent enrol() inserts at the same moment (the second
+// INSERT waits for the first one's row, then skips it) - a SELECT of existing pairs first would let both pass and one fail.
+// Inserted pairs come back (RETURNING on postgres, FINAL TABLE on H2). SQL fires no entity events, so AggregateCounters get
+// their +n in this transaction and EnrolmentRosterIndex the pairs after commit, here.
+// Application database only: not there when students are sharded (sharding.urls, see ShardingConfiguration).
+@Service
+@ConditionalOnExpression(ShardingConfiguration.NOT_SHARDED)
+public class EnrolmentService {
+
+    private static final Logger log = LoggerFactory.getLogger(EnrolmentService.class);
+
+    private static final String POSTGRES_INSERT = "INSERT INTO enrolment (student_id, course_id, created_at) " +
+            "SELECT s, c, ? FROM unnest(?, ?) AS p (s, c) ON CONFLICT DO NOTHING RETURNING student_id, course_id";
+    private static final String H2_INSERT = "SELECT student_id, course_id FROM FINAL TABLE (" +
+            "INSERT INTO enrolment (student_id, course_id, created_at) " +
+            "SELECT s, c, ? FROM UNNEST(?, ?) AS p (s, c) ON CONFLICT DO NOTHING)";
+    // primary key order (course_id, student_id): 2 requests with overlapping pairs insert them in the same order, no deadlock
+    private static final Comparator<EnrolmentPair> KEY_ORDER =
+            Comparator.comparingLong(EnrolmentPair::courseId).thenComparingLong(EnrolmentPair::studentId);
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final AggregateCounters aggregateCounters;
+    private final EnrolmentRosterIndex enrolmentRosterIndex;
+    private final int chunkSize;
+
+    public EnrolmentService(
+            AggregateCounters aggregateCounters,
+            EnrolmentRosterIndex enrolmentRosterIndex,
+            @Value("${enrolment.chunk-size:1000}") int chunkSize) {
+        this.aggregateCounters = aggregateCounters;
+        this.enrolmentRosterIndex = enrolmentRosterIndex;
+        this.chunkSize = chunkSize;
+    }
+
+    public record EnrolmentPair(long studentId, long courseId) {
+    }
+
+    public record EnrolmentResult(int requested, int enrolled, int duplicates, long elapsedMillis) {
+    }
+
+    // All pairs in ONE transaction (all or nothing). Unknown student or course id -> FK violation, nothing is saved.
+    @Transactional
+    public EnrolmentResult enrol(Collection<EnrolmentPair> pairs) {
+        long start = System.nanoTime();
+        List<EnrolmentPair> unique = new ArrayList<>(new LinkedHashSet<>(pairs)); // duplicates inside the request
+        unique.sort(KEY_ORDER);
+        LocalDateTime now = LocalDateTime.now();
+        Session session = entityManager.unwrap(Session.class); // JDBC on the connection of this transaction
+        // students/courses the caller persisted earlier in this transaction are only in the session yet, our SQL needs their rows
+        session.flush();
+
+        List<EnrolmentPair> enrolled = new ArrayList<>();
+        for (int from = 0; from < unique.size(); from += chunkSize) {
+            List<EnrolmentPair> chunk = unique.subList(from, Math.min(unique.size(), from + chunkSize));
+            enrolled.addAll(session.doReturningWork(connection -> insert(connection, chunk, now)));
+        }
+        Map<Long, Long> perCourse = new TreeMap<>();
+        enrolled.forEach(pair -> perCourse.merge(pair.courseId(), 1L, Long::sum));
+        perCourse.forEach((courseId, added) ->
+                aggregateCounters.addInTransaction(session, AggregateCounters.Aggregate.COURSE_ENROLMENTS, courseId, added));
+        enrolmentRosterIndex.enrolledAfterCommit(enrolled);
+
+        long elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        log.info("Enrolled {} pairs ({} duplicates) in {} ms ({} enrolments/sec)",
+                enrolled.size(), pairs.size() - enrolled.size(), elapsedMillis, enrolled.size() * 1000L / elapsedMillis);
+        return new EnrolmentResult(pairs.size(), enrolled.size(), pairs.size() - enrolled.size(), elapsedMillis);
+    }
+
+    // One statement per chunk, returns the pairs that were really inserted
+    private static List<EnrolmentPair> insert(Connection connection, List<EnrolmentPair> chunk, LocalDateTime now) throws SQLException {
+        Long[] studentIds = chunk.stream().map(EnrolmentPair::studentId).toArray(Long[]::new);
+        Long[] courseIds = chunk.stream().map(EnrolmentPair::courseId).toArray(Long[]::new);
+        boolean postgres = connection.isWrapperFor(PGConnection.class);
+        List<EnrolmentPair> inserted = new ArrayList<>(chunk.size());
+        try (PreparedStatement statement = connection.prepareStatement(postgres ? POSTGRES_INSERT : H2_INSERT)) {
+            statement.setObject(1, now);
+            statement.setArray(2, connection.createArrayOf(postgres ? "int8" : "BIGINT", studentIds));
+            statement.setArray(3, connection.createArrayOf(postgres ? "int8" : "BIGINT", courseIds));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    inserted.add(new EnrolmentPair(resultSet.getLong(1), resultSet.getLong(2)));
+                }
+            }
+        }
+        return inserted;
+    }
+}
@@ -0,0 +1,59 @@
+package com.lorenadiam;
+
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.servlet.Filter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.flyway.FlywayMigrationInitializer;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.orm.jpa.AbstractEntityManagerFactoryBean;
+
+// "fast" profile (application-fast.properties) for autoscaled pods: lazy beans, no demo data, startup report.
+// Build for it with: mvn -Pfast-startup package (Spring AOT + class data sharing archive, see pom.xml)
+@Configuration
+public class FastStartupConfiguration {
+
+    // With spring.main.lazy-initialization=true every bean is created on first use, EXCEPT these:
+    // migrations and the Hibernate metamodel must be ready (and the schema validated) before the pod says it is ready,
+    // otherwise the first request pays for them and a wrong schema is found only after the pod is ready.
+    // Without lazy initialization this filter does nothing.
+    @Bean
+    static LazyInitializationExcludeFilter eagerJpaAndMigrations() {
+        return LazyInitializationExcludeFilter.forBeanTypes(
+                FlywayMigrationInitializer.class, EntityManagerFactory.class, AbstractEntityManagerFactoryBean.class);
+    }
+
+    @Bean
+    @ConditionalOnProperty("startup.report")
+    StartupReport startupReport() {
+        return new StartupReport();
+    }
+
+    @Bean
+    @ConditionalOnProperty("startup.report")
+    FilterRegistrationBean<Filter> firstRequestTimer(StartupReport startupReport) {
+        Filter filter = (request, response, chain) -> {
+            chain.doFilter(request, response);
+            startupReport.requestCompleted();
+        };
+        return new FilterRegistrationBean<>(filter);
+    }
+
+    // startup.exit-after-start=true: stop as soon as the app is ready. For the class data sharing training run in the
+    // build (classes loaded until then go to the archive) and for measuring startup in a loop.
+    // Property is checked at runtime and not with @ConditionalOnProperty: with AOT conditions are evaluated at build time.
+    @Bean
+    ApplicationListener<ApplicationReadyEvent> exitAfterStart(@Value("${startup.exit-after-start:false}") boolean exitAfterStart) {
+        return event -> {
+            if (exitAfterStart) {
+                System.exit(SpringApplication.exit(event.getApplicationContext()));
+            }
+        };
+    }
+}
@@ -0,0 +1,74 @@
+package com.lorenadiam;
+
+import org.hibernate.BaseSessionEventListener;
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.spi.BootstrapContext;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostLoadEvent;
+import org.hibernate.event.spi.PostLoadEventListener;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+
+// Counts what Hibernate does on the CURRENT thread: SQL statements, loaded entities and flushes.
+// RepositoryMetrics reads the counters before and after a repository call, difference = work done by that call.
+// Global Hibernate Statistics can't be used for this, they mix calls of all threads together.
+public final class HibernateCallCounters {
+
+    private static final ThreadLocal<long[]> COUNTERS = ThreadLocal.withInitial(() -> new long[3]);
+    private static final int STATEMENTS = 0;
+    private static final int ENTITIES_LOADED = 1;
+    private static final int FLUSHES = 2;
+
+    private HibernateCallCounters() {
+    }
+
+    // copy of current values: [statements, entities loaded, flushes]
+    static long[] snapshot() {
+        return COUNTERS.get().clone();
+    }
+
+    static long statements(long[] before, long[] after) {
+        return after[STATEMENTS] - before[STATEMENTS];
+    }
+
+    static long entitiesLoaded(long[] before, long[] after) {
+        return after[ENTITIES_LOADED] - before[ENTITIES_LOADED];
+    }
+
+    static long flushes(long[] before, long[] after) {
+        return after[FLUSHES] - before[FLUSHES];
+    }
+
+    // every SQL goes through here before it is prepared (hibernate.session_factory.statement_inspector)
+    public static class CountingStatementInspector implements StatementInspector {
+        @Override
+        public String inspect(String sql) {
+            COUNTERS.get()[STATEMENTS]++;
+            return sql;
+        }
+    }
+
+    // Hibernate creates one per session (hibernate.session.events.auto)
+    public static class FlushCountingListener extends BaseSessionEventListener {
+        @Override
+        public void flushEnd(int numberOfEntities, int numberOfCollections) {
+            COUNTERS.get()[FLUSHES]++;
+        }
+    }
+
+    // registered through hibernate.integrator_provider, see RepositoryMetricsConfiguration
+    public static class EntityLoadCountingIntegrator implements Integrator {
+        @Override
+        public void integrate(Metadata metadata, BootstrapContext bootstrapContext, SessionFactoryImplementor sessionFactory) {
+            sessionFactory.getServiceRegistry().getService(EventListenerRegistry.class)
+                    .appendListeners(EventType.POST_LOAD, (PostLoadEventListener) (PostLoadEvent event) -> COUNTERS.get()[ENTITIES_LOADED]++);
+        }
+
+        @Override
+        public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+        }
+    }
+}
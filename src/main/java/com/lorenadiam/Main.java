@@ -1,14 +1,21 @@
 package com.lorenadiam;
 
 import com.github.javafaker.Faker;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.flyway.FlywayMigrationStrategy;
+import org.springframework.boot.context.metrics.buffering.BufferingApplicationStartup;
 import org.springframework.context.annotation.Bean;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 
 @SpringBootApplication
@@ -17,10 +24,17 @@ public class Main {
 	private static final Faker faker = new Faker();
 
 	public static void main(String[] args) {
-		SpringApplication.run(Main.class, args);
+		SpringApplication application = new SpringApplication(Main.class);
+		// keeps startup steps (phases, every bean) in memory: StartupReport ("fast" profile) and /actuator/startup read them
+		application.setApplicationStartup(new BufferingApplicationStartup(4096));
+		application.run(args);
 	}
 
+	// demo data on every start, "dev" profile only (its cards and emails are fixed, so it needs the recreated schema).
+	// Not with sharded students: it writes through the application database's StudentRepository
 	@Bean
+	@ConditionalOnProperty(name = "demo-data.enabled", matchIfMissing = true)
+	@ConditionalOnExpression(ShardingConfiguration.NOT_SHARDED)
 	CommandLineRunner commandLineRunner(
 			StudentRepository studentRepository) {
 
@@ -38,27 +52,27 @@ public class Main {
 			// setting the id card on student1 to be able to save it (card) to db on the next step together with the student!
 			student1.setStudentIdCard(studentIdCard); // only setting studentIdCard, and later to be able to save it
 
-			student1.addEnrolment(new Enrolment(
-					new EnrolmentId(1L, 1L), // right now we are manually passing ids.
-					student1, // Here we have student1 as 2nd param. That's why addEnrolment() don't require sync with student!
+			student1.addEnrolment(new Enrolment( // no EnrolmentId by hand anymore, @MapsId fills it from student and course ids on save
+					student1, // Here we have student1 as 1st param. That's why addEnrolment() don't require sync with student!
 					new Course("Computer Science", "IT"),
 					LocalDateTime.now()) );
 
 			student1.addEnrolment(new Enrolment(
-					new EnrolmentId(1L, 2L),
 					student1, // In addBook() Book object doesn't have student object as param. That's why method needs sync with student.
 					new Course("Spring Data JPA", "IT"),
 					LocalDateTime.now()) );
 
+			// Enrolling many existing students into existing courses by ids: EnrolmentService.enrol(pairs), INSERT ... ON CONFLICT DO NOTHING per chunk, no entity loading
+
 			studentRepository.save(student1); // saving student, also studentIdCard and now Books too!
 			// We are basically creating & saving all data through student object. Beside actual student, we also set card and books.
 
-			studentRepository.findById(1L) // testing BIDirectional relationship. It will add JOIN to student id card!
-					.ifPresent(s -> { // Student Card is loaded automatically since FetchType is EAGER for 121.
-						System.out.println("Fetch book lazy..."); // Books not loaded since FetchType is LAZY for 12M/M21!
+			studentRepository.findWithBooksById(student1.getId()) // "Student.withBooks" plan, card and books come with the same SELECT (JOINs)
+					.ifPresent(s -> { // findById() would load only student + card, and books with one more query when we touch them
+						System.out.println("Books loaded with student...");
 
-						List<Book> books = student1.getBooks();// This is how we force it to load the Books too from db!
-						books.forEach(book -> { // or we put FetchType to EAGER.
+						List<Book> books = s.getBooks(); // already loaded, no extra query
+						books.forEach(book -> {
 							System.out.println(s.getFirstName() + " borrowed " + book.getBookName());
 						});
 					});
@@ -68,9 +82,13 @@ public class Main {
 //			studentRepository.deleteById(1L); // Testing Orphan removal. It will delete both Student and StudentIdCard entities
 
 //			generateAndSaveRandomStudents(studentRepository);
+			// Write throughput (rows/sec). Run once with default and once with "--spring.profiles.active=bulk" to compare
+//			benchmarkBatchedSave(studentRepository, 10_000);
 			// Paging examples. Return 5 students per page example
 //			pagingExamples(studentRepository);
 
+			// OFFSET paging vs keyset paging on a deep page: benchmarks/PagingBenchmark (pageNumber=10000)
+
 			// sorting on First Name
 //			sortingExamples(studentRepository);
 
@@ -141,6 +159,46 @@ public class Main {
 		};
 	}
 
+	// schema.recreate-on-start=true ("dev" profile): drop everything and run all migrations again, same as create-drop did before Flyway
+	@Bean
+	@ConditionalOnProperty("schema.recreate-on-start")
+	FlywayMigrationStrategy recreateSchemaOnStart() {
+		return flyway -> {
+			flyway.clean();
+			flyway.migrate();
+		};
+	}
+
+	// Only runs when file is given, e.g. --roster.import.file=/data/roster.csv (or .ndjson)
+	@Bean
+	@ConditionalOnProperty("roster.import.file")
+	CommandLineRunner rosterImportRunner(
+			StudentRosterImporter studentRosterImporter,
+			@Value("${roster.import.file}") String rosterFile) {
+
+		return args -> studentRosterImporter.importRoster(Path.of(rosterFile));
+	}
+
+	// --seed.students=1000000 (optional --seed.random-seed=42): deterministic load test data, see SeedDataGenerator
+	@Bean
+	@ConditionalOnProperty("seed.students")
+	CommandLineRunner seedDataRunner(
+			SeedDataGenerator seedDataGenerator,
+			AggregateCounters aggregateCounters,
+			EnrolmentRosterIndex enrolmentRosterIndex,
+			@Value("${seed.students}") long students,
+			@Value("${seed.random-seed:42}") long seed,
+			@Value("${roster-index.rebuild-on-start:true}") boolean rosterIndexRebuildOnStart) {
+
+		return args -> {
+			seedDataGenerator.generate(students, seed);
+			aggregateCounters.reconcile(); // rows were loaded with JDBC, no counter was updated
+			if (!rosterIndexRebuildOnStart) { // otherwise the index is built after the runners anyway, once is enough
+				enrolmentRosterIndex.rebuild(); // no entity events for JDBC rows either
+			}
+		};
+	}
+
 	private static void pagingExamples(StudentRepository studentRepository) {
 		PageRequest pageRequest = PageRequest.of(
 				0,
@@ -162,6 +220,7 @@ public class Main {
 		);
 	}
 
+	// 20 students one by one. For load test volumes use SeedDataGenerator (--seed.students=...)
 	private static void generateAndSaveRandomStudents(StudentRepository studentRepository) {
 		for (int i = 0; i < 20; i++) {
 			Student student = generateStudent(studentRepository);
@@ -169,7 +228,35 @@ public class Main {
 		}
 	}
 
-	private static Student generateStudent(StudentRepository studentRepository) {
+	// Saves the whole cascade graph (student -> id card -> books -> enrolments) in ONE saveAll() call (one transaction).
+	// With allocationSize = 1 and no batching this is 2 round trips per row (nextval + INSERT).
+	// With "bulk" profile ids come from memory (pooled-lo) and INSERTs are sent in JDBC batches.
+	private static void benchmarkBatchedSave(StudentRepository studentRepository, int studentsCount) {
+		Course computerScience = new Course("Computer Science", "IT");
+		Course springDataJpa = new Course("Spring Data JPA", "IT");
+
+		List<Student> students = new ArrayList<>(studentsCount);
+		for (int i = 0; i < studentsCount; i++) {
+			Student student = generateStudent(studentRepository);
+			student.setEmail(i + "." + student.getEmail()); // faker names repeat, email has to be unique
+			student.setStudentIdCard(new StudentIdCard(String.valueOf(100_000_000L + i), student));
+			student.addBook(new Book(faker.book().title(), LocalDateTime.now()));
+			student.addBook(new Book(faker.book().title(), LocalDateTime.now().minusDays(7)));
+			student.addEnrolment(new Enrolment(student,
+					i % 2 == 0 ? computerScience : springDataJpa, LocalDateTime.now()));
+			students.add(student);
+		}
+		// rows: student + card + 2 books + 1 enrolment for every student and 2 courses
+		long rows = studentsCount * 5L + 2;
+
+		long start = System.nanoTime();
+		studentRepository.saveAll(students);
+		long elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+
+		System.out.printf("Saved %d rows in %d ms (%d rows/sec)%n", rows, elapsedMillis, rows * 1000 / elapsedMillis);
+	}
+
+	static Student generateStudent(StudentRepository studentRepository) { // also used by benchmarks module
 		String firstName = faker.name().firstName();
 		String lastName = faker.name().lastName();
 		String email = String.format("%s.%s@gmail.com", firstName.toLowerCase(), lastName.toLowerCase());
@@ -0,0 +1,102 @@
+package com.lorenadiam;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.flywaydb.core.Flyway;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.boot.jdbc.DatabaseDriver;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.Map;
+
+// datasource.replica.url set ("replica" profile): reads go to a PostgreSQL replica, writes to primary (spring.datasource.*).
+// Replaces Spring Boot's single DataSource. JPA, Flyway, JdbcTemplate... all get the routing one (@Primary), Flyway and
+// everything outside a read-only transaction end up on primary. Both pools are Hikari, both have hikaricp.* metrics (pool tag).
+@Configuration
+@ConditionalOnProperty("datasource.replica.url")
+public class ReadWriteRoutingConfiguration {
+
+    // same as Spring Boot's own pool: spring.datasource.url/username/password + spring.datasource.hikari.* (e.g. from "perf" profile)
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("primary");
+        return dataSource;
+    }
+
+    // datasource.replica.url/username/password + datasource.replica.hikari.* for its own pool size etc.
+    @Bean
+    @ConfigurationProperties("datasource.replica.hikari")
+    HikariDataSource replicaDataSource(
+            @Value("${datasource.replica.url}") String url,
+            @Value("${datasource.replica.username:}") String username,
+            @Value("${datasource.replica.password:}") String password,
+            @Value("${datasource.replica.migrate:false}") boolean migrate,
+            @Value("${spring.flyway.locations:classpath:db/migration}") String[] locations) {
+
+        HikariDataSource dataSource = DataSourceBuilder.create().type(HikariDataSource.class)
+                .url(url).username(username).password(password).build();
+        dataSource.setPoolName("replica");
+        dataSource.setReadOnly(true); // replica refuses writes anyway, this way a wrong route fails right away
+        // ONLY for local stand-in replica (second embedded db), a real replica gets the schema from primary.
+        // In-memory H2 needs DB_CLOSE_DELAY=-1 in the url, otherwise db is gone when Flyway closes its connection
+        if (migrate) {
+            Flyway.configure()
+                    .dataSource(url, username, password) // own connection, pool is read-only
+                    .locations(vendorLocations(locations, url))
+                    .load()
+                    .migrate();
+        }
+        return dataSource;
+    }
+
+    @Bean
+    ReplicaLagMonitor replicaLagMonitor(
+            HikariDataSource replicaDataSource,
+            MeterRegistry meterRegistry,
+            // seconds replica is behind; 0 when it has replayed everything it received (idle primary isn't "lag")
+            @Value("${datasource.replica.lag-query:SELECT CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+                    "ELSE EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) END}") String lagQuery,
+            @Value("${datasource.replica.max-lag:5s}") Duration maxLag,
+            @Value("${datasource.replica.lag-check-interval:1s}") Duration checkInterval) {
+
+        return new ReplicaLagMonitor(replicaDataSource, lagQuery, maxLag, checkInterval, meterRegistry);
+    }
+
+    @Bean
+    @Primary
+    DataSource dataSource(
+            HikariDataSource primaryDataSource,
+            HikariDataSource replicaDataSource,
+            ReplicaLagMonitor replicaLagMonitor,
+            MeterRegistry meterRegistry) {
+
+        ReadWriteRoutingDataSource routing = new ReadWriteRoutingDataSource(replicaLagMonitor, meterRegistry);
+        routing.setTargetDataSources(Map.of(
+                ReadWriteRoutingDataSource.Route.PRIMARY, primaryDataSource,
+                ReadWriteRoutingDataSource.Route.REPLICA, replicaDataSource));
+        routing.setDefaultTargetDataSource(primaryDataSource);
+        routing.afterPropertiesSet();
+        return new LazyConnectionDataSourceProxy(routing); // see ReadWriteRoutingDataSource why
+    }
+
+    // {vendor} placeholder is replaced by Spring Boot only for its own Flyway (ShardingConfiguration uses it too)
+    static String[] vendorLocations(String[] locations, String url) {
+        String vendor = DatabaseDriver.fromJdbcUrl(url).getId();
+        String[] replaced = new String[locations.length];
+        for (int i = 0; i < locations.length; i++) {
+            replaced[i] = locations[i].replace("{vendor}", vendor);
+        }
+        return replaced;
+    }
+}
@@ -0,0 +1,45 @@
+package com.lorenadiam;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+// Picks the pool for every new connection: read-only transaction -> replica, everything else -> primary.
+// Read-only = @Transactional(readOnly = true) (StudentReadService) and Spring Data read methods (findAll, paging, query methods),
+// SimpleJpaRepository is readOnly on class level. save/delete and @Modifying queries have their own read-write @Transactional.
+// Must be used behind LazyConnectionDataSourceProxy: transaction manager takes the connection BEFORE readOnly flag of the
+// transaction is set, the proxy gets the real one only at first statement when the flag is already known.
+// Not read-your-writes: data just written on primary may not be on replica yet (up to max-lag), read it in the writing transaction.
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+
+    public enum Route {
+        PRIMARY, REPLICA
+    }
+
+    private final ReplicaLagMonitor replicaLagMonitor;
+    private final Counter toPrimary;
+    private final Counter toReplica;
+    private final Counter fallbackToPrimary;
+
+    public ReadWriteRoutingDataSource(ReplicaLagMonitor replicaLagMonitor, MeterRegistry meterRegistry) {
+        this.replicaLagMonitor = replicaLagMonitor;
+        this.toPrimary = meterRegistry.counter("datasource.routes", "route", "primary");
+        this.toReplica = meterRegistry.counter("datasource.routes", "route", "replica");
+        this.fallbackToPrimary = meterRegistry.counter("datasource.routes", "route", "replica-lag-fallback"); // read-only, replica behind
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            toPrimary.increment();
+            return Route.PRIMARY;
+        }
+        if (!replicaLagMonitor.replicaUsable()) {
+            fallbackToPrimary.increment();
+            return Route.PRIMARY;
+        }
+        toReplica.increment();
+        return Route.REPLICA;
+    }
+}
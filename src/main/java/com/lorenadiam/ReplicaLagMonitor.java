@@ -0,0 +1,92 @@
+package com.lorenadiam;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Asks the replica every lag-check-interval how far behind the primary it is (lag-query returns seconds).
+// Lag above max-lag, or replica not answering -> replicaUsable() is false and ReadWriteRoutingDataSource sends reads to primary.
+// Checked in background, so routing itself never waits for the replica. Current lag is on /actuator/metrics/replica.lag
+public class ReplicaLagMonitor implements InitializingBean, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaLagMonitor.class);
+
+    private final DataSource replica;
+    private final String lagQuery;
+    private final Duration maxLag;
+    private final Duration checkInterval;
+
+    private ScheduledExecutorService scheduler;
+    private volatile double lagSeconds = Double.NaN; // NaN = replica not reachable
+    private volatile boolean replicaUsable;
+
+    public ReplicaLagMonitor(DataSource replica, String lagQuery, Duration maxLag, Duration checkInterval, MeterRegistry meterRegistry) {
+        this.replica = replica;
+        this.lagQuery = lagQuery;
+        this.maxLag = maxLag;
+        this.checkInterval = checkInterval;
+        Gauge.builder("replica.lag", this, monitor -> monitor.lagSeconds).baseUnit("seconds").register(meterRegistry);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        refresh();
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replica-lag-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::refresh, checkInterval.toMillis(), checkInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    public boolean replicaUsable() {
+        return replicaUsable;
+    }
+
+    public double lagSeconds() {
+        return lagSeconds;
+    }
+
+    // runs the lag query now (scheduler does this every interval)
+    public void refresh() {
+        double lag;
+        try (Connection connection = replica.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(lagQuery)) {
+            lag = resultSet.next() ? resultSet.getDouble(1) : Double.NaN;
+        } catch (SQLException e) {
+            lag = Double.NaN;
+            if (replicaUsable) {
+                log.warn("Replica lag check failed, read-only transactions go to primary: {}", e.getMessage());
+            }
+        }
+        boolean usable = !Double.isNaN(lag) && lag * 1000 <= maxLag.toMillis();
+        if (usable != replicaUsable && !Double.isNaN(lag)) { // only when state changes, not every interval
+            if (usable) {
+                log.info("Replica lag {} s, read-only transactions go to replica", lag);
+            } else {
+                log.warn("Replica lag {} s is above {}, read-only transactions go to primary", lag, maxLag);
+            }
+        }
+        lagSeconds = lag;
+        replicaUsable = usable;
+    }
+}
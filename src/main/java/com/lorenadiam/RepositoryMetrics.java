@@ -0,0 +1,124 @@
+package com.lorenadiam;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Slice;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Wraps every repository method call (added to repository proxies by RepositoryMetricsConfiguration) and records per method:
+// latency (p50/p99), SQL statements, returned rows, loaded entities and flushes. Calls slower than threshold are logged with their counts.
+// Meters are visible on /actuator/metrics/repository.* and summarized on /actuator/repositories.
+@Component
+public class RepositoryMetrics {
+
+    private static final Logger slowQueryLog = LoggerFactory.getLogger("com.lorenadiam.SlowRepositoryCalls");
+
+    private final MeterRegistry meterRegistry;
+    private final Duration slowThreshold;
+    private final Map<String, MethodMeters> meters = new ConcurrentHashMap<>();
+
+    public RepositoryMetrics(
+            MeterRegistry meterRegistry,
+            @Value("${repository.metrics.slow-threshold:200ms}") Duration slowThreshold) {
+        this.meterRegistry = meterRegistry;
+        this.slowThreshold = slowThreshold;
+    }
+
+    // one interceptor per repository, so methods are named StudentRepository.save and StudentIdCardRepository.save (not CrudRepository.save)
+    MethodInterceptor forRepository(Class<?> repositoryInterface) {
+        return invocation -> measure(repositoryInterface.getSimpleName(), invocation);
+    }
+
+    private Object measure(String repository, MethodInvocation invocation) throws Throwable {
+        if (invocation.getMethod().getDeclaringClass() == Object.class) { // toString(), hashCode()... of the proxy
+            return invocation.proceed();
+        }
+        long[] before = HibernateCallCounters.snapshot();
+        long start = System.nanoTime();
+        Object result = null;
+        try {
+            result = invocation.proceed();
+            return result;
+        } finally {
+            long elapsedNanos = System.nanoTime() - start;
+            long[] after = HibernateCallCounters.snapshot();
+            record(repository + "." + invocation.getMethod().getName(), elapsedNanos, HibernateCallCounters.statements(before, after),
+                    rows(result), HibernateCallCounters.entitiesLoaded(before, after), HibernateCallCounters.flushes(before, after));
+        }
+    }
+
+    Map<String, MethodMeters> meters() {
+        return meters;
+    }
+
+    private void record(String method, long elapsedNanos, long statements, long rows, long entitiesLoaded, long flushes) {
+        MethodMeters methodMeters = meters.computeIfAbsent(method, this::register);
+        methodMeters.latency.record(elapsedNanos, TimeUnit.NANOSECONDS);
+        methodMeters.statements.record(statements);
+        methodMeters.rows.record(rows);
+        methodMeters.entitiesLoaded.record(entitiesLoaded);
+        methodMeters.flushes.record(flushes);
+
+        if (elapsedNanos >= slowThreshold.toNanos()) {
+            slowQueryLog.warn("{} took {} ms (statements={}, rows={}, entitiesLoaded={}, flushes={})",
+                    method, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), statements, rows, entitiesLoaded, flushes);
+        }
+    }
+
+    private MethodMeters register(String method) {
+        return new MethodMeters(
+                Timer.builder("repository.calls")
+                        .tag("method", method)
+                        .publishPercentiles(0.5, 0.99)
+                        .register(meterRegistry),
+                summary("repository.statements", method),
+                summary("repository.rows", method),
+                summary("repository.entities.loaded", method),
+                summary("repository.flushes", method));
+    }
+
+    private DistributionSummary summary(String name, String method) {
+        return DistributionSummary.builder(name).tag("method", method).register(meterRegistry);
+    }
+
+    private static long rows(Object result) {
+        if (result instanceof Collection<?> collection) {
+            return collection.size();
+        }
+        if (result instanceof Slice<?> slice) { // Page too
+            return slice.getNumberOfElements();
+        }
+        if (result instanceof Optional<?> optional) {
+            return optional.isPresent() ? 1 : 0;
+        }
+        if (result instanceof Iterable<?> iterable) {
+            long count = 0;
+            for (Object ignored : iterable) {
+                count++;
+            }
+            return count;
+        }
+        return result == null || result instanceof Number || result instanceof Boolean ? 0 : 1;
+    }
+
+    record MethodMeters(
+            Timer latency,
+            DistributionSummary statements,
+            DistributionSummary rows,
+            DistributionSummary entitiesLoaded,
+            DistributionSummary flushes) {
+    }
+}
@@ -0,0 +1,48 @@
+package com.lorenadiam;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.jpa.boot.spi.IntegratorProvider;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.repository.core.support.RepositoryFactoryBeanSupport;
+
+import java.util.List;
+
+@Configuration
+public class RepositoryMetricsConfiguration {
+
+    // Hooks HibernateCallCounters into Hibernate
+    @Bean
+    HibernatePropertiesCustomizer hibernateCallCountersCustomizer() {
+        return properties -> {
+            properties.put(AvailableSettings.STATEMENT_INSPECTOR, HibernateCallCounters.CountingStatementInspector.class.getName());
+            properties.put(AvailableSettings.AUTO_SESSION_EVENTS_LISTENER, HibernateCallCounters.FlushCountingListener.class.getName());
+            properties.put("hibernate.integrator_provider",
+                    (IntegratorProvider) () -> List.of(new HibernateCallCounters.EntityLoadCountingIntegrator()));
+        };
+    }
+
+    // Adds RepositoryMetrics as first (outermost) interceptor of every repository proxy, so flush at commit is measured too.
+    // static + ObjectProvider: post processor is created very early, RepositoryMetrics (and MeterRegistry) only when first repository is built
+    @Bean
+    static BeanPostProcessor repositoryMetricsPostProcessor(ObjectProvider<RepositoryMetrics> repositoryMetrics) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof RepositoryFactoryBeanSupport<?, ?, ?> repositoryFactoryBean) {
+                    repositoryFactoryBean.addRepositoryFactoryCustomizer(repositoryFactory ->
+                            repositoryFactory.addRepositoryProxyPostProcessor((proxyFactory, repositoryInformation) -> {
+                                RepositoryMetrics metrics = repositoryMetrics.getIfAvailable(); // not there in @DataJpaTest
+                                if (metrics != null) {
+                                    proxyFactory.addAdvice(0, metrics.forRepository(repositoryInformation.getRepositoryInterface()));
+                                }
+                            }));
+                }
+                return bean;
+            }
+        };
+    }
+}
@@ -0,0 +1,61 @@
+package com.lorenadiam;
+
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+// GET /actuator/repositories -> one line per repository method, slowest first is easy to spot without SQL in stdout
+@Component
+@Endpoint(id = "repositories")
+public class RepositoryMetricsEndpoint {
+
+    private final RepositoryMetrics repositoryMetrics;
+
+    public RepositoryMetricsEndpoint(RepositoryMetrics repositoryMetrics) {
+        this.repositoryMetrics = repositoryMetrics;
+    }
+
+    @ReadOperation
+    public Map<String, MethodSummary> repositories() {
+        Map<String, MethodSummary> summaries = new TreeMap<>();
+        repositoryMetrics.meters().forEach((method, meters) -> {
+            HistogramSnapshot latency = meters.latency().takeSnapshot();
+            summaries.put(method, new MethodSummary(
+                    latency.count(),
+                    percentileMillis(latency, 0.5),
+                    percentileMillis(latency, 0.99),
+                    latency.max(TimeUnit.MILLISECONDS),
+                    meters.statements().mean(),
+                    meters.rows().mean(),
+                    meters.entitiesLoaded().mean(),
+                    meters.flushes().mean()));
+        });
+        return summaries;
+    }
+
+    static double percentileMillis(HistogramSnapshot snapshot, double percentile) {
+        for (ValueAtPercentile value : snapshot.percentileValues()) {
+            if (value.percentile() == percentile) {
+                return value.value(TimeUnit.MILLISECONDS);
+            }
+        }
+        return Double.NaN;
+    }
+
+    public record MethodSummary(
+            long calls,
+            double p50Millis,
+            double p99Millis,
+            double maxMillis,
+            double statementsPerCall,
+            double rowsPerCall,
+            double entitiesLoadedPerCall,
+            double flushesPerCall) {
+    }
+}
@@ -0,0 +1,66 @@
+package com.lorenadiam;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+// One line of the roster file = one student with card, borrowed books and courses.
+// It is NOT an entity, only parsed data which StudentRosterImporter turns into Student graph.
+public record RosterRecord(
+        String firstName,
+        String lastName,
+        String email,
+        Integer age,
+        String cardNumber,
+        List<String> books,
+        List<CourseRef> courses) {
+
+    public record CourseRef(String name, String department) {
+    }
+
+    static final String CSV_HEADER = "firstName,lastName,email,age,cardNumber,books,courses";
+
+    // CSV: firstName,lastName,email,age,cardNumber,book1;book2,courseName/department;courseName/department
+    // Field with comma or quote is wrapped in "..." ("" inside is a quote), lists are separated with ";". A ";" or "/" (or "\")
+    // inside a book or course is written as "\;" ("\/", "\\"), see Csv
+    static RosterRecord fromCsv(String line) {
+        String[] fields = Csv.split(line).toArray(String[]::new);
+        if (fields.length != 7) {
+            throw new IllegalArgumentException("Expected 7 columns but got " + fields.length + ": " + line);
+        }
+        List<CourseRef> courses = splitList(fields[6]).stream()
+                .map(course -> {
+                    List<String> parts = Csv.splitEscaped(course, '/');
+                    if (parts.size() < 2) {
+                        throw new IllegalArgumentException("Course must be name/department: " + Csv.unescape(course));
+                    }
+                    // last "/" like before escaping existed: an old file's "CS/IT/IT" is still course "CS/IT" of IT
+                    String name = String.join("/", parts.subList(0, parts.size() - 1));
+                    return new CourseRef(Csv.unescape(name), Csv.unescape(parts.get(parts.size() - 1)));
+                })
+                .toList();
+        return new RosterRecord(
+                fields[0], fields[1], fields[2], Integer.valueOf(fields[3].trim()),
+                fields[4].isBlank() ? null : fields[4],
+                splitList(fields[5]).stream().map(Csv::unescape).toList(),
+                courses);
+    }
+
+    // same format fromCsv() reads, StudentExporter writes it
+    String toCsv() {
+        return String.join(",",
+                Csv.quote(firstName), Csv.quote(lastName), Csv.quote(email), String.valueOf(age),
+                cardNumber == null ? "" : Csv.quote(cardNumber),
+                Csv.quote(books.stream().map(book -> Csv.escape(book, ';')).collect(Collectors.joining(";"))),
+                Csv.quote(courses.stream()
+                        .map(course -> Csv.escape(course.name(), ';', '/') + "/" + Csv.escape(course.department(), ';', '/'))
+                        .collect(Collectors.joining(";"))));
+    }
+
+    // list items, still escaped
+    private static List<String> splitList(String field) {
+        if (field.isBlank()) {
+            return List.of();
+        }
+        return Csv.splitEscaped(field, ';').stream().map(String::trim).toList();
+    }
+}
@@ -0,0 +1,311 @@
+package com.lorenadiam;
+
+import com.github.javafaker.Faker;
+import org.postgresql.PGConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+// Load test data at production scale (1M, 10M students) with their id cards, books and enrolments (+ a fixed set of courses).
+// Students are split in partitions (partition-size students each). Fork-join workers generate and load partitions in parallel,
+// every partition on its own connection and transaction. Postgres gets the rows with COPY, other databases (H2) with JDBC batches.
+// Same students count + seed = same rows: every partition reseeds the worker's Random (and its Faker) from (seed, partition number),
+// so it doesn't matter which worker or in which order partitions run. Dates are counted back from a fixed day, not from now().
+// Ids start after the current sequence values (on empty database they are the same every time too) and sequences are moved
+// after the generated ids (also when loading failed half way), so the app (Hibernate) can insert normally afterwards.
+// Application database only: not there when students are sharded (sharding.urls, see ShardingConfiguration).
+@Service
+@ConditionalOnExpression(ShardingConfiguration.NOT_SHARDED)
+public class SeedDataGenerator {
+
+    static final int COURSES = 50;
+    private static final int MAX_BOOKS = 3; // per student, book ids are reserved per student so partitions don't need to talk
+    private static final String[] DEPARTMENTS = {"IT", "Business", "Science", "Arts", "Medicine"};
+    private static final LocalDateTime FIRST_DAY = LocalDateTime.of(2024, 9, 1, 8, 0);
+
+    // one Faker per worker thread, creating it is slow (loads yml files). Faker uses only the given Random, so reseeding is enough
+    private static final Logger log = LoggerFactory.getLogger(SeedDataGenerator.class);
+
+    private static final ThreadLocal<Worker> WORKERS = ThreadLocal.withInitial(Worker::new);
+
+    private final DataSource dataSource;
+    private final int partitionSize;
+    private final int parallelism;
+
+    public SeedDataGenerator(
+            DataSource dataSource,
+            @Value("${seed.partition-size:10000}") int partitionSize,
+            @Value("${seed.parallelism:4}") int parallelism) {
+        this.dataSource = dataSource;
+        this.partitionSize = partitionSize;
+        this.parallelism = parallelism;
+    }
+
+    public record Result(long students, long idCards, long books, long courses, long enrolments) {
+        long rows() {
+            return students + idCards + books + courses + enrolments;
+        }
+    }
+
+    public Result generate(long students, long seed) {
+        long start = System.nanoTime();
+        IdBases ids = reserveIds(students);
+        Result result;
+        try {
+            result = load(students, seed, ids);
+        } finally {
+            moveSequences(ids, students); // also when a partition failed: the ones that committed are above the sequence too
+        }
+
+        long elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        log.info("Generated {} students, {} id cards, {} books, {} courses, {} enrolments (seed {})",
+                result.students(), result.idCards(), result.books(), result.courses(), result.enrolments(), seed);
+        log.info("{} rows in {} ms ({} rows/sec, {} students/sec, {} workers)",
+                result.rows(), elapsedMillis, result.rows() * 1000 / elapsedMillis, students * 1000 / elapsedMillis, parallelism);
+        return result;
+    }
+
+    private Result load(long students, long seed, IdBases ids) {
+        List<Object[]> courses = generateCourses(ids.course, seed);
+        try (Connection connection = dataSource.getConnection()) {
+            load(connection, Table.COURSE, courses);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not load courses", e);
+        }
+
+        LongAdder books = new LongAdder();
+        LongAdder enrolments = new LongAdder();
+        int partitions = (int) ((students + partitionSize - 1) / partitionSize);
+        ForkJoinPool workers = new ForkJoinPool(parallelism);
+        try {
+            workers.invoke(new Partitions(0, partitions, partition -> {
+                long first = (long) partition * partitionSize;
+                long last = Math.min(students, first + partitionSize);
+                PartitionRows rows = generatePartition(partition, first, last, ids, seed);
+                loadPartition(rows);
+                books.add(rows.books.size());
+                enrolments.add(rows.enrolments.size());
+            }));
+        } finally {
+            workers.shutdown();
+        }
+        return new Result(students, students, books.sum(), COURSES, enrolments.sum());
+    }
+
+    private List<Object[]> generateCourses(long courseIdBase, long seed) {
+        Worker worker = WORKERS.get();
+        worker.random.setSeed(seed);
+        List<Object[]> courses = new ArrayList<>(COURSES);
+        for (int i = 0; i < COURSES; i++) {
+            courses.add(new Object[]{courseIdBase + i + 1, worker.faker.educator().course(), DEPARTMENTS[worker.random.nextInt(DEPARTMENTS.length)]});
+        }
+        return courses;
+    }
+
+    // students [first, last) of the whole dataset. Ids come from the position in the dataset, not from the database
+    private PartitionRows generatePartition(int partition, long first, long last, IdBases ids, long seed) {
+        Worker worker = WORKERS.get();
+        worker.random.setSeed(seed * 1_000_003L + partition + 1); // + 1: partition 0 must not repeat courses' Random
+        Random random = worker.random;
+        Faker faker = worker.faker;
+
+        PartitionRows rows = new PartitionRows((int) (last - first));
+        for (long n = first; n < last; n++) {
+            long studentId = ids.student + n + 1;
+            String firstName = faker.name().firstName();
+            String lastName = faker.name().lastName();
+            String email = (firstName + "." + lastName + "." + n + "@gmail.com").toLowerCase(); // n makes it unique
+            rows.students.add(new Object[]{studentId, firstName, lastName, email, 17 + random.nextInt(38)});
+            rows.idCards.add(new Object[]{ids.idCard + n + 1, String.format("S%014d", n), studentId}); // card_number is varchar(15)
+
+            int bookCount = random.nextInt(MAX_BOOKS + 1);
+            for (int b = 0; b < bookCount; b++) {
+                rows.books.add(new Object[]{ids.book + n * MAX_BOOKS + b + 1, faker.book().title(),
+                        FIRST_DAY.minusMinutes(random.nextInt(525_600)), studentId});
+            }
+            int enrolmentCount = 1 + random.nextInt(3);
+            int firstCourse = random.nextInt(COURSES);
+            for (int e = 0; e < enrolmentCount; e++) {
+                long courseId = ids.course + (firstCourse + e * 7) % COURSES + 1; // 7 steps apart, never the same course twice
+                rows.enrolments.add(new Object[]{courseId, studentId, FIRST_DAY.plusMinutes(random.nextInt(43_200))});
+            }
+        }
+        return rows;
+    }
+
+    private void loadPartition(PartitionRows rows) {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            load(connection, Table.STUDENT, rows.students); // parents first, FKs are checked immediately
+            load(connection, Table.STUDENT_ID_CARD, rows.idCards);
+            load(connection, Table.BOOK, rows.books);
+            load(connection, Table.ENROLMENT, rows.enrolments);
+            connection.commit();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not load seed partition", e);
+        }
+    }
+
+    private static void load(Connection connection, Table table, List<Object[]> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        if (connection.isWrapperFor(PGConnection.class)) { // one COPY instead of rows.size() INSERTs
+            try {
+                connection.unwrap(PGConnection.class).getCopyAPI().copyIn(
+                        "COPY " + table.name + " (" + table.columns + ") FROM STDIN WITH (FORMAT csv)", new StringReader(toCsv(rows)));
+            } catch (IOException e) {
+                throw new SQLException("COPY into " + table.name + " failed", e);
+            }
+            return;
+        }
+        String placeholders = "?,".repeat(table.columns.split(",").length);
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO " + table.name + " (" + table.columns + ") VALUES ("
+                + placeholders.substring(0, placeholders.length() - 1) + ")")) {
+            int batched = 0;
+            for (Object[] row : rows) {
+                for (int i = 0; i < row.length; i++) {
+                    insert.setObject(i + 1, row[i]);
+                }
+                insert.addBatch();
+                if (++batched % 1000 == 0) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+    }
+
+    // COPY csv (Csv.quote, an empty text is quoted too: a bare one would be NULL), dates as ISO text
+    private static String toCsv(List<Object[]> rows) {
+        StringBuilder csv = new StringBuilder(rows.size() * 64);
+        for (Object[] row : rows) {
+            for (int i = 0; i < row.length; i++) {
+                if (i > 0) {
+                    csv.append(',');
+                }
+                if (row[i] instanceof String text) {
+                    csv.append(Csv.quote(text));
+                } else {
+                    csv.append(row[i]);
+                }
+            }
+            csv.append('\n');
+        }
+        return csv.toString();
+    }
+
+    // nextval() takes one block of the sequence for us: ids above it were never given to Hibernate (pooled or pooled-lo)
+    private IdBases reserveIds(long students) {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            return new IdBases(
+                    nextval(statement, "student_sequence"),
+                    nextval(statement, "student_id_card_sequence"),
+                    nextval(statement, "book_sequence"),
+                    nextval(statement, "course_sequence"));
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not reserve ids for " + students + " students", e);
+        }
+    }
+
+    // next nextval() returns a value where whole block of 50 (allocationSize) is above the generated ids
+    private void moveSequences(IdBases ids, long students) {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("ALTER SEQUENCE student_sequence RESTART WITH " + (ids.student + students + 51));
+            statement.execute("ALTER SEQUENCE student_id_card_sequence RESTART WITH " + (ids.idCard + students + 51));
+            statement.execute("ALTER SEQUENCE book_sequence RESTART WITH " + (ids.book + students * MAX_BOOKS + 51));
+            statement.execute("ALTER SEQUENCE course_sequence RESTART WITH " + (ids.course + COURSES + 51));
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not move sequences after seed data", e);
+        }
+    }
+
+    private static long nextval(Statement statement, String sequence) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery("SELECT nextval('" + sequence + "')")) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+
+    private record IdBases(long student, long idCard, long book, long course) {
+    }
+
+    private enum Table {
+        COURSE("course", "id,name,department"),
+        STUDENT("student", "id,first_name,last_name,email,age"),
+        STUDENT_ID_CARD("student_id_card", "id,card_number,student_id"),
+        BOOK("book", "id,book_name,created_at,student_id"),
+        ENROLMENT("enrolment", "course_id,student_id,created_at");
+
+        private final String name;
+        private final String columns;
+
+        Table(String name, String columns) {
+            this.name = name;
+            this.columns = columns;
+        }
+    }
+
+    private static class PartitionRows {
+        final List<Object[]> students;
+        final List<Object[]> idCards;
+        final List<Object[]> books;
+        final List<Object[]> enrolments;
+
+        PartitionRows(int studentCount) {
+            students = new ArrayList<>(studentCount);
+            idCards = new ArrayList<>(studentCount);
+            books = new ArrayList<>(studentCount * 2);
+            enrolments = new ArrayList<>(studentCount * 2);
+        }
+    }
+
+    private static class Worker {
+        final Random random = new Random();
+        final Faker faker = new Faker(random);
+    }
+
+    // splits partition range in halves until one partition is left, idle workers steal the other halves
+    private static class Partitions extends RecursiveAction {
+        private final int from;
+        private final int to;
+        private final IntConsumer work;
+
+        Partitions(int from, int to, IntConsumer work) {
+            this.from = from;
+            this.to = to;
+            this.work = work;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (to > from) {
+                    work.accept(from);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Partitions(from, middle, work), new Partitions(middle, to, work));
+        }
+    }
+}
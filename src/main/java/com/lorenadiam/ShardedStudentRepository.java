@@ -0,0 +1,657 @@
+package com.lorenadiam;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PreDeleteEvent;
+import org.hibernate.event.spi.PreDeleteEventListener;
+import org.hibernate.event.spi.PreInsertEvent;
+import org.hibernate.event.spi.PreInsertEventListener;
+import org.hibernate.event.spi.PreUpdateEvent;
+import org.hibernate.event.spi.PreUpdateEventListener;
+import org.postgresql.PGConnection;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
+import org.springframework.data.repository.core.support.RepositoryComposition.RepositoryFragments;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.ReflectionUtils;
+
+import javax.sql.DataSource;
+import java.beans.PropertyDescriptor;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Students spread over several databases (shards, ShardingConfiguration), each student together with its id card, books and
+// enrolments: one student = one shard = one transaction, cascades work as before. Every shard has the full schema (same migrations)
+// and its own EntityManagerFactory and StudentRepository, courses are reference data with the same rows on every shard.
+// Routing by student id: the id says its shard. Ids come in blocks of ID_BLOCK (Student allocationSize), student_sequence of shard k
+// hands out only blocks b with b % shards == k (prepareStudentSequence), so ids are unique over all shards without one sequence.
+// A NEW student goes to the shard of its email hash (even spread). Emails are unique over all shards: a student keeps its shard
+// when its email changes, so the unique constraint of one shard isn't enough, see EmailClaims (student_email_claim).
+// Queries without an id (findAll, paging, count, by email) ask every shard in parallel
+// (platform threads: H2 and the pools block inside synchronized, pinned virtual threads stalled the fan-out) and merge the answers.
+// The number of shards is fixed once students are stored: another count routes existing ids wrong, moving them isn't done here.
+// StudentSearchIndex, EnrolmentRosterIndex and AggregateCounters index the application database, they aren't there with shards
+// (ShardingConfiguration): search() here asks the shards' tables instead (prefixes, no typos). StudentLookupCache asks the shards.
+// Every shard gets its own BookPartitions (and BookArchiver when book-archive.enabled), started when the app is ready like the
+// ones of the application database.
+public class ShardedStudentRepository implements DisposableBean {
+
+    static final int ID_BLOCK = 50; // Student @SequenceGenerator allocationSize
+    // Text order of the shards' ORDER BY and of every merge here: code points. On postgres the student columns that are
+    // sorted by are COLLATE "C" (useCodePointOrder), its order is the UTF-8 bytes = code points. H2 compares Java strings
+    // (UTF-16), the same order except characters above U+FFFF against U+E000..U+FFFF.
+    static final Comparator<String> CODE_POINT_ORDER = (a, b) -> compareCodePoints(a, b, false);
+    private static final Comparator<StudentSummary> BY_NAME = Comparator.comparing(StudentSummary::firstName, CODE_POINT_ORDER)
+            .thenComparing(StudentSummary::lastName, CODE_POINT_ORDER)
+            .thenComparing(StudentSummary::id);
+
+    private final List<Shard> shards;
+    private final ExecutorService fanOut = Executors.newCachedThreadPool(runnable -> { // grows with callers, idle threads go
+        Thread thread = new Thread(runnable, "shard-fan-out");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ShardedStudentRepository(List<Shard> shards) {
+        this.shards = List.copyOf(shards);
+        for (Shard shard : this.shards) {
+            EventListenerRegistry listeners = shard.entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                    .getServiceRegistry().getService(EventListenerRegistry.class);
+            EmailClaims emailClaims = new EmailClaims(shard);
+            listeners.appendListeners(EventType.PRE_INSERT, emailClaims);
+            listeners.appendListeners(EventType.PRE_UPDATE, emailClaims);
+            listeners.appendListeners(EventType.PRE_DELETE, emailClaims);
+        }
+    }
+
+    public int shardCount() {
+        return shards.size();
+    }
+
+    // tests and ShardingBenchmark look at the shard databases directly
+    Shard shard(int index) {
+        return shards.get(index);
+    }
+
+    // StudentLookupCache listens to entity events of every shard
+    List<EntityManagerFactory> entityManagerFactories() {
+        return shards.stream().map(shard -> shard.entityManagerFactory).toList();
+    }
+
+    public int shardOf(long studentId) {
+        return (int) Math.floorMod(Math.floorDiv(studentId - 1, ID_BLOCK), (long) shards.size());
+    }
+
+    // new student (no id yet): shard of its email
+    int shardOfNew(Student student) {
+        return shardOfEmail(student.getEmail());
+    }
+
+    // where a new student with this email goes and where the email is claimed
+    int shardOfEmail(String email) {
+        return Math.floorMod(email.toLowerCase(Locale.ROOT).hashCode(), shards.size());
+    }
+
+    // New student: persisted with card, books and enrolments on the shard of its email, the id it gets routes there from now on.
+    // Existing one: merged on the shard of its id
+    public Student save(Student student) {
+        if (student.getId() != null) {
+            return inShardOf(student.getId(), studentRepository -> studentRepository.save(student));
+        }
+        Shard shard = shards.get(shardOfNew(student));
+        return shard.write(studentRepository -> {
+            shard.referenceCourses(student);
+            Student saved = studentRepository.save(student);
+            if (shardOf(saved.getId()) != shard.index) { // rolls back, nothing is stored where it would never be found
+                throw new IllegalStateException("Id " + saved.getId() + " from shard " + shard.index + " routes to shard " +
+                        shardOf(saved.getId()) + ", its student_sequence is not set up for " + shards.size() + " shards");
+            }
+            return saved;
+        });
+    }
+
+    // one saveAll() (one transaction) per shard, shards in parallel. Result is in the order of the students given
+    public List<Student> saveAll(Iterable<Student> students) {
+        List<List<Integer>> positions = new ArrayList<>();
+        List<List<Student>> perShard = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            positions.add(new ArrayList<>());
+            perShard.add(new ArrayList<>());
+        }
+        int position = 0;
+        for (Student student : students) {
+            int shard = student.getId() != null ? shardOf(student.getId()) : shardOfNew(student);
+            positions.get(shard).add(position++);
+            perShard.get(shard).add(student);
+        }
+
+        List<List<Student>> saved = onEveryShard(shard -> perShard.get(shard.index).isEmpty()
+                ? List.of() : shard.write(studentRepository -> {
+                    perShard.get(shard.index).forEach(shard::referenceCourses);
+                    return studentRepository.saveAll(perShard.get(shard.index));
+                }));
+        Student[] inOrder = new Student[position];
+        for (int shard = 0; shard < shards.size(); shard++) {
+            for (int i = 0; i < saved.get(shard).size(); i++) {
+                inOrder[positions.get(shard).get(i)] = saved.get(shard).get(i);
+            }
+        }
+        return Arrays.asList(inOrder);
+    }
+
+    public Optional<Student> findById(long studentId) {
+        return shards.get(shardOf(studentId)).read(studentRepository -> studentRepository.findById(studentId));
+    }
+
+    public Optional<StudentSummary> findSummaryById(long studentId) {
+        return shards.get(shardOf(studentId)).read(studentRepository -> studentRepository.findSummaryById(studentId));
+    }
+
+    public Optional<Student> findWithBooksById(long studentId) {
+        return shards.get(shardOf(studentId)).read(studentRepository -> studentRepository.findWithBooksById(studentId));
+    }
+
+    // Anything on the student's own shard in ONE read-write transaction (entities stay managed inside, e.g. addBook() + flush)
+    public <T> T inShardOf(long studentId, Function<StudentRepository, T> work) {
+        return shards.get(shardOf(studentId)).write(work);
+    }
+
+    // loads the student and deletes it with card, books and enrolments (cascade REMOVE), like StudentRepository.deleteById
+    public void deleteById(long studentId) {
+        inShardOf(studentId, studentRepository -> {
+            studentRepository.deleteById(studentId);
+            return null;
+        });
+    }
+
+    // every shard: email can be changed after the student was placed by it. Emails are unique over all shards, one answers
+    public Optional<Student> findStudentByEmail(String email) {
+        return onEveryShard(shard -> shard.read(studentRepository -> studentRepository.findStudentByEmail(email))).stream()
+                .flatMap(Optional::stream)
+                .findFirst();
+    }
+
+    public long count() {
+        return onEveryShard(shard -> shard.read(StudentRepository::count)).stream().mapToLong(Long::longValue).sum();
+    }
+
+    // every shard sorts its own students, the sorted lists are merged here (TimSort finds the sorted runs, ~ one merge pass)
+    public List<Student> findAll(Sort sort) {
+        List<Student> all = new ArrayList<>();
+        onEveryShard(shard -> shard.read(studentRepository -> studentRepository.findAll(sort))).forEach(all::addAll);
+        all.sort(comparator(sort));
+        return all;
+    }
+
+    // Page n of all shards = the first (n + 1) * size of every shard merged, then the last size of them. Deep pages get expensive
+    // (every shard reads offset + size rows), keyset pagination (StudentKeysetPagination) per shard would not
+    public Page<Student> findAll(Pageable pageable) {
+        if (pageable.isUnpaged()) {
+            return new PageImpl<>(findAll(pageable.getSort()));
+        }
+        int firstRows = (int) Math.min(Integer.MAX_VALUE, pageable.getOffset() + pageable.getPageSize());
+        List<Page<Student>> pages = onEveryShard(shard ->
+                shard.read(studentRepository -> studentRepository.findAll(PageRequest.of(0, firstRows, tiesById(pageable.getSort())))));
+
+        List<Student> merged = new ArrayList<>();
+        long total = 0;
+        for (Page<Student> page : pages) {
+            merged.addAll(page.getContent());
+            total += page.getTotalElements();
+        }
+        merged.sort(comparator(pageable.getSort()));
+        List<Student> content = merged.subList((int) Math.min(pageable.getOffset(), merged.size()), Math.min(firstRows, merged.size()));
+        return new PageImpl<>(new ArrayList<>(content), pageable, total);
+    }
+
+    // Course is stored on the first shard (its id from there), then the same row is inserted on all the others,
+    // so an enrolment on any shard finds it (enrolment_course_id_fk). One transaction per shard, they can't share one:
+    // when a shard fails, the row is deleted again from the shards that already committed it, then the failure is thrown.
+    public Course saveCourse(Course course) {
+        Shard first = shards.get(0);
+        Course saved = first.write(studentRepository -> {
+            first.entityManager.persist(course);
+            return course;
+        });
+        List<Shard> committed = new ArrayList<>(List.of(first));
+        try {
+            for (Shard shard : shards.subList(1, shards.size())) {
+                shard.write(studentRepository -> shard.jdbcTemplate.update("INSERT INTO course (id, name, department) VALUES (?, ?, ?)",
+                        saved.getId(), saved.getName(), saved.getDepartment()));
+                committed.add(shard);
+            }
+        } catch (RuntimeException e) {
+            for (Shard shard : committed) {
+                try {
+                    shard.write(studentRepository -> shard.jdbcTemplate.update("DELETE FROM course WHERE id = ?", saved.getId()));
+                } catch (RuntimeException undo) {
+                    e.addSuppressed(undo); // course stays on that shard, without enrolments it is harmless there
+                }
+            }
+            course.setId(null);
+            throw e;
+        }
+        return saved;
+    }
+
+    // Every shard's best matches (prefix of first name, last name or email, every word), merged by name. Without
+    // StudentSearchIndex (application database) there is no typo tolerance and no "exact words first" order here.
+    public List<StudentSummary> search(String query, int limit) {
+        if (query == null || query.isBlank() || limit <= 0) {
+            return List.of();
+        }
+        return onEveryShard(shard -> shard.read(studentRepository -> studentRepository.search(query, limit))).stream()
+                .flatMap(List::stream)
+                .sorted(BY_NAME)
+                .limit(limit)
+                .toList();
+    }
+
+    // ---- for the app's services (StudentReadService, StudentKeysetPagination, StudentExporter) ----
+
+    // Any read on every shard at once, one read-only transaction each, answers in shard order
+    public <T> List<T> readEveryShard(Function<StudentRepository, T> query) {
+        return onEveryShard(shard -> shard.read(query));
+    }
+
+    // Page of rows of all shards, like findAll(Pageable): every shard's first offset + size rows in the page's sort, merged
+    // with order (the same sort in Java, text with CODE_POINT_ORDER), then the page is cut out. No count(*)
+    public <T> List<T> pageOfEveryShard(Pageable pageable, Comparator<T> order, BiFunction<StudentRepository, Pageable, List<T>> query) {
+        int firstRows = (int) Math.min(Integer.MAX_VALUE, pageable.getOffset() + pageable.getPageSize());
+        List<T> merged = readEveryShard(studentRepository -> query.apply(studentRepository, PageRequest.of(0, firstRows, tiesById(pageable.getSort()))))
+                .stream()
+                .flatMap(List::stream)
+                .sorted(order)
+                .toList();
+        return new ArrayList<>(merged.subList((int) Math.min(pageable.getOffset(), merged.size()), Math.min(firstRows, merged.size())));
+    }
+
+    // One shard after the other (shard order), each in its own read-only transaction, with that shard's EntityManager
+    // (e.g. to clear() it while streaming). For callers writing one output, not in parallel
+    public void readEveryShardInTurn(BiConsumer<StudentRepository, EntityManager> work) {
+        for (Shard shard : shards) {
+            shard.read(studentRepository -> {
+                work.accept(studentRepository, shard.entityManager);
+                return null;
+            });
+        }
+    }
+
+    // Asks all shards at once, results in shard order. A failing shard fails the whole call (no partial answers)
+    private <T> List<T> onEveryShard(Function<Shard, T> work) {
+        List<Future<T>> futures = shards.stream().map(shard -> fanOut.submit(() -> work.apply(shard))).toList();
+        List<T> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Shard query failed", e.getCause());
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for shards", e);
+        }
+        return results;
+    }
+
+    // The Sort of the query again, in Java, for merging, in the order the shards sorted in: text by CODE_POINT_ORDER, ignore
+    // case like lower() of a "C" column (A-Z only). Ties are ordered by id. Getters are looked up here, once per property
+    static Comparator<Student> comparator(Sort sort) {
+        Comparator<Student> comparator = (a, b) -> 0;
+        for (Sort.Order order : sort) {
+            Comparator<Object> values = order.isIgnoreCase() ? ShardedStudentRepository::compareIgnoringCase : ShardedStudentRepository::compare;
+            Comparator<Object> directed = order.isAscending() ? values : values.reversed();
+            boolean nullsFirst = switch (order.getNullHandling()) {
+                case NULLS_FIRST -> true;
+                case NULLS_LAST -> false;
+                case NATIVE -> order.isDescending(); // postgres (and H2 with DEFAULT_NULL_ORDERING=HIGH): NULL is the biggest value
+            };
+            PropertyDescriptor property = BeanUtils.getPropertyDescriptor(Student.class, order.getProperty());
+            if (property == null || property.getReadMethod() == null) {
+                throw new IllegalArgumentException("Student has no property " + order.getProperty() + " to sort by");
+            }
+            Method getter = property.getReadMethod();
+            comparator = comparator.thenComparing(student -> ReflectionUtils.invokeMethod(getter, student),
+                    nullsFirst ? Comparator.nullsFirst(directed) : Comparator.nullsLast(directed));
+        }
+        return comparator.thenComparing(Student::getId);
+    }
+
+    // The shards' ORDER BY ends with id like the comparator: with equal names a shard's first n rows are the n smallest ids,
+    // not whichever its plan met first, else a row of a tie can be cut from one page and come again on the next
+    static Sort tiesById(Sort sort) {
+        return sort.getOrderFor("id") == null ? sort.and(Sort.by("id")) : sort;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Object a, Object b) {
+        return a instanceof String text && b instanceof String other
+                ? compareCodePoints(text, other, false)
+                : ((Comparable<Object>) a).compareTo(b);
+    }
+
+    private static int compareIgnoringCase(Object a, Object b) {
+        return a instanceof String text && b instanceof String other ? compareCodePoints(text, other, true) : compare(a, b);
+    }
+
+    private static int compareCodePoints(String a, String b, boolean ignoreCase) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int x = a.codePointAt(i);
+            int y = b.codePointAt(j);
+            if (x != y && (!ignoreCase || lowerAscii(x) != lowerAscii(y))) {
+                return ignoreCase ? Integer.compare(lowerAscii(x), lowerAscii(y)) : Integer.compare(x, y);
+            }
+            i += Character.charCount(x);
+            j += Character.charCount(y);
+        }
+        return Boolean.compare(i < a.length(), j < b.length()); // the shorter one (prefix) first
+    }
+
+    private static int lowerAscii(int codePoint) {
+        return codePoint >= 'A' && codePoint <= 'Z' ? codePoint + ('a' - 'A') : codePoint;
+    }
+
+    // Run once per shard before its EntityManagerFactory starts. Postgres sorts text by the database's collation (en_US...:
+    // "alpha" < "Beta", accents nearly ignored), the merge couldn't know that order. The columns sorted by get COLLATE "C" on
+    // shards, indexes on them are rebuilt with it, so ORDER BY and keyset seeks still use them. H2 already compares plainly
+    static void useCodePointOrder(JdbcTemplate jdbcTemplate) {
+        if (!Boolean.TRUE.equals(jdbcTemplate.execute((ConnectionCallback<Boolean>) connection -> connection.isWrapperFor(PGConnection.class)))) {
+            return;
+        }
+        List<String> columns = jdbcTemplate.queryForList("SELECT column_name FROM information_schema.columns " +
+                "WHERE table_name = 'student' AND column_name IN ('first_name', 'last_name', 'email') " +
+                "AND (collation_name IS NULL OR collation_name <> 'C')", String.class);
+        if (!columns.isEmpty()) {
+            jdbcTemplate.execute("ALTER TABLE student " + String.join(", ", columns.stream()
+                    .map(column -> "ALTER COLUMN " + column + " TYPE TEXT COLLATE \"C\"").toList()));
+        }
+    }
+
+    // Every email is claimed in student_email_claim of its own shard (shardOfEmail), the primary key makes it unique over all
+    // shards. Claimed when a student is inserted or its email changes, released when it is deleted or its email changes, all
+    // while Hibernate flushes the student. On the student's own shard in the student's transaction. On another shard the claim
+    // commits at once (before the student's transaction) and is released again when that one rolls back; the old email of a
+    // change is released after commit. A crash in between leaves a claim no student has: once older than STALE_CLAIM it is
+    // taken over. Taken email -> DataIntegrityViolationException, like the unique constraint of one shard.
+    private final class EmailClaims implements PreInsertEventListener, PreUpdateEventListener, PreDeleteEventListener {
+
+        private static final Duration STALE_CLAIM = Duration.ofMinutes(10); // longer than any transaction of a student
+
+        private final Shard shard; // the shard whose EntityManagerFactory this listens to
+
+        EmailClaims(Shard shard) {
+            this.shard = shard;
+        }
+
+        @Override
+        public boolean onPreInsert(PreInsertEvent event) {
+            if (event.getEntity() instanceof Student student) {
+                claim(student.getEmail(), (Long) event.getId());
+            }
+            return false;
+        }
+
+        @Override
+        public boolean onPreUpdate(PreUpdateEvent event) {
+            if (event.getEntity() instanceof Student student && event.getOldState() != null) {
+                String oldEmail = (String) event.getOldState()[event.getPersister().getPropertyIndex("email")];
+                if (!student.getEmail().equals(oldEmail)) {
+                    claim(student.getEmail(), (Long) event.getId());
+                    release(oldEmail, (Long) event.getId());
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean onPreDelete(PreDeleteEvent event) {
+            if (event.getEntity() instanceof Student) {
+                release((String) event.getDeletedState()[event.getPersister().getPropertyIndex("email")], (Long) event.getId());
+            }
+            return false;
+        }
+
+        private void claim(String email, long studentId) {
+            Shard home = shards.get(shardOfEmail(email));
+            if (home == shard) {
+                claimOn(home, email, studentId); // in the student's transaction
+                return;
+            }
+            home.ownTransaction.executeWithoutResult(status -> claimOn(home, email, studentId));
+            afterCompletion(committed -> {
+                if (!committed) {
+                    home.ownTransaction.executeWithoutResult(status -> deleteClaim(home, email, studentId));
+                }
+            });
+        }
+
+        private void release(String email, long studentId) {
+            Shard home = shards.get(shardOfEmail(email));
+            if (home == shard) {
+                deleteClaim(home, email, studentId);
+                return;
+            }
+            afterCompletion(committed -> {
+                if (committed) {
+                    home.ownTransaction.executeWithoutResult(status -> deleteClaim(home, email, studentId));
+                }
+            });
+        }
+
+        private void claimOn(Shard home, String email, long studentId) {
+            LocalDateTime now = LocalDateTime.now();
+            if (home.jdbcTemplate.update("INSERT INTO student_email_claim (email, student_id, claimed_at) VALUES (?, ?, ?) " +
+                    "ON CONFLICT DO NOTHING", email, studentId, now) == 1) {
+                return;
+            }
+            Map<String, Object> claim = home.jdbcTemplate.queryForMap(
+                    "SELECT student_id, claimed_at FROM student_email_claim WHERE email = ?", email);
+            long holder = ((Number) claim.get("student_id")).longValue();
+            if (holder == studentId) {
+                return;
+            }
+            boolean stale = ((Timestamp) claim.get("claimed_at")).toLocalDateTime().isBefore(now.minus(STALE_CLAIM))
+                    && !email.equals(emailOf(holder));
+            if (stale && home.jdbcTemplate.update("UPDATE student_email_claim SET student_id = ?, claimed_at = ? " +
+                    "WHERE email = ? AND student_id = ?", studentId, now, email, holder) == 1) {
+                return;
+            }
+            throw new DataIntegrityViolationException("Email " + email + " is taken by student " + holder +
+                    " (student_email_claim of shard " + home.index + ")");
+        }
+
+        private void deleteClaim(Shard home, String email, long studentId) {
+            home.jdbcTemplate.update("DELETE FROM student_email_claim WHERE email = ? AND student_id = ?", email, studentId);
+        }
+
+        // in the transaction of that shard if this thread is in one (the student's own shard)
+        private String emailOf(long studentId) {
+            List<String> emails = shards.get(shardOf(studentId)).jdbcTemplate
+                    .queryForList("SELECT email FROM student WHERE id = ?", String.class, studentId);
+            return emails.isEmpty() ? null : emails.get(0);
+        }
+
+        private static void afterCompletion(Consumer<Boolean> committed) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    committed.accept(status == STATUS_COMMITTED);
+                }
+            });
+        }
+    }
+
+    // Run once per shard before its EntityManagerFactory starts. student_sequence of shard k restarts at the first free block b
+    // with b % shards == k and steps over the blocks of the other shards (INCREMENT BY ID_BLOCK * shards), every nextval is one
+    // block for Hibernate's pooled-lo optimizer (ids nextval .. nextval + 49)
+    static void prepareStudentSequence(JdbcTemplate jdbcTemplate, int index, int count) {
+        long step = (long) ID_BLOCK * count;
+        long increment = Long.parseLong(jdbcTemplate.queryForObject(
+                "SELECT increment FROM information_schema.sequences WHERE sequence_name = 'student_sequence'", String.class));
+        if (increment == step) {
+            return; // prepared before, same number of shards
+        }
+        if (increment != ID_BLOCK) {
+            throw new IllegalStateException("Shard " + index + " was prepared for " + increment / ID_BLOCK + " shards, not " + count +
+                    " (its students would be looked up on other shards)");
+        }
+        Long students = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM student", Long.class);
+        if (students != null && students > 0) {
+            throw new IllegalStateException("Shard " + index + " already has " + students + " students with ids of one database");
+        }
+        long next = jdbcTemplate.queryForObject("SELECT nextval('student_sequence')", Long.class);
+        long block = Math.floorDiv(next - 1 + ID_BLOCK - 1, ID_BLOCK); // first block starting at next or later
+        block += Math.floorMod(index - block, (long) count);
+        jdbcTemplate.execute("ALTER SEQUENCE student_sequence RESTART WITH " + (block * ID_BLOCK + 1) + " INCREMENT BY " + step);
+    }
+
+    // partitions ahead now and every book-partitions.interval, archiving every book-archive.interval, per shard
+    @EventListener(ApplicationReadyEvent.class)
+    public void startBookMaintenance() {
+        for (Shard shard : shards) {
+            shard.bookPartitions.createAheadOnStart();
+            if (shard.bookArchiver != null) {
+                shard.bookArchiver.scheduleArchiving();
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        fanOut.shutdownNow();
+        for (Shard shard : shards) {
+            shard.close();
+        }
+    }
+
+    // One database: its pool, EntityManagerFactory, transactions and a StudentRepository made by Spring Data for it
+    // (not a Spring bean, so no @Transactional proxy: read() and write() open the transactions), its book partitions and
+    // archiver (null when archiving is off). Transaction manager comes from ShardingConfiguration, they share it
+    public static final class Shard implements Closeable {
+
+        private final int index;
+        private final DataSource dataSource;
+        private final EntityManagerFactory entityManagerFactory;
+        private final EntityManager entityManager; // shared, joins the transaction of the thread
+        private final JdbcTemplate jdbcTemplate;
+        private final TransactionTemplate readWrite;
+        private final TransactionTemplate readOnly;
+        private final TransactionTemplate ownTransaction; // new one even when this thread is in a transaction of this shard
+        private final StudentRepository studentRepository;
+        private final BookPartitions bookPartitions;
+        private final BookArchiver bookArchiver;
+
+        public Shard(int index, DataSource dataSource, EntityManagerFactory entityManagerFactory,
+                     PlatformTransactionManager transactionManager, BookPartitions bookPartitions, BookArchiver bookArchiver) {
+            this.index = index;
+            this.dataSource = dataSource;
+            this.entityManagerFactory = entityManagerFactory;
+            this.entityManager = SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory);
+            this.jdbcTemplate = new JdbcTemplate(dataSource);
+            this.readWrite = new TransactionTemplate(transactionManager);
+            this.readOnly = new TransactionTemplate(transactionManager);
+            this.readOnly.setReadOnly(true);
+            this.ownTransaction = new TransactionTemplate(transactionManager);
+            this.ownTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+            this.bookPartitions = bookPartitions;
+            this.bookArchiver = bookArchiver;
+            StudentSearch byPrefix = (query, limit) -> StudentSearchImpl.searchByPrefix(entityManager, query, limit);
+            this.studentRepository = new JpaRepositoryFactory(entityManager)
+                    .getRepository(StudentRepository.class, RepositoryFragments.just(byPrefix));
+        }
+
+        public int index() {
+            return index;
+        }
+
+        public DataSource dataSource() {
+            return dataSource;
+        }
+
+        <T> T read(Function<StudentRepository, T> work) {
+            return readOnly.execute(status -> work.apply(studentRepository));
+        }
+
+        // flushed in the transaction, not by its commit: a taken email (EmailClaims) comes out as DataIntegrityViolationException,
+        // the commit would wrap it in TransactionSystemException
+        <T> T write(Function<StudentRepository, T> work) {
+            return readWrite.execute(status -> {
+                T result = work.apply(studentRepository);
+                entityManager.flush();
+                return result;
+            });
+        }
+
+        // Courses come from saveCourse() (other shard, other EntityManager) = detached here, and @MapsId cascades persist to them.
+        // A proxy of this shard's copy instead, like StudentRosterImporter does. Inside write()
+        void referenceCourses(Student student) {
+            for (Enrolment enrolment : student.getEnrolments()) {
+                Course course = enrolment.getCourse();
+                if (course != null && course.getId() != null && !entityManager.contains(course)) {
+                    enrolment.setCourse(entityManager.getReference(Course.class, course.getId()));
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            if (bookArchiver != null) {
+                bookArchiver.destroy();
+            }
+            bookPartitions.destroy();
+            entityManagerFactory.close();
+            if (dataSource instanceof Closeable pool) {
+                try {
+                    pool.close();
+                } catch (IOException e) {
+                    throw new IllegalStateException("Could not close pool of shard " + index, e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.lorenadiam;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.flywaydb.core.Flyway;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernateProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernateSettings;
+import org.springframework.boot.autoconfigure.orm.jpa.JpaProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// sharding.urls set ("sharding" profile): ShardedStudentRepository over these databases, shard 0 is the first url.
+// Every shard gets its own Hikari pool (shard-N), Flyway migrations, EntityManagerFactory with the same spring.jpa.* settings,
+// StudentRepository, BookPartitions and (book-archive.enabled) BookArchiver writing to <book-archive.directory>/shard-N.
+// The application database (spring.datasource.*) stays for everything that isn't students. Its StudentRepository bean is still
+// there (Spring Data makes it), but only beans that ask ShardedStudentRepository when it exists may get it (SHARD_AWARE):
+// StudentReadService, StudentKeysetPagination, StudentExporter, StudentLookupCache. Beans that work on the application
+// database's students (bulk writers, roster import, enrolments, seed data, search and roster index, counters, the demo data)
+// are @ConditionalOnExpression(NOT_SHARDED), and startup fails when any other bean got one of its student repositories.
+// Locally several embedded H2 databases work (ShardedStudentRepositoryTests, ShardingBenchmark).
+@Configuration
+@ConditionalOnProperty("sharding.urls")
+public class ShardingConfiguration {
+
+    // for @ConditionalOnExpression of beans that need the students in the application database
+    public static final String NOT_SHARDED = "'${sharding.urls:}'.isEmpty()";
+
+    // get StudentRepository of the application database, but route to the shards when there are any
+    static final Set<String> SHARD_AWARE = Set.of("studentReadService", "studentKeysetPagination", "studentExporter", "studentLookupCache");
+
+    // after all singletons are created: a bean left out of NOT_SHARDED would read or write students where no shard looks
+    @Bean
+    static SmartInitializingSingleton applicationStudentRepositoriesUnused(ConfigurableListableBeanFactory beanFactory) {
+        return () -> checkApplicationStudentRepositoriesUnused(beanFactory);
+    }
+
+    static void checkApplicationStudentRepositoriesUnused(ConfigurableListableBeanFactory beanFactory) {
+        List<String> users = new ArrayList<>();
+        for (Class<?> repositoryType : List.of(StudentRepository.class, StudentIdCardRepository.class)) {
+            for (String repository : beanFactory.getBeanNamesForType(repositoryType, true, false)) {
+                for (String user : beanFactory.getDependentBeans(repository)) {
+                    if (!SHARD_AWARE.contains(user)) {
+                        users.add(user + " -> " + repository);
+                    }
+                }
+            }
+        }
+        if (!users.isEmpty()) {
+            throw new IllegalStateException("Students are sharded (sharding.urls), but these beans use the students of the " +
+                    "application database: " + users + ". Make them @ConditionalOnExpression(ShardingConfiguration.NOT_SHARDED) " +
+                    "or route them through ShardedStudentRepository");
+        }
+    }
+
+    @Bean
+    ShardedStudentRepository shardedStudentRepository(
+            @Value("${sharding.urls}") List<String> urls,
+            @Value("${sharding.username:}") String username,
+            @Value("${sharding.password:}") String password,
+            @Value("${sharding.pool-size:10}") int poolSize,
+            @Value("${spring.flyway.locations:classpath:db/migration}") String[] locations,
+            @Value("${book-partitions.months-ahead:3}") int monthsAhead,
+            @Value("${book-partitions.interval:1d}") Duration partitionsInterval,
+            @Value("${book-archive.enabled:false}") boolean archiveEnabled,
+            @Value("${book-archive.retention-months:12}") int retentionMonths,
+            @Value("${book-archive.directory:}") String archiveDirectory,
+            @Value("${book-archive.interval:1d}") Duration archiveInterval,
+            MeterRegistry meterRegistry,
+            JpaProperties jpaProperties,
+            HibernateProperties hibernateProperties,
+            ObjectProvider<HibernatePropertiesCustomizer> hibernatePropertiesCustomizers) {
+
+        // what Spring Boot gives its own EntityManagerFactory (naming strategies, ddl-auto=validate, HibernateCallCounters...)
+        Map<String, Object> properties = hibernateProperties.determineHibernateProperties(jpaProperties.getProperties(),
+                new HibernateSettings().hibernatePropertiesCustomizers(hibernatePropertiesCustomizers.orderedStream().toList()));
+        properties.put(AvailableSettings.USE_SECOND_LEVEL_CACHE, false); // "cache" profile regions are of the application database
+        properties.put(AvailableSettings.USE_QUERY_CACHE, false);
+        properties.put(AvailableSettings.PREFERRED_POOLED_OPTIMIZER, "pooled-lo"); // nextval = first id of the block
+        properties.put(AvailableSettings.SEQUENCE_INCREMENT_SIZE_MISMATCH_STRATEGY, "none"); // student_sequence steps over other shards
+        properties.put(AvailableSettings.HBM2DDL_AUTO, "none"); // validate rejects that increment too; Flyway migrated the shard just before
+
+        List<ShardedStudentRepository.Shard> shards = new ArrayList<>();
+        for (int index = 0; index < urls.size(); index++) {
+            String url = urls.get(index).trim();
+            HikariDataSource dataSource = DataSourceBuilder.create().type(HikariDataSource.class)
+                    .url(url).username(username).password(password).build();
+            dataSource.setPoolName("shard-" + index);
+            dataSource.setMaximumPoolSize(poolSize);
+            Flyway.configure()
+                    .dataSource(dataSource)
+                    .locations(ReadWriteRoutingConfiguration.vendorLocations(locations, url))
+                    .load()
+                    .migrate();
+            ShardedStudentRepository.prepareStudentSequence(new JdbcTemplate(dataSource), index, urls.size());
+            ShardedStudentRepository.useCodePointOrder(new JdbcTemplate(dataSource));
+
+            LocalContainerEntityManagerFactoryBean entityManagerFactory = new LocalContainerEntityManagerFactoryBean();
+            entityManagerFactory.setPersistenceUnitName("shard-" + index);
+            entityManagerFactory.setDataSource(dataSource);
+            entityManagerFactory.setPackagesToScan(Student.class.getPackageName());
+            entityManagerFactory.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+            entityManagerFactory.setJpaPropertyMap(properties);
+            entityManagerFactory.afterPropertiesSet();
+
+            JpaTransactionManager transactionManager = new JpaTransactionManager(entityManagerFactory.getObject());
+            BookPartitions bookPartitions = new BookPartitions(dataSource, transactionManager, monthsAhead, partitionsInterval);
+            BookArchiver bookArchiver = archiveEnabled
+                    ? new BookArchiver(dataSource, transactionManager, bookPartitions, null, meterRegistry, retentionMonths,
+                    archiveDirectory.isBlank() ? "" : Path.of(archiveDirectory).resolve("shard-" + index).toString(), archiveInterval)
+                    : null;
+            shards.add(new ShardedStudentRepository.Shard(index, dataSource, entityManagerFactory.getObject(), transactionManager,
+                    bookPartitions, bookArchiver));
+        }
+        return new ShardedStudentRepository(shards);
+    }
+}
@@ -0,0 +1,99 @@
+package com.lorenadiam;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.metrics.buffering.BufferingApplicationStartup;
+import org.springframework.boot.context.metrics.buffering.StartupTimeline;
+import org.springframework.context.ApplicationListener;
+import org.springframework.core.metrics.StartupStep;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// startup.report=true ("fast" profile): where the startup time went, logged when app is ready.
+// JVM start -> main() (class loading, CDS helps here), Spring Boot phases, Spring Data repositories, slowest beans,
+// and later time to first request (with lazy initialization some of the startup work moves into the first request).
+public class StartupReport implements ApplicationListener<ApplicationReadyEvent> {
+
+    private static final Logger log = LoggerFactory.getLogger(StartupReport.class);
+
+    // step name -> label, in the order they happen
+    private static final Map<String, String> PHASES = new LinkedHashMap<>();
+
+    static {
+        PHASES.put("spring.boot.application.environment-prepared", "environment (properties, profiles)");
+        PHASES.put("spring.boot.application.context-prepared", "context prepared");
+        PHASES.put("spring.boot.application.context-loaded", "context loaded");
+        PHASES.put("spring.context.beans.post-process", "bean definitions (config classes, scanning)");
+        PHASES.put("spring.data.repository.scanning", "repository scanning");
+        PHASES.put("spring.data.repository.init", "repository init");
+        PHASES.put("spring.context.refresh", "context refresh (all beans, web server)");
+        PHASES.put("spring.boot.application.ready", "runners + ready listeners");
+    }
+
+    private static final int SLOWEST_BEANS = 8;
+
+    private final AtomicBoolean firstRequestDone = new AtomicBoolean();
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        StringBuilder report = new StringBuilder("Startup report");
+        Instant jvmStart = Instant.ofEpochMilli(ManagementFactory.getRuntimeMXBean().getStartTime());
+        line(report, "JVM start -> ready", Duration.between(jvmStart, Instant.now()));
+
+        if (event.getApplicationContext().getApplicationStartup() instanceof BufferingApplicationStartup buffering) {
+            StartupTimeline timeline = buffering.getBufferedTimeline();
+            line(report, "JVM start -> main()", Duration.between(jvmStart, timeline.getStartTime()));
+            List<StartupTimeline.TimelineEvent> events = timeline.getEvents();
+
+            Map<String, Duration> phases = new LinkedHashMap<>();
+            for (StartupTimeline.TimelineEvent timelineEvent : events) {
+                String name = timelineEvent.getStartupStep().getName();
+                if (PHASES.containsKey(name)) {
+                    phases.merge(name, timelineEvent.getDuration(), Duration::plus);
+                }
+            }
+            PHASES.forEach((name, label) -> {
+                if (phases.containsKey(name)) {
+                    line(report, label, phases.get(name));
+                }
+            });
+
+            report.append("\n  slowest beans (including the beans they need):");
+            events.stream()
+                    .filter(timelineEvent -> timelineEvent.getStartupStep().getName().equals("spring.beans.instantiate"))
+                    .sorted(Comparator.comparing(StartupTimeline.TimelineEvent::getDuration).reversed())
+                    .limit(SLOWEST_BEANS)
+                    .forEach(timelineEvent -> line(report, "  " + beanName(timelineEvent.getStartupStep()), timelineEvent.getDuration()));
+        }
+        log.info(report.toString());
+    }
+
+    // called by the filter in FastStartupConfiguration after every request, logs only the first one
+    void requestCompleted() {
+        if (firstRequestDone.compareAndSet(false, true)) {
+            long sinceJvmStart = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+            log.info("Time to first request (JVM start -> first response): {} ms", sinceJvmStart);
+        }
+    }
+
+    private static String beanName(StartupStep step) {
+        for (StartupStep.Tag tag : step.getTags()) {
+            if (tag.getKey().equals("beanName")) {
+                return tag.getValue();
+            }
+        }
+        return "?";
+    }
+
+    private static void line(StringBuilder report, String label, Duration duration) {
+        report.append(String.format("%n  %-55s %6d ms", label, duration.toMillis()));
+    }
+}
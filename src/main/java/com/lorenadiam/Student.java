@@ -1,22 +1,36 @@
 package com.lorenadiam;
 
 import jakarta.persistence.*;
-import lombok.Data;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.Hibernate;
+
 import java.util.ArrayList;
 import java.util.List;
 
 import static jakarta.persistence.GenerationType.SEQUENCE;
 
-@Data
+@Getter
+@Setter // not @Data, equals/hashCode/toString are written below (see equals)
 @NoArgsConstructor
+// Fetch plans (used with @EntityGraph in StudentRepository). Card is always in the plan because mappedBy OneToOne can't be LAZY,
+// without it every loaded student fires one more SELECT for its card (N+1). Only one List per plan, 2 Lists = MultipleBagFetchException.
+@NamedEntityGraph(name = "Student.withCard", attributeNodes = @NamedAttributeNode("studentIdCard"))
+@NamedEntityGraph(name = "Student.withBooks", attributeNodes = {
+        @NamedAttributeNode("studentIdCard"),
+        @NamedAttributeNode("books")})
+@NamedEntityGraph(name = "Student.withEnrolmentsAndCourses", attributeNodes = {
+        @NamedAttributeNode("studentIdCard"),
+        @NamedAttributeNode(value = "enrolments", subgraph = "enrolment.course")},
+        subgraphs = @NamedSubgraph(name = "enrolment.course", attributeNodes = @NamedAttributeNode("course")))
 @Entity(name = "Student") // Default (class name). This annotation is used to map this class to table.
 // Good practice to have "name" specified to have full control. E.g. long class name, but entity name different.
 @Table( // similar to @Column for fields, here we want to take control over table
     name = "student",
     uniqueConstraints = { // This is to take control of the unique email constraint name if we want!
             @UniqueConstraint(name = "student_email_unique", columnNames = "email")
-    }
+    } // indexes for the queries are created by Flyway migrations (src/main/resources/db/migration), not from here
 )
 public class Student {
 
@@ -24,7 +38,7 @@ public class Student {
     @SequenceGenerator( // Id is backed by SEQUENCE which is the same as BIG SERIAL data type!
             name = "student_sequence",
             sequenceName = "student_sequence",
-            allocationSize = 1 // how much will sequence increase. (default 50)
+            allocationSize = 50 // how much will sequence increase. (default 50) With 1 every insert needed extra nextval round trip and no batching!
     )
     @GeneratedValue( // We have to specify this. This means like now we want this to be generated based of the sequence
             strategy = SEQUENCE,
@@ -93,7 +107,8 @@ public class Student {
     private List<Course> courses = new ArrayList<>(); // "mapped by" in Course class*/
 
     // New setup where we are manually connecting to the link table. Now we have our own Enrolment class/entity!
-    @OneToMany(cascade = {CascadeType.PERSIST, CascadeType.REMOVE}, mappedBy = "student")
+    // orphanRemoval: removeEnrolment() + save deletes the link row (before it only left the list, row stayed in the table)
+    @OneToMany(cascade = {CascadeType.PERSIST, CascadeType.REMOVE}, mappedBy = "student", orphanRemoval = true)
     List<Enrolment> enrolments = new ArrayList<>();
 
     public Student(String firstName, String lastName, String email, Integer age) { // removed "id" since it is generated automatically!
@@ -138,7 +153,7 @@ public class Student {
         course.getStudents().remove(this);
     }*/
 
-    // getEnrolments() added with Lombok @Data and many other methods
+    // getEnrolments() added with Lombok @Getter
 
     // NEW SETUP
     public void addEnrolment(Enrolment enrolment){
@@ -150,5 +165,35 @@ public class Student {
         enrolments.remove(enrolment);
     }
 
+    // Equality is the database identity (id), NOT the field values. Lombok @Data generated equals/hashCode/toString from ALL fields:
+    // books, enrolments and the card (which points back to this student) -> lazy loads (SQL) and StackOverflowError on the cycle.
+    // Not saved yet (id null) = only equal to itself. Methods are final so a Hibernate proxy (getReference) runs them itself
+    // and is NOT initialized (no SELECT), getId() of a proxy also doesn't initialize it.
+    @Override
+    public final boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Student other)) { // proxy is a subclass of Student, so it passes too
+            return false;
+        }
+        return getId() != null && getId().equals(other.getId());
+    }
 
+    // Same for every student, so it doesn't change when save() assigns the id (student already in a HashSet is still found).
+    // Fine for the small sets of entities we keep in memory, big sets should hold ids instead.
+    @Override
+    public final int hashCode() {
+        return Student.class.hashCode();
+    }
+
+    // Only own columns, never associations: no lazy loads and the string doesn't grow with books/enrolments
+    @Override
+    public final String toString() {
+        if (!Hibernate.isInitialized(this)) {
+            return "Student(id=" + getId() + ", not loaded)";
+        }
+        return "Student(id=" + getId() + ", firstName=" + getFirstName() + ", lastName=" + getLastName() +
+                ", email=" + getEmail() + ", age=" + getAge() + ")";
+    }
 }
@@ -0,0 +1,94 @@
+package com.lorenadiam;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Optional;
+
+// Term-end purges and mass renames as a few SQL statements in one transaction.
+// deleteById() would load every student with card, books and enrolments and then delete them row by row (cascade/orphanRemoval).
+// Application database only: not there when students are sharded (sharding.urls, see ShardingConfiguration).
+@Service
+@ConditionalOnExpression(ShardingConfiguration.NOT_SHARDED)
+public class StudentBulkOperations {
+
+    private final StudentRepository studentRepository;
+    private final StudentLookupCache studentLookupCache;
+    private final EnrolmentRosterIndex enrolmentRosterIndex;
+    private final AggregateCounters aggregateCounters;
+    private final StudentSearchIndex studentSearchIndex;
+
+    public StudentBulkOperations(
+            StudentRepository studentRepository,
+            StudentLookupCache studentLookupCache,
+            EnrolmentRosterIndex enrolmentRosterIndex,
+            AggregateCounters aggregateCounters,
+            StudentSearchIndex studentSearchIndex) {
+        this.studentRepository = studentRepository;
+        this.studentLookupCache = studentLookupCache;
+        this.enrolmentRosterIndex = enrolmentRosterIndex;
+        this.aggregateCounters = aggregateCounters;
+        this.studentSearchIndex = studentSearchIndex;
+    }
+
+    public record DeleteResult(int students, int idCards, int books, int enrolments) {
+    }
+
+    // 4 DELETE statements, all or nothing
+    @Transactional
+    public DeleteResult deleteStudentsOlderThan(int age) {
+        int enrolments = studentRepository.deleteEnrolmentsOfStudentsOlderThan(age);
+        int books = studentRepository.deleteBooksOfStudentsOlderThan(age);
+        int idCards = studentRepository.deleteIdCardsOfStudentsOlderThan(age);
+        int students = studentRepository.deleteStudentsOlderThan(age);
+        studentLookupCache.invalidateAllAfterCommit(); // bulk DELETE fires no entity events, deleted emails/cards are not known
+        if (enrolments > 0) {
+            enrolmentRosterIndex.rebuildAfterCommit(); // same for the deleted enrolments
+        }
+        if (books > 0 || enrolments > 0) {
+            aggregateCounters.reconcileAfterCommit(); // books per student, enrolments per course
+        }
+        if (students > 0) {
+            studentSearchIndex.rebuildAfterCommit(); // deleted students must not be found by search
+        }
+        return new DeleteResult(students, idCards, books, enrolments);
+    }
+
+    // JPQL DELETE of one student row, nothing is loaded. Card, books and enrolments must be gone already (FKs), deleteById() cascades
+    // instead. Its email leaves the lookup cache and its words the search index after commit
+    @Transactional
+    public boolean deleteStudent(long studentId) {
+        Optional<StudentSummary> before = studentRepository.findSummaryById(studentId);
+        if (before.isEmpty() || studentRepository.deleteStudentById(studentId) == 0) {
+            return false;
+        }
+        studentLookupCache.invalidateEmailAfterCommit(before.get().email());
+        studentSearchIndex.replaceAfterCommit(before.get(), null);
+        return true;
+    }
+
+    // JPQL UPDATE of one first name. Lookup cache keys (email, card) stay valid, the search index gets the new name after commit
+    @Transactional
+    public boolean renameStudent(long studentId, String firstName) {
+        Optional<StudentSummary> before = studentRepository.findSummaryById(studentId);
+        if (before.isEmpty() || studentRepository.updateStudentById(firstName, studentId) == 0) {
+            return false;
+        }
+        StudentSummary student = before.get();
+        studentSearchIndex.replaceAfterCommit(student,
+                new StudentSummary(student.id(), firstName, student.lastName(), student.email(), student.age()));
+        return true;
+    }
+
+    // 1 UPDATE statement, returns renamed students count. Only first name changes, lookup cache keys (email, card) stay valid,
+    // search index doesn't
+    @Transactional
+    public int renameStudents(String firstName, String newFirstName, int minAge, int maxAge) {
+        int renamed = studentRepository.renameStudents(firstName, newFirstName, minAge, maxAge);
+        if (renamed > 0) {
+            studentSearchIndex.rebuildAfterCommit(); // first name is searched
+        }
+        return renamed;
+    }
+}
@@ -0,0 +1,93 @@
+package com.lorenadiam;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/students")
+public class StudentController {
+
+    private final StudentKeysetPagination studentKeysetPagination;
+    private final StudentReadService studentReadService;
+    private final StudentExporter studentExporter;
+
+    public StudentController(
+            StudentKeysetPagination studentKeysetPagination,
+            StudentReadService studentReadService,
+            StudentExporter studentExporter) {
+        this.studentKeysetPagination = studentKeysetPagination;
+        this.studentReadService = studentReadService;
+        this.studentExporter = studentExporter;
+    }
+
+    // GET /api/students?page=0&size=50 -> projections only, no entities
+    @GetMapping
+    public List<StudentSummary> list(
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "50") int size) {
+        return studentReadService.listSummaries(page, Math.min(size, 1000));
+    }
+
+    // GET /api/students/search?firstName=Maida&minAge=22
+    @GetMapping("/search")
+    public List<StudentSummaryView> search(
+            @RequestParam String firstName,
+            @RequestParam(defaultValue = "0") int minAge) {
+        return studentReadService.search(firstName, minAge);
+    }
+
+    // GET /api/students/by-email?email=maida.karic@gmail.com -> 404 if there is no such student
+    @GetMapping("/by-email")
+    public ResponseEntity<StudentSummary> byEmail(@RequestParam String email) {
+        return ResponseEntity.of(studentReadService.findByEmail(email));
+    }
+
+    // GET /api/students/by-card/S00000000000001 (card scan)
+    @GetMapping("/by-card/{cardNumber}")
+    public ResponseEntity<StudentSummary> byCard(@PathVariable String cardNumber) {
+        return ResponseEntity.of(studentReadService.findByCardNumber(cardNumber));
+    }
+
+    // Infinite scrolling: GET /api/students/scroll?sort=FIRST_NAME&size=20, then same call with &token=<next from response>
+    @GetMapping("/scroll")
+    public ScrollResponse scroll(
+            @RequestParam(defaultValue = "FIRST_NAME") StudentKeysetPagination.SortKey sort,
+            @RequestParam(required = false) String token,
+            @RequestParam(defaultValue = "20") int size) {
+        StudentWindow window = studentKeysetPagination.scroll(sort, token, Math.min(size, 1000));
+        return new ScrollResponse(window.students().stream().map(StudentSummary::of).toList(), window.next());
+    }
+
+    // GET /api/students/export?format=CSV (default NDJSON). Response is written while students are read, nothing is buffered
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> export(@RequestParam(defaultValue = "NDJSON") StudentExporter.Format format) {
+        MediaType mediaType = format == StudentExporter.Format.CSV
+                ? MediaType.parseMediaType("text/csv")
+                : MediaType.parseMediaType("application/x-ndjson");
+        return ResponseEntity.ok()
+                .contentType(mediaType)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=students." + format.name().toLowerCase())
+                .body(outputStream -> studentExporter.export(format, outputStream));
+    }
+
+    public record ScrollResponse(List<StudentSummary> students, String next) {
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public String badRequest(IllegalArgumentException e) {
+        return e.getMessage();
+    }
+}
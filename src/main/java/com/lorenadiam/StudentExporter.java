@@ -0,0 +1,128 @@
+package com.lorenadiam;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Writes the whole student catalog (with card, books and courses) to a stream without holding it in memory.
+// Students come from a db cursor, 500 at a time: load their books/enrolments, write them, clear persistence context, next 500.
+// Output is in RosterRecord format, so the file can be imported again with StudentRosterImporter.
+// Sharded (sharding.urls): shard after shard, each with its own cursor, in one output.
+@Service
+public class StudentExporter {
+
+    public enum Format { NDJSON, CSV }
+
+    private static final int CHUNK_SIZE = 500;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final StudentRepository studentRepository;
+    private final ObjectProvider<ShardedStudentRepository> shardedStudentRepository;
+    private final TransactionTemplate readOnlyTransaction;
+    private final ObjectMapper objectMapper;
+
+    public StudentExporter(
+            StudentRepository studentRepository,
+            ObjectProvider<ShardedStudentRepository> shardedStudentRepository,
+            PlatformTransactionManager transactionManager,
+            ObjectMapper objectMapper) {
+        this.studentRepository = studentRepository;
+        this.shardedStudentRepository = shardedStudentRepository;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.objectMapper = objectMapper;
+    }
+
+    public long export(Format format, OutputStream outputStream) {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        try {
+            if (format == Format.CSV) {
+                writer.write(RosterRecord.CSV_HEADER);
+                writer.write('\n');
+            }
+            long[] exported = {0};
+            ShardedStudentRepository sharded = shardedStudentRepository.getIfAvailable();
+            if (sharded != null) {
+                sharded.readEveryShardInTurn((shardRepository, shardEntityManager) ->
+                        exported[0] += export(format, shardRepository, shardEntityManager, writer));
+            } else {
+                readOnlyTransaction.executeWithoutResult(status -> exported[0] = export(format, studentRepository, entityManager, writer));
+            }
+            writer.flush();
+            return exported[0];
+        } catch (IOException e) { // e.g. client closed the connection
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // inside a read-only transaction of the database of studentRepository / entityManager
+    private long export(Format format, StudentRepository studentRepository, EntityManager entityManager, Writer writer) {
+        try (Stream<Student> students = studentRepository.streamAllWithCard()) {
+            long count = 0;
+            List<Student> chunk = new ArrayList<>(CHUNK_SIZE);
+            Iterator<Student> iterator = students.iterator();
+            while (iterator.hasNext()) {
+                chunk.add(iterator.next());
+                if (chunk.size() == CHUNK_SIZE || !iterator.hasNext()) {
+                    writeChunk(format, studentRepository, chunk, writer);
+                    count += chunk.size();
+                    chunk.clear();
+                    entityManager.clear(); // detach written students, memory stays the same for any table size
+                }
+            }
+            return count;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeChunk(Format format, StudentRepository studentRepository, List<Student> students, Writer writer) throws IOException {
+        List<Long> ids = students.stream().map(Student::getId).toList();
+        Map<Long, List<String>> books = studentRepository.findBooksOfStudents(ids).stream()
+                .collect(Collectors.groupingBy(book -> book.getStudent().getId(),
+                        Collectors.mapping(Book::getBookName, Collectors.toList())));
+        Map<Long, List<RosterRecord.CourseRef>> courses = studentRepository.findEnrolmentsWithCourseOfStudents(ids).stream()
+                .collect(Collectors.groupingBy(enrolment -> enrolment.getId().getStudentId(),
+                        Collectors.mapping(enrolment -> new RosterRecord.CourseRef(
+                                enrolment.getCourse().getName(), enrolment.getCourse().getDepartment()), Collectors.toList())));
+
+        for (Student student : students) {
+            RosterRecord record = new RosterRecord(
+                    student.getFirstName(),
+                    student.getLastName(),
+                    student.getEmail(),
+                    student.getAge(),
+                    student.getStudentIdCard() == null ? null : student.getStudentIdCard().getCardNumber(),
+                    orEmpty(books.get(student.getId())),
+                    orEmpty(courses.get(student.getId())));
+            writer.write(format == Format.CSV ? record.toCsv() : objectMapper.writeValueAsString(record));
+            writer.write('\n');
+        }
+        writer.flush(); // client gets every chunk right away
+    }
+
+    private static <T> List<T> orEmpty(Collection<T> values) {
+        return values == null ? List.of() : List.copyOf(values);
+    }
+}
@@ -1,12 +1,20 @@
 package com.lorenadiam;
 
 import jakarta.persistence.*;
-import lombok.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.Hibernate;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import static jakarta.persistence.GenerationType.SEQUENCE;
 
-@Data // includes toString, EqualsAndHashCode, Getter, Setter (non-final fields), RequiredArgsConstructor!
+@Getter // not @Data: its toString/equals/hashCode included the student, and student included this card again (endless loop)
+@Setter
 @NoArgsConstructor
+@Cacheable // 2nd level cache ("cache" profile), card lookups are read heavy
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "student-id-card")
 @Entity(
         name = "StudentIdCard")
 @Table(
@@ -19,7 +27,7 @@ public class StudentIdCard {
     @SequenceGenerator( // Id is backed by SEQUENCE which is the same as BIG SERIAL data type!
             name = "student_id_card_sequence",
             sequenceName = "student_id_card_sequence",
-            allocationSize = 1 // how much will sequence increase. (default 50)
+            allocationSize = 50 // how much will sequence increase. (default 50) With 1 every insert needed extra nextval round trip and no batching!
     )
     @GeneratedValue( // We have to specify this. This means like now we want this to be generated based of the sequence
             strategy = SEQUENCE,
@@ -59,4 +67,30 @@ public class StudentIdCard {
         this.cardNumber = cardNumber;
         this.student = student;
     }
+
+    // Same equality model as Student: id only (no association is touched), final so proxies don't get initialized
+    @Override
+    public final boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof StudentIdCard other)) {
+            return false;
+        }
+        return getId() != null && getId().equals(other.getId());
+    }
+
+    @Override
+    public final int hashCode() {
+        return StudentIdCard.class.hashCode();
+    }
+
+    @Override
+    public final String toString() {
+        if (!Hibernate.isInitialized(this)) {
+            return "StudentIdCard(id=" + getId() + ", not loaded)";
+        }
+        return "StudentIdCard(id=" + getId() + ", cardNumber=" + getCardNumber() +
+                ", studentId=" + (getStudent() == null ? null : getStudent().getId()) + ")";
+    }
 }
@@ -1,6 +1,17 @@
 package com.lorenadiam;
 
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Optional;
+
+@Transactional(readOnly = true) // same as StudentRepository, own queries are read-only too
 public interface StudentIdCardRepository extends CrudRepository<StudentIdCard, Long> { // We only need CRUD (not JPA)
+
+    // Result is kept in query cache ("cache" profile) until student_id_card table changes
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
+    Optional<StudentIdCard> findByCardNumber(String cardNumber);
 }
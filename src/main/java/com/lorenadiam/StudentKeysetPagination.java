@@ -0,0 +1,97 @@
+package com.lorenadiam;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+// Infinite scrolling over students without OFFSET and without count(*). Page 10 000 is as fast as page 1.
+// Token is Base64 of "<sort>|<last id>|<last sort value>", client should not read it, only send it back.
+// Sharded: the position is the same on every shard, each one returns its next size + 1 rows after it, the window is the first
+// size + 1 of them merged (names by code point, the shards' order too, see ShardedStudentRepository.CODE_POINT_ORDER).
+@Service
+public class StudentKeysetPagination {
+
+    public enum SortKey { FIRST_NAME, AGE }
+
+    private final StudentRepository studentRepository;
+    private final ObjectProvider<ShardedStudentRepository> shardedStudentRepository;
+
+    public StudentKeysetPagination(
+            StudentRepository studentRepository,
+            ObjectProvider<ShardedStudentRepository> shardedStudentRepository) {
+        this.studentRepository = studentRepository;
+        this.shardedStudentRepository = shardedStudentRepository;
+    }
+
+    // token null = first page
+    public StudentWindow scroll(SortKey sortKey, String token, int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Page size must be at least 1");
+        }
+        // one row more than asked, so we know if there is a next page without counting
+        PageRequest limit = PageRequest.ofSize(size + 1);
+        Function<StudentRepository, List<Student>> query;
+        if (token == null) {
+            query = sortKey == SortKey.FIRST_NAME
+                    ? repository -> repository.findFirstOrderByFirstName(limit)
+                    : repository -> repository.findFirstOrderByAge(limit);
+        } else {
+            String[] position = decode(sortKey, token);
+            Long lastId = Long.valueOf(position[1]);
+            query = sortKey == SortKey.FIRST_NAME
+                    ? repository -> repository.findNextOrderByFirstName(position[2], lastId, limit)
+                    : repository -> repository.findNextOrderByAge(Integer.valueOf(position[2]), lastId, limit);
+        }
+        List<Student> students = rows(sortKey, query, size + 1);
+
+        if (students.size() <= size) {
+            return new StudentWindow(students, null);
+        }
+        List<Student> page = students.subList(0, size);
+        return new StudentWindow(page, encode(sortKey, page.get(size - 1)));
+    }
+
+    private List<Student> rows(SortKey sortKey, Function<StudentRepository, List<Student>> query, int limit) {
+        ShardedStudentRepository sharded = shardedStudentRepository.getIfAvailable();
+        if (sharded == null) {
+            return query.apply(studentRepository);
+        }
+        Sort sort = Sort.by(sortKey == SortKey.FIRST_NAME ? "firstName" : "age"); // comparator adds the id, like the queries
+        return sharded.readEveryShard(query).stream()
+                .flatMap(List::stream)
+                .sorted(ShardedStudentRepository.comparator(sort))
+                .limit(limit)
+                .toList();
+    }
+
+    static String encode(SortKey sortKey, Student last) {
+        String value = sortKey == SortKey.FIRST_NAME ? last.getFirstName() : String.valueOf(last.getAge());
+        String position = sortKey.name() + "|" + last.getId() + "|" + value;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String[] decode(SortKey sortKey, String token) {
+        String[] position;
+        try {
+            position = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split("\\|", 3);
+            if (position.length == 3) {
+                Long.parseLong(position[1]);
+                if (sortKey == SortKey.AGE) {
+                    Integer.parseInt(position[2]);
+                }
+            }
+        } catch (IllegalArgumentException e) { // bad Base64 or number
+            throw new IllegalArgumentException("Invalid continuation token", e);
+        }
+        if (position.length != 3 || !position[0].equals(sortKey.name())) {
+            throw new IllegalArgumentException("Continuation token does not belong to sort " + sortKey);
+        }
+        return position;
+    }
+}
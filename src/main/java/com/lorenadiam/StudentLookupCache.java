@@ -0,0 +1,291 @@
+package com.lorenadiam;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCommitDeleteEventListener;
+import org.hibernate.event.spi.PostCommitUpdateEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+// email -> student id and card number -> student id, kept in memory for the hottest "who is this?" reads (login, card scan).
+// Hit = no SQL at all. Miss = one id-only query (no Student entity, no EAGER id card join), result is remembered.
+// Only ids are kept (primitive long), caller loads the entity by id if it really needs it. Unknown keys are NOT remembered.
+// Invalidation happens after COMMIT (Hibernate post-commit events), rolled back changes never touch the cache.
+// JPQL bulk statements don't fire entity events, code running them calls invalidateAllAfterCommit() (see StudentBulkOperations).
+// Misses are loaded on primary in a read-write transaction of their own (a replica can be max-lag behind the commit that just
+// invalidated the key). A load that overlaps an invalidation of its table is not kept: the id it read may be the old one.
+// Entries also expire after ttl, as a last line for changes no event reports (plain SQL).
+// Used by StudentReadService.findByEmail / findByCardNumber (GET /api/students/by-email, /api/students/by-card/{cardNumber}).
+// Sharded students (sharding.urls): misses and the warm-up ask every shard, the events come from every shard's
+// EntityManagerFactory; the application database isn't asked at all.
+@Component
+public class StudentLookupCache implements PostCommitUpdateEventListener, PostCommitDeleteEventListener {
+
+    private final StudentRepository studentRepository;
+    private final ShardedStudentRepository shardedStudentRepository; // null = not sharded
+    private final TransactionTemplate primaryTransaction;
+    private final LookupTable byEmail;
+    private final LookupTable byCardNumber;
+    private final int maxSize;
+    private final boolean warmUp;
+
+    public StudentLookupCache(
+            StudentRepository studentRepository,
+            ObjectProvider<ShardedStudentRepository> shardedStudentRepository,
+            PlatformTransactionManager transactionManager,
+            EntityManagerFactory entityManagerFactory,
+            MeterRegistry meterRegistry,
+            @Value("${lookup-cache.max-size:100000}") int maxSize,
+            @Value("${lookup-cache.ttl:10m}") Duration ttl,
+            @Value("${lookup-cache.warm-up:true}") boolean warmUp) {
+        this.studentRepository = studentRepository;
+        this.shardedStudentRepository = shardedStudentRepository.getIfAvailable();
+        this.primaryTransaction = new TransactionTemplate(transactionManager); // read-write -> primary, even inside a read-only one
+        this.primaryTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.maxSize = maxSize;
+        this.warmUp = warmUp;
+        this.byEmail = new LookupTable("email", maxSize, ttl, meterRegistry);
+        this.byCardNumber = new LookupTable("card-number", maxSize, ttl, meterRegistry);
+
+        List<EntityManagerFactory> studentDatabases = this.shardedStudentRepository == null
+                ? List.of(entityManagerFactory)
+                : this.shardedStudentRepository.entityManagerFactories();
+        for (EntityManagerFactory studentDatabase : studentDatabases) {
+            EventListenerRegistry listeners = studentDatabase.unwrap(SessionFactoryImplementor.class)
+                    .getServiceRegistry().getService(EventListenerRegistry.class);
+            listeners.appendListeners(EventType.POST_COMMIT_UPDATE, this);
+            listeners.appendListeners(EventType.POST_COMMIT_DELETE, this);
+        }
+    }
+
+    public OptionalLong findStudentIdByEmail(String email) {
+        return byEmail.get(email, key -> load(studentRepository -> studentRepository.findIdByEmail(key)));
+    }
+
+    public OptionalLong findStudentIdByCardNumber(String cardNumber) {
+        return byCardNumber.get(cardNumber, key -> load(studentRepository -> studentRepository.findIdByCardNumber(key)));
+    }
+
+    // Sharded: every shard is asked at once, the one that has the key answers
+    private Optional<Long> load(Function<StudentRepository, Optional<Long>> query) {
+        if (shardedStudentRepository != null) {
+            return shardedStudentRepository.readEveryShard(query).stream().flatMap(Optional::stream).findFirst();
+        }
+        return primaryTransaction.execute(status -> query.apply(studentRepository));
+    }
+
+    // Loads keys of the first max-size students with one query, so first logins after (re)start don't all go to the database
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (!warmUp) {
+            return;
+        }
+        long emailInvalidations = byEmail.invalidations.get();
+        long cardNumberInvalidations = byCardNumber.invalidations.get();
+        List<StudentLookupKey> keys = shardedStudentRepository != null
+                ? shardedStudentRepository.readEveryShard(studentRepository -> studentRepository.findLookupKeys(
+                        PageRequest.ofSize(Math.max(1, maxSize / shardedStudentRepository.shardCount())))).stream().flatMap(List::stream).toList()
+                : primaryTransaction.execute(status -> studentRepository.findLookupKeys(PageRequest.ofSize(maxSize)));
+        for (StudentLookupKey key : keys) {
+            byEmail.putLoaded(key.email(), key.studentId(), emailInvalidations);
+            if (key.cardNumber() != null) {
+                byCardNumber.putLoaded(key.cardNumber(), key.studentId(), cardNumberInvalidations);
+            }
+        }
+    }
+
+    // After commit of the current transaction (or now if there is none)
+    public void invalidateAllAfterCommit() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    invalidateAll();
+                }
+            });
+        } else {
+            invalidateAll();
+        }
+    }
+
+    // JPQL DELETE of one student (StudentBulkOperations.deleteStudent): only its email, after commit
+    public void invalidateEmailAfterCommit(String email) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    byEmail.remove(email);
+                }
+            });
+        } else {
+            byEmail.remove(email);
+        }
+    }
+
+    void invalidateAll() {
+        byEmail.clear();
+        byCardNumber.clear();
+    }
+
+    // Old AND new key are removed, e.g. changed email: old one must not find the student anymore, new one is loaded on next lookup
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        if (event.getEntity() instanceof Student student) {
+            byEmail.remove(student.getEmail());
+            byEmail.remove((String) oldValue(event, "email"));
+        } else if (event.getEntity() instanceof StudentIdCard card) {
+            byCardNumber.remove(card.getCardNumber());
+            byCardNumber.remove((String) oldValue(event, "cardNumber"));
+        }
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        if (event.getEntity() instanceof Student student) {
+            byEmail.remove(student.getEmail());
+        } else if (event.getEntity() instanceof StudentIdCard card) {
+            byCardNumber.remove(card.getCardNumber());
+        }
+    }
+
+    private static Object oldValue(PostUpdateEvent event, String property) {
+        return event.getOldState() == null ? null : event.getOldState()[event.getPersister().getPropertyIndex(property)];
+    }
+
+    @Override
+    public boolean requiresPostCommitHandling(EntityPersister persister) {
+        Class<?> entityClass = persister.getMappedClass();
+        return entityClass == Student.class || entityClass == StudentIdCard.class;
+    }
+
+    @Override
+    public void onPostUpdateCommitFailed(PostUpdateEvent event) { // rolled back, cache still has the committed values
+    }
+
+    @Override
+    public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+    }
+
+    // One key type. Entry is 2 longs (no boxed Long), a hit only reads the map.
+    // Full table first drops expired entries, then a slice of the others (no LRU bookkeeping on every read).
+    // invalidations: bumped BEFORE every remove/clear. A miss puts its result, then takes it back if the number moved since the
+    // load started: either the put sees the bump, or the remove comes after the put, the loaded id never stays.
+    static class LookupTable {
+
+        private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+        private final AtomicLong invalidations = new AtomicLong();
+        private final int maxSize;
+        private final long ttlNanos;
+        private final Timer hitTimer;
+        private final Timer missTimer;
+        private final Counter hits;
+        private final Counter misses;
+
+        LookupTable(String key, int maxSize, Duration ttl, MeterRegistry meterRegistry) {
+            this.maxSize = maxSize;
+            this.ttlNanos = ttl.toNanos();
+            this.hitTimer = Timer.builder("student.lookup").tag("key", key).tag("result", "hit")
+                    .publishPercentiles(0.5, 0.99).register(meterRegistry);
+            this.missTimer = Timer.builder("student.lookup").tag("key", key).tag("result", "miss")
+                    .publishPercentiles(0.5, 0.99).register(meterRegistry);
+            this.hits = Counter.builder("student.lookup.cache.hits").tag("key", key).register(meterRegistry);
+            this.misses = Counter.builder("student.lookup.cache.misses").tag("key", key).register(meterRegistry);
+            Gauge.builder("student.lookup.cache.hit.ratio", this, LookupTable::hitRatio).tag("key", key).register(meterRegistry);
+            Gauge.builder("student.lookup.cache.size", entries, Map::size).tag("key", key).register(meterRegistry);
+        }
+
+        OptionalLong get(String key, Function<String, Optional<Long>> loader) {
+            long start = System.nanoTime();
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt - start > 0) {
+                hits.increment();
+                hitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                return OptionalLong.of(entry.studentId);
+            }
+            misses.increment();
+            long invalidationsBefore = invalidations.get();
+            OptionalLong studentId = loader.apply(key).map(OptionalLong::of).orElse(OptionalLong.empty());
+            studentId.ifPresent(id -> putLoaded(key, id, invalidationsBefore));
+            missTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return studentId;
+        }
+
+        // id read from the database after invalidations was invalidationsBefore
+        void putLoaded(String key, long studentId, long invalidationsBefore) {
+            if (invalidations.get() != invalidationsBefore) {
+                return;
+            }
+            if (entries.size() >= maxSize) {
+                evict();
+            }
+            Entry loaded = new Entry(studentId, System.nanoTime() + ttlNanos);
+            entries.put(key, loaded);
+            if (invalidations.get() != invalidationsBefore) {
+                entries.remove(key, loaded); // invalidated between the check and the put
+            }
+        }
+
+        void remove(String key) {
+            if (key != null) {
+                invalidations.incrementAndGet();
+                entries.remove(key);
+            }
+        }
+
+        void clear() {
+            invalidations.incrementAndGet();
+            entries.clear();
+        }
+
+        double hitRatio() {
+            double total = hits.count() + misses.count();
+            return total == 0 ? 0 : hits.count() / total;
+        }
+
+        int size() {
+            return entries.size();
+        }
+
+        private void evict() {
+            long now = System.nanoTime();
+            entries.values().removeIf(entry -> entry.expiresAt - now <= 0);
+            Iterator<String> keys = entries.keySet().iterator();
+            for (int i = 0; i < maxSize / 16 + 1 && entries.size() >= maxSize && keys.hasNext(); i++) {
+                keys.next();
+                keys.remove();
+            }
+        }
+
+        private record Entry(long studentId, long expiresAt) {
+        }
+    }
+}
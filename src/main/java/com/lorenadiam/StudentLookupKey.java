@@ -0,0 +1,5 @@
+package com.lorenadiam;
+
+// Keys of one student for warming up StudentLookupCache, filled by JPQL "SELECT new com.lorenadiam.StudentLookupKey(...)"
+public record StudentLookupKey(Long studentId, String email, String cardNumber) {
+}
@@ -0,0 +1,87 @@
+package com.lorenadiam;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+// Read-only transaction mode for listing students. readOnly = true (Spring's @Transactional, jakarta one has no readOnly):
+// Hibernate session is read-only -> loaded entities get NO snapshot for dirty checking, and there is no flush at commit.
+// Students sharded (sharding.urls): every shard is asked in its own read-only transaction and the answers are merged,
+// see ShardedStudentRepository.pageOfEveryShard.
+@Service
+@Transactional(readOnly = true)
+public class StudentReadService {
+
+    private final StudentRepository studentRepository;
+    private final ObjectProvider<ShardedStudentRepository> shardedStudentRepository;
+    private final StudentLookupCache studentLookupCache;
+
+    public StudentReadService(
+            StudentRepository studentRepository,
+            ObjectProvider<ShardedStudentRepository> shardedStudentRepository,
+            StudentLookupCache studentLookupCache) {
+        this.studentRepository = studentRepository;
+        this.shardedStudentRepository = shardedStudentRepository;
+        this.studentLookupCache = studentLookupCache;
+    }
+
+    public List<StudentSummary> listSummaries(int page, int size) {
+        PageRequest pageRequest = PageRequest.of(page, size, Sort.by("id"));
+        ShardedStudentRepository sharded = shardedStudentRepository.getIfAvailable();
+        if (sharded != null) {
+            return sharded.pageOfEveryShard(pageRequest, Comparator.comparing(StudentSummary::id), StudentRepository::findAllSummaries);
+        }
+        return studentRepository.findAllSummaries(pageRequest);
+    }
+
+    public List<StudentSummaryView> search(String firstName, int minAge) {
+        ShardedStudentRepository sharded = shardedStudentRepository.getIfAvailable();
+        if (sharded != null) { // no order asked, shard after shard
+            return sharded.readEveryShard(shardRepository -> shardRepository.findViewsByFirstNameAndAgeGreaterThanEqual(firstName, minAge))
+                    .stream()
+                    .flatMap(List::stream)
+                    .toList();
+        }
+        return studentRepository.findViewsByFirstNameAndAgeGreaterThanEqual(firstName, minAge);
+    }
+
+    // when entities are really needed (e.g. to read books later in the same transaction), they are loaded read-only here.
+    // Sharded: they come detached (the shard's transaction is over), only the eager id card is loaded
+    public List<Student> listStudents(int page, int size) {
+        PageRequest pageRequest = PageRequest.of(page, size, Sort.by("id"));
+        ShardedStudentRepository sharded = shardedStudentRepository.getIfAvailable();
+        if (sharded != null) {
+            return sharded.pageOfEveryShard(pageRequest, Comparator.comparing(Student::getId),
+                    (shardRepository, firstRows) -> shardRepository.findAllWithCardBy(firstRows).getContent());
+        }
+        return studentRepository.findAllWithCardBy(pageRequest).getContent();
+    }
+
+    // "who is this?" reads (login, card scan): id from StudentLookupCache (hit = no SQL), then the summary by primary key.
+    // No transaction around them: a cache miss loads in its own transaction on primary, this one would only hold a second connection
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public Optional<StudentSummary> findByEmail(String email) {
+        return summaryOf(studentLookupCache.findStudentIdByEmail(email));
+    }
+
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public Optional<StudentSummary> findByCardNumber(String cardNumber) {
+        return summaryOf(studentLookupCache.findStudentIdByCardNumber(cardNumber));
+    }
+
+    private Optional<StudentSummary> summaryOf(OptionalLong studentId) {
+        if (studentId.isEmpty()) {
+            return Optional.empty();
+        }
+        ShardedStudentRepository sharded = shardedStudentRepository.getIfAvailable();
+        return sharded != null ? sharded.findSummaryById(studentId.getAsLong()) : studentRepository.findSummaryById(studentId.getAsLong());
+    }
+}
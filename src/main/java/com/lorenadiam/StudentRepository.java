@@ -1,23 +1,51 @@
 package com.lorenadiam;
 
-import jakarta.transaction.Transactional;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 // interface doesn't need @Repository annotation, unless we would have multiple class implementations
-public interface StudentRepository extends JpaRepository<Student, Long> {
+// readOnly for ALL query methods here: Spring Data makes only inherited methods (findAll, findById...) read-only, our own queries ran
+// without transaction. Read-only transaction = read-only Hibernate session and routing to replica ("replica" profile).
+// Writing methods below have their own @Transactional (read-write), it overrides this one.
+@Transactional(readOnly = true)
+public interface StudentRepository extends JpaRepository<Student, Long>, StudentSearch {
 
     // This is how we can create custom SQL queries with help of these "methods" (chaining) from Spring Data JPA. findStudentBy + Email
     // We can use annotation @Query to allow us to write "JPQL" (java persistence query language) queries and "NATIVE" queries.
     // We take FULL control of the query (we can also override it). It is best practice to have this always on top of methods!
     @Query("SELECT s FROM Student s WHERE s.email = ?1") // FROM -> Student (from @Entity(name = "Student")
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true")) // query cache with "cache" profile
     Optional<Student> findStudentByEmail(String email); // from this method Spring Data JPA will generate SQL query! Nice!
 
+    // Only the id, for StudentLookupCache: no Student entity and no EAGER id card join
+    @Query("SELECT s.id FROM Student s WHERE s.email = ?1")
+    Optional<Long> findIdByEmail(String email);
+
+    // Only the student id (FK column of the card), no join, no entities. Here and not in StudentIdCardRepository: a shard
+    // has a StudentRepository only (ShardedStudentRepository.Shard)
+    @Query("SELECT c.student.id FROM StudentIdCard c WHERE c.cardNumber = ?1")
+    Optional<Long> findIdByCardNumber(String cardNumber);
+
+    // warm up of StudentLookupCache, emails and card numbers of the first students in one query
+    @Query("SELECT new com.lorenadiam.StudentLookupKey(s.id, s.email, c.cardNumber) FROM Student s LEFT JOIN s.studentIdCard c ORDER BY s.id")
+    List<StudentLookupKey> findLookupKeys(Pageable limit);
+
     // When we write this @Query we take full control and override method below. We can even change name of function if we want since @Query applies anyway.
     @Query("SELECT s FROM Student s WHERE s.firstName = ?1 AND s.age >= ?2") // THESE QUERIES ARE JPQL, NOT SQL. ?1 and ?2 represents 1st & 2nd arguments in the method
     List<Student> findStudentsByFirstNameEqualsAndAgeGreaterThan(String firstName, Integer age);
@@ -35,10 +63,79 @@ public interface StudentRepository extends JpaRepository<Student, Long> {
     List<Student> testDifferentParamLogic( // Not by order/position anymore. We need to add @Param annotations
             @Param("firstName") String firstName, @Param("age") Integer age);
 
+    // Fetch plans (named entity graphs from Student class). Caller picks what should be loaded in the same SELECT.
+    // Page of students with their cards: 1 SELECT with LEFT JOIN + 1 count instead of 1 + N queries
+    @EntityGraph("Student.withCard")
+    Page<Student> findAllWithCardBy(Pageable pageable);
+
+    @EntityGraph("Student.withCard")
+    Optional<Student> findWithCardById(Long id);
+
+    @EntityGraph("Student.withBooks")
+    Optional<Student> findWithBooksById(Long id);
+
+    // Collections are NOT paged with JOIN (Hibernate would page in memory). First get the page, then load the page ids with a plan:
+    // ids = page.map(Student::getId).getContent() -> findAllWithBooksByIdIn(ids)
+    @EntityGraph("Student.withBooks")
+    List<Student> findAllWithBooksByIdIn(Collection<Long> ids);
+
+    @EntityGraph("Student.withEnrolmentsAndCourses")
+    List<Student> findAllWithEnrolmentsAndCoursesByIdIn(Collection<Long> ids);
+
+    // Keyset (seek) pagination. Instead of OFFSET (db reads and throws away all rows before the page) we continue AFTER the last
+    // row of previous page using (firstName, id) or (age, id). id makes the key unique. Limit comes from Pageable and returning List means no count(*).
+    // Row value comparison, not "a > ?1 OR (a = ?1 AND id > ?2)": postgres makes the row one the start of the index scan
+    // (Index Cond on student_first_name_id_idx / student_age_id_idx), the OR one only a filter over the whole index.
+    @Query("SELECT s FROM Student s ORDER BY s.firstName, s.id")
+    List<Student> findFirstOrderByFirstName(Pageable limit);
+
+    @Query("SELECT s FROM Student s WHERE (s.firstName, s.id) > (?1, ?2) ORDER BY s.firstName, s.id")
+    List<Student> findNextOrderByFirstName(String lastFirstName, Long lastId, Pageable limit);
+
+    @Query("SELECT s FROM Student s ORDER BY s.age, s.id")
+    List<Student> findFirstOrderByAge(Pageable limit);
+
+    @Query("SELECT s FROM Student s WHERE (s.age, s.id) > (?1, ?2) ORDER BY s.age, s.id")
+    List<Student> findNextOrderByAge(Integer lastAge, Long lastId, Pageable limit);
+
+    // Read-only projections. Most reads need only id, names, email and age, so there is no need for managed Student entities
+    // (snapshot for dirty checking, EAGER id card, lazy collections). Rows become records/interfaces directly.
+    @Query("SELECT new com.lorenadiam.StudentSummary(s.id, s.firstName, s.lastName, s.email, s.age) FROM Student s")
+    List<StudentSummary> findAllSummaries(Pageable pageable); // List, so no count(*)
+
+    @Query("SELECT new com.lorenadiam.StudentSummary(s.id, s.firstName, s.lastName, s.email, s.age) FROM Student s WHERE s.id = ?1")
+    Optional<StudentSummary> findSummaryById(Long id);
+
+    // derived query + interface projection, Spring Data selects only getters of StudentSummaryView
+    List<StudentSummaryView> findViewsByFirstNameAndAgeGreaterThanEqual(String firstName, Integer age);
+
+    Slice<StudentSummaryView> findAllViewsBy(Pageable pageable); // Slice, so no count(*)
+
+    // Export (StudentExporter). Rows come from a server side cursor: postgres sends fetch size rows at a time instead of whole table.
+    // Has to be used inside a transaction (cursor needs autocommit off) and closed (try-with-resources). Card is JOINed, no N+1.
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
+    @Query("SELECT s FROM Student s LEFT JOIN FETCH s.studentIdCard ORDER BY s.id")
+    Stream<Student> streamAllWithCard();
+
+    // books and enrolments of a chunk of streamed students, 2 queries per chunk instead of 2 per student
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query("SELECT b FROM Book b WHERE b.student.id IN ?1 ORDER BY b.id")
+    List<Book> findBooksOfStudents(Collection<Long> studentIds);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query("SELECT e FROM Enrolment e JOIN FETCH e.course WHERE e.id.studentId IN ?1")
+    List<Enrolment> findEnrolmentsWithCourseOfStudents(Collection<Long> studentIds);
+
     // By default, all Query methods are Transactional. We can have @Transactional on interface level too?
     // When we have @Transactional annotation on method level we are basically doing an override
 
+    // JPQL UPDATE/DELETE tell Hibernate which table changed, so cached query results (findStudentByEmail) for "student" are thrown away
+    // after commit. Native modifying queries would throw away ALL cached queries, that's why these two stay JPQL.
     // Now Deleting or Updating. As I understood these 2 queries can only return integer (rows affected) or void!
+    // No entity events either: StudentLookupCache and StudentSearchIndex don't see them. App code calls them through
+    // StudentBulkOperations.deleteStudent/renameStudent, which updates both after commit.
     @Transactional // These queries need to be inside a TRANSACTION and that's what this annotation is for!
     @Modifying // This tells Spring Data that query doesn't need to map anything from database int Entities like before.
     @Query("DELETE FROM Student u WHERE u.id = ?1")
@@ -51,5 +148,37 @@ public interface StudentRepository extends JpaRepository<Student, Long> {
             @Param("firstName") String firstName,
             @Param("id") Long id);
 
+    // Set-based bulk operations (used by StudentBulkOperations in ONE transaction). Each is a single SQL statement, nothing is loaded.
+    // Children first, FKs point to student. clearAutomatically: persistence context may hold deleted/renamed students, throw it away.
+    // Hibernate also evicts 2nd level cache regions and cached queries of the tables a bulk JPQL statement touches.
+    // MANDATORY: only inside the caller's read-write transaction (a call without one fails instead of running under the
+    // read-only default above, or committing one DELETE of the set on its own)
+    @Transactional(propagation = Propagation.MANDATORY)
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("DELETE FROM Enrolment e WHERE e.id.studentId IN (SELECT s.id FROM Student s WHERE s.age > ?1)")
+    int deleteEnrolmentsOfStudentsOlderThan(Integer age);
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("DELETE FROM Book b WHERE b.student.id IN (SELECT s.id FROM Student s WHERE s.age > ?1)")
+    int deleteBooksOfStudentsOlderThan(Integer age);
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("DELETE FROM StudentIdCard c WHERE c.student.id IN (SELECT s.id FROM Student s WHERE s.age > ?1)")
+    int deleteIdCardsOfStudentsOlderThan(Integer age);
 
+    @Transactional(propagation = Propagation.MANDATORY)
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("DELETE FROM Student s WHERE s.age > ?1")
+    int deleteStudentsOlderThan(Integer age);
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Student s SET s.firstName = :newFirstName WHERE s.firstName = :firstName AND s.age BETWEEN :minAge AND :maxAge")
+    int renameStudents(
+            @Param("firstName") String firstName,
+            @Param("newFirstName") String newFirstName,
+            @Param("minAge") Integer minAge,
+            @Param("maxAge") Integer maxAge);
 }
@@ -0,0 +1,242 @@
+package com.lorenadiam;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Streams a big roster file (CSV or NDJSON) into the database without loading it in memory and without one huge transaction.
+// main thread reads lines -> parser threads turn chunk of lines into RosterRecords -> main thread saves every chunk in its own transaction.
+// Reading waits when too many chunks are already waiting to be saved (backpressure), so heap stays flat for any file size.
+// Application database only: not there when students are sharded (sharding.urls, see ShardingConfiguration).
+@Service
+@ConditionalOnExpression(ShardingConfiguration.NOT_SHARDED)
+public class StudentRosterImporter {
+
+    private static final Logger log = LoggerFactory.getLogger(StudentRosterImporter.class);
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final int chunkSize;
+    private final int parserThreads;
+
+    // course "name/department" -> id, so every chunk can use getReference() instead of loading or inserting the course again
+    private final Map<String, Long> courseIds = new HashMap<>();
+
+    public StudentRosterImporter(
+            TransactionTemplate transactionTemplate,
+            ObjectMapper objectMapper,
+            @Value("${roster.import.chunk-size:1000}") int chunkSize,
+            @Value("${roster.import.parser-threads:4}") int parserThreads) {
+        this.transactionTemplate = transactionTemplate;
+        this.objectMapper = objectMapper;
+        this.chunkSize = chunkSize;
+        this.parserThreads = parserThreads;
+    }
+
+    // Restartable: after each committed chunk the number of imported lines is written to "<file>.checkpoint".
+    // If import fails, running it again skips those lines. Delete the checkpoint file to import the same file again.
+    // A crash between commit and checkpoint write leaves the checkpoint one chunk behind, so a resumed import skips students
+    // whose email is already in the table (instead of failing on student_email_unique). Checkpoint 0 is written before the
+    // first chunk: a crash right after the first commit is a resume too (the file exists), not a fresh import.
+    public long importRoster(Path rosterFile) {
+        boolean ndjson = rosterFile.getFileName().toString().endsWith(".ndjson");
+        Path checkpointFile = rosterFile.resolveSibling(rosterFile.getFileName() + ".checkpoint");
+        boolean resumed = Files.exists(checkpointFile);
+        long committedLines = resumed ? readCheckpoint(checkpointFile) : 0;
+        if (resumed) {
+            log.info("Resuming {} after line {}", rosterFile, committedLines);
+        } else {
+            writeCheckpoint(checkpointFile, 0);
+        }
+
+        courseIds.clear();
+        ExecutorService parsers = Executors.newFixedThreadPool(parserThreads);
+        Deque<Future<List<RosterRecord>>> parsedChunks = new ArrayDeque<>();
+        long importStart = System.nanoTime();
+        try (BufferedReader reader = Files.newBufferedReader(rosterFile, StandardCharsets.UTF_8)) {
+            if (!ndjson) {
+                reader.readLine(); // CSV header
+            }
+            long linesToSkip = committedLines; // already imported before restart
+
+            List<String> lines = new ArrayList<>(chunkSize);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                if (linesToSkip > 0) {
+                    linesToSkip--;
+                    continue;
+                }
+                lines.add(line);
+                if (lines.size() == chunkSize) {
+                    parsedChunks.add(submitParse(parsers, lines, ndjson));
+                    lines = new ArrayList<>(chunkSize);
+                }
+                if (parsedChunks.size() > parserThreads * 2) { // backpressure, stop reading until oldest chunk is saved
+                    committedLines = saveChunk(parsedChunks.poll(), committedLines, checkpointFile, resumed);
+                }
+            }
+            if (!lines.isEmpty()) {
+                parsedChunks.add(submitParse(parsers, lines, ndjson));
+            }
+            while (!parsedChunks.isEmpty()) {
+                committedLines = saveChunk(parsedChunks.poll(), committedLines, checkpointFile, resumed);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            parsers.shutdownNow();
+        }
+
+        long elapsedMillis = Math.max(1, (System.nanoTime() - importStart) / 1_000_000);
+        log.info("Imported {} lines from {} in {} ms ({} lines/sec)",
+                committedLines, rosterFile, elapsedMillis, committedLines * 1000 / elapsedMillis);
+        return committedLines;
+    }
+
+    private Future<List<RosterRecord>> submitParse(ExecutorService parsers, List<String> lines, boolean ndjson) {
+        return parsers.submit(() -> {
+            List<RosterRecord> records = new ArrayList<>(lines.size());
+            for (String line : lines) {
+                records.add(ndjson ? objectMapper.readValue(line, RosterRecord.class) : RosterRecord.fromCsv(line));
+            }
+            return records;
+        });
+    }
+
+    private long saveChunk(Future<List<RosterRecord>> parsedChunk, long committedLines, Path checkpointFile, boolean resumed) {
+        List<RosterRecord> records;
+        try {
+            records = parsedChunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Roster import interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not parse roster chunk after line " + committedLines, e.getCause());
+        }
+
+        long start = System.nanoTime();
+        Integer saved = transactionTemplate.execute(status -> {
+            Set<String> existing = resumed ? existingEmails(records) : null; // one SELECT per chunk, only after a restart
+            int persisted = 0;
+            for (RosterRecord record : records) {
+                if (existing != null && !existing.add(record.email())) {
+                    continue; // imported before the restart
+                }
+                persist(record);
+                persisted++;
+            }
+            entityManager.flush(); // INSERTs are sent now (batched with "bulk" profile)...
+            entityManager.clear(); // ...and this chunk is not kept in the persistence context anymore
+            return persisted;
+        });
+        long chunkMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        int persisted = Objects.requireNonNull(saved);
+
+        long total = committedLines + records.size();
+        writeCheckpoint(checkpointFile, total);
+        if (persisted < records.size()) {
+            log.info("Skipped {} students of the chunk after line {}, they were imported before the restart",
+                    records.size() - persisted, committedLines);
+        }
+        log.info("Chunk of {} students committed in {} ms ({} students/sec), total {} lines",
+                persisted, chunkMillis, persisted * 1000L / chunkMillis, total);
+        return total;
+    }
+
+    private Set<String> existingEmails(List<RosterRecord> records) {
+        return new HashSet<>(entityManager.createQuery("SELECT s.email FROM Student s WHERE s.email IN ?1", String.class)
+                .setParameter(1, records.stream().map(RosterRecord::email).toList())
+                .getResultList());
+    }
+
+    private void persist(RosterRecord record) {
+        Student student = new Student(record.firstName(), record.lastName(), record.email(), record.age());
+        if (record.cardNumber() != null) {
+            student.setStudentIdCard(new StudentIdCard(record.cardNumber(), student));
+        }
+        if (record.books() != null) {
+            record.books().forEach(bookName -> student.addBook(new Book(bookName, LocalDateTime.now())));
+        }
+        if (record.courses() != null) {
+            record.courses().forEach(courseRef -> student.addEnrolment(
+                    new Enrolment(student, findOrCreateCourse(courseRef), LocalDateTime.now())));
+        }
+        entityManager.persist(student); // cascades to id card, books and enrolments
+    }
+
+    private Course findOrCreateCourse(RosterRecord.CourseRef courseRef) {
+        String key = courseRef.name() + "/" + courseRef.department();
+        Long id = courseIds.get(key);
+        if (id != null) {
+            return entityManager.getReference(Course.class, id); // no SELECT, only a proxy with the id
+        }
+        // course can already exist from an earlier (restarted) import
+        Course course = entityManager.createQuery(
+                        "SELECT c FROM Course c WHERE c.name = ?1 AND c.department = ?2", Course.class)
+                .setParameter(1, courseRef.name())
+                .setParameter(2, courseRef.department())
+                .setMaxResults(1)
+                .getResultStream()
+                .findFirst()
+                .orElseGet(() -> {
+                    Course newCourse = new Course(courseRef.name(), courseRef.department());
+                    entityManager.persist(newCourse);
+                    return newCourse;
+                });
+        courseIds.put(key, course.getId()); // id is already known after persist() thanks to the sequence
+        return course;
+    }
+
+    private static long readCheckpoint(Path checkpointFile) {
+        try {
+            return Long.parseLong(Files.readString(checkpointFile).trim());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // temp file + rename: a crash leaves the old or the new checkpoint, never a half written one
+    private static void writeCheckpoint(Path checkpointFile, long committedLines) {
+        Path temporary = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        try {
+            Files.writeString(temporary, Long.toString(committedLines));
+            Files.move(temporary, checkpointFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
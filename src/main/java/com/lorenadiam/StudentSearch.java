@@ -0,0 +1,12 @@
+package com.lorenadiam;
+
+import java.util.List;
+
+// Custom part of StudentRepository (Spring Data finds StudentSearchImpl by the "Impl" suffix and adds it to the repository).
+// Type-ahead search over first name, last name and email, see StudentSearchIndex. Latency (p50/p99) is measured like every
+// repository method: StudentRepository.search on /actuator/repositories.
+public interface StudentSearch {
+
+    // "jo sm", "smith john", "jonh" (typo), "john.smith7@gmail.com". Best matches first, at most limit
+    List<StudentSummary> search(String query, int limit);
+}
@@ -0,0 +1,94 @@
+package com.lorenadiam;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+// Ids come from StudentSearchIndex (memory, no SQL), then ONE query by primary key loads the summaries of the page.
+// Index is optional (ObjectProvider): @DataJpaTest slices don't have it and only fail if they call search().
+// While the index is still being built on start, the table is asked instead (searchByPrefix: prefixes, no typos).
+@Transactional(readOnly = true)
+public class StudentSearchImpl implements StudentSearch {
+
+    private static final int MIN_WORD = 2; // like StudentSearchIndex, shorter words match too much
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final ObjectProvider<StudentSearchIndex> studentSearchIndex;
+
+    public StudentSearchImpl(ObjectProvider<StudentSearchIndex> studentSearchIndex) {
+        this.studentSearchIndex = studentSearchIndex;
+    }
+
+    @Override
+    public List<StudentSummary> search(String query, int limit) {
+        if (query == null || query.isBlank() || limit <= 0) {
+            return List.of();
+        }
+        StudentSearchIndex index = studentSearchIndex.getIfAvailable();
+        if (index == null) {
+            throw new IllegalStateException("StudentSearchIndex is not in this application context");
+        }
+        if (!index.isBuilt()) {
+            return searchByPrefix(entityManager, query, limit);
+        }
+        List<Long> ids = new ArrayList<>();
+        if (query.contains("@")) { // whole email: numbers are not in the index, the unique email index finds it
+            entityManager.createQuery("SELECT s.id FROM Student s WHERE s.email = ?1", Long.class)
+                    .setParameter(1, query.trim())
+                    .getResultList()
+                    .forEach(ids::add);
+        }
+        Arrays.stream(index.search(query, limit)).filter(id -> !ids.contains(id)).limit(limit - ids.size()).forEach(ids::add);
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+
+        // IN doesn't keep the order, index order = best matches first
+        Map<Long, StudentSummary> summaries = entityManager.createQuery(
+                        "SELECT new com.lorenadiam.StudentSummary(s.id, s.firstName, s.lastName, s.email, s.age) " +
+                                "FROM Student s WHERE s.id IN ?1", StudentSummary.class)
+                .setParameter(1, ids)
+                .getResultList().stream()
+                .collect(Collectors.toMap(StudentSummary::id, Function.identity()));
+        return ids.stream()
+                .map(summaries::get)
+                .filter(summary -> summary != null) // deleted after the index answered
+                .toList();
+    }
+
+    // Every word (2+ letters) is a prefix of first name, last name or email, first limit by name. Also the search of a shard
+    // (ShardedStudentRepository). LOWER(...) LIKE reads the whole student table, fine for a while on start or a few shards
+    static List<StudentSummary> searchByPrefix(EntityManager entityManager, String query, int limit) {
+        List<String> words = Arrays.stream(query.toLowerCase(Locale.ROOT).split("\\s+"))
+                .filter(word -> word.length() >= MIN_WORD)
+                .toList();
+        if (words.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        StringBuilder jpql = new StringBuilder(
+                "SELECT new com.lorenadiam.StudentSummary(s.id, s.firstName, s.lastName, s.email, s.age) FROM Student s WHERE ");
+        for (int i = 1; i <= words.size(); i++) {
+            jpql.append(i > 1 ? " AND " : "").append("(LOWER(s.firstName) LIKE ?").append(i).append(" ESCAPE '\\'")
+                    .append(" OR LOWER(s.lastName) LIKE ?").append(i).append(" ESCAPE '\\'")
+                    .append(" OR LOWER(s.email) LIKE ?").append(i).append(" ESCAPE '\\')");
+        }
+        jpql.append(" ORDER BY s.firstName, s.lastName, s.id");
+        TypedQuery<StudentSummary> search = entityManager.createQuery(jpql.toString(), StudentSummary.class);
+        for (int i = 0; i < words.size(); i++) {
+            search.setParameter(i + 1, words.get(i).replaceAll("([\\\\%_])", "\\\\$1") + "%"); // % and _ are letters here
+        }
+        return search.setMaxResults(limit).getResultList();
+    }
+}
@@ -0,0 +1,477 @@
+package com.lorenadiam;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCommitDeleteEventListener;
+import org.hibernate.event.spi.PostCommitInsertEventListener;
+import org.hibernate.event.spi.PostCommitUpdateEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.persister.entity.EntityPersister;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+// Type-ahead search over first name, last name and email (StudentRepository.search). Word -> bitmap of student ids, in memory.
+// Words are lower case letters without accents, split at everything else: "John.Smith.42@gmail.com" -> john, smith, gmail, com.
+// Numbers are not indexed (every email has its own, millions of one-student words), a full email is found by StudentSearchImpl.
+// Dictionary has one entry per distinct word (names repeat a lot), so 5M students are a few thousand words + compressed bitmaps.
+// 2 and 3 letter prefixes have their own bitmaps: "ma" starts hundreds of words, OR-ing them on every keystroke took 25 ms (1M students).
+// 32-bit RoaringBitmap, not Roaring64Bitmap like EnrolmentRosterIndex: its OR/AND of many bitmaps (FastAggregation) is several times
+// faster, and student ids from the sequence are far below 2^31 (Math.toIntExact fails loudly if they ever are not).
+// Every query word must match (AND), as a prefix ("jo sm" = John Smith), words of 4+ letters also with a typo:
+// 1 edit (wrong, missing, extra letter, not the first one), 2 edits from 8 letters. Order: exact words first, then prefixes, then typos.
+// Kept up to date after COMMIT like StudentLookupCache, JPQL bulk statements call rebuildAfterCommit() (replaceAfterCommit() for one student).
+// Built when the app is ready (student-search.rebuild-on-start), in the background: readiness isn't held back by 5M rows.
+// Until that first build is done search() waits for it and StudentRepository.search asks the table instead (StudentSearchImpl).
+// Indexes the application database's students, so it isn't there when they are sharded (ShardedStudentRepository.search).
+@Component
+@ConditionalOnExpression(ShardingConfiguration.NOT_SHARDED)
+public class StudentSearchIndex implements PostCommitInsertEventListener, PostCommitUpdateEventListener, PostCommitDeleteEventListener {
+
+    private static final Logger log = LoggerFactory.getLogger(StudentSearchIndex.class);
+    private static final Pattern ACCENTS = Pattern.compile("\\p{M}+");
+    private static final RoaringBitmap EMPTY = new RoaringBitmap();
+    private static final int MIN_WORD = 2; // shorter words match too much to be useful
+    private static final int FUZZY_FROM = 4;
+    private static final int TWO_EDITS_FROM = 8;
+    private static final int LONGEST_STORED_PREFIX = 3;
+    private static final int MAX_LIMIT = 1_000; // type-ahead shows a page, not a table export
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean rebuildOnStart;
+
+    // same locking as EnrolmentRosterIndex: many readers, one writer, rebuild swaps a finished dictionary
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Postings postings = new Postings();
+    private List<Change> changesDuringRebuild;
+    // open after the first rebuild (or right away without rebuild-on-start: events only, like before)
+    private final CountDownLatch firstBuild;
+    private volatile boolean firstBuildFailed;
+
+    public StudentSearchIndex(
+            DataSource dataSource,
+            PlatformTransactionManager transactionManager,
+            EntityManagerFactory entityManagerFactory,
+            MeterRegistry meterRegistry,
+            @Value("${student-search.fetch-size:10000}") int fetchSize,
+            @Value("${student-search.rebuild-on-start:true}") boolean rebuildOnStart) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(fetchSize);
+        this.transactionTemplate = new TransactionTemplate(transactionManager); // read-write = primary, see EnrolmentRosterIndex
+        this.rebuildOnStart = rebuildOnStart;
+        this.firstBuild = new CountDownLatch(rebuildOnStart ? 1 : 0);
+
+        Gauge.builder("student.search.index.built", this, index -> index.isBuilt() ? 1 : 0).register(meterRegistry);
+        Gauge.builder("student.search.index.words", this, index -> index.read(() -> index.postings.words.size())).register(meterRegistry);
+        Gauge.builder("student.search.index.size", this, StudentSearchIndex::sizeInBytes).baseUnit("bytes").register(meterRegistry);
+
+        EventListenerRegistry listeners = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry().getService(EventListenerRegistry.class);
+        listeners.appendListeners(EventType.POST_COMMIT_INSERT, this);
+        listeners.appendListeners(EventType.POST_COMMIT_UPDATE, this);
+        listeners.appendListeners(EventType.POST_COMMIT_DELETE, this);
+    }
+
+    // student ids, best matches first, at most limit (max MAX_LIMIT)
+    public long[] search(String query, int requestedLimit) {
+        List<String> queryWords = new ArrayList<>(words(query));
+        int limit = Math.min(requestedLimit, MAX_LIMIT);
+        if (queryWords.isEmpty() || limit <= 0) {
+            return new long[0];
+        }
+        awaitFirstBuild();
+        return read(() -> {
+            // a tier = students matching EVERY query word at least that well
+            List<RoaringBitmap> exactWords = new ArrayList<>();
+            List<RoaringBitmap> prefixWords = new ArrayList<>();
+            for (String word : queryWords) {
+                exactWords.add(postings.words.getOrDefault(word, EMPTY));
+                prefixWords.add(postings.startingWith(word));
+            }
+            RoaringBitmap exact = FastAggregation.and(exactWords.iterator());
+            RoaringBitmap prefix = FastAggregation.and(prefixWords.iterator());
+            long[] found = new long[limit];
+            int count = take(exact, null, found, 0);
+            count = take(prefix, exact, found, count);
+            if (count < limit && queryWords.stream().anyMatch(word -> word.length() >= FUZZY_FROM)) {
+                // typos only when exact and prefix matches don't fill the page, dictionary scan is the slow part
+                List<RoaringBitmap> fuzzyWords = new ArrayList<>();
+                for (String word : queryWords) {
+                    fuzzyWords.add(word.length() >= FUZZY_FROM
+                            ? FastAggregation.or(fuzzyMatches(word).iterator()) // includes the prefix matches (0 edits)
+                            : postings.startingWith(word));
+                }
+                count = take(FastAggregation.and(fuzzyWords.iterator()), prefix, found, count);
+            }
+            return Arrays.copyOf(found, count);
+        });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildOnStart() {
+        if (rebuildOnStart) {
+            Thread.ofPlatform().name("student-search-rebuild").daemon().start(() -> {
+                try {
+                    rebuild();
+                } catch (RuntimeException e) {
+                    log.error("Student search index could not be built on start", e);
+                    firstBuildFailed = true;
+                    firstBuild.countDown();
+                }
+            });
+        }
+    }
+
+    // false while the first rebuild reads the table
+    public boolean isBuilt() {
+        return firstBuild.getCount() == 0 && !firstBuildFailed;
+    }
+
+    // Whole student table (id and the 3 searched columns), commits during the rebuild are replayed, see EnrolmentRosterIndex.rebuild()
+    public synchronized void rebuild() {
+        long start = System.nanoTime();
+        write(() -> changesDuringRebuild = new ArrayList<>());
+        Postings rebuilt = new Postings();
+        long[] students = {0};
+        try {
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.query(
+                    "SELECT id, first_name, last_name, email FROM student",
+                    (RowCallbackHandler) resultSet -> {
+                        int studentId = Math.toIntExact(resultSet.getLong(1));
+                        rebuilt.add(studentId, words(resultSet.getString(2), resultSet.getString(3), resultSet.getString(4)));
+                        students[0]++;
+                    }));
+        } catch (RuntimeException e) {
+            write(() -> changesDuringRebuild = null);
+            throw e;
+        }
+        write(() -> {
+            changesDuringRebuild.forEach(change -> change.applyTo(rebuilt));
+            changesDuringRebuild = null;
+            postings = rebuilt;
+        });
+        firstBuildFailed = false;
+        firstBuild.countDown();
+        log.info("Student search index rebuilt: {} students, {} words, {} bytes in {} ms",
+                students[0], rebuilt.words.size(), sizeInBytes(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // After commit of the current transaction (or now if there is none)
+    public void rebuildAfterCommit() {
+        afterCommit(this::rebuild);
+    }
+
+    // JPQL UPDATE/DELETE of ONE student (StudentBulkOperations.renameStudent/deleteStudent) fires no entity events either.
+    // Same change onPostUpdate/onPostDelete would make, after commit, without a rebuild. after = null: student was deleted
+    public void replaceAfterCommit(StudentSummary before, StudentSummary after) {
+        Change change = new Change(Math.toIntExact(before.id()), words(before.firstName(), before.lastName(), before.email()),
+                after == null ? Set.of() : words(after.firstName(), after.lastName(), after.email()));
+        afterCommit(() -> apply(change));
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        if (event.getEntity() instanceof Student student) {
+            apply(new Change(Math.toIntExact(student.getId()), Set.of(), words(student.getFirstName(), student.getLastName(), student.getEmail())));
+        }
+    }
+
+    // only when searched words changed (not for age), "Anna Smith" -> "Anna Smith-Jones" removes nothing and adds "jones"
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        if (event.getEntity() instanceof Student student && event.getOldState() != null) {
+            Set<String> oldWords = words(
+                    (String) oldValue(event, "firstName"), (String) oldValue(event, "lastName"), (String) oldValue(event, "email"));
+            Set<String> newWords = words(student.getFirstName(), student.getLastName(), student.getEmail());
+            if (!oldWords.equals(newWords)) {
+                apply(new Change(Math.toIntExact(student.getId()), oldWords, newWords));
+            }
+        }
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        if (event.getEntity() instanceof Student student) {
+            apply(new Change(Math.toIntExact(student.getId()), words(student.getFirstName(), student.getLastName(), student.getEmail()), Set.of()));
+        }
+    }
+
+    private static Object oldValue(PostUpdateEvent event, String property) {
+        return event.getOldState()[event.getPersister().getPropertyIndex(property)];
+    }
+
+    @Override
+    public boolean requiresPostCommitHandling(EntityPersister persister) {
+        return persister.getMappedClass() == Student.class;
+    }
+
+    @Override
+    public void onPostInsertCommitFailed(PostInsertEvent event) { // rolled back, index only has committed students
+    }
+
+    @Override
+    public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+    }
+
+    @Override
+    public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+    }
+
+    long sizeInBytes() {
+        return read(() -> Stream.concat(postings.words.values().stream(), postings.prefixes.values().stream())
+                .mapToLong(RoaringBitmap::getLongSizeInBytes).sum());
+    }
+
+    // lower case, no accents, letters only, at least MIN_WORD letters, every word once.
+    // Loop instead of regex split, it runs for every student on rebuild (5M x 3 columns)
+    static Set<String> words(String... texts) {
+        Set<String> words = new LinkedHashSet<>();
+        for (String text : texts) {
+            if (text == null) {
+                continue;
+            }
+            String plain = isAscii(text) ? text : ACCENTS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+            int start = -1;
+            for (int i = 0; i <= plain.length(); i++) {
+                boolean letter = i < plain.length() && Character.isLetter(plain.charAt(i));
+                if (letter && start < 0) {
+                    start = i;
+                } else if (!letter && start >= 0) {
+                    if (i - start >= MIN_WORD) {
+                        words.add(plain.substring(start, i).toLowerCase(Locale.ROOT));
+                    }
+                    start = -1;
+                }
+            }
+        }
+        return words;
+    }
+
+    private static boolean isAscii(String text) { // nothing to take accents from
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > 127) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Dictionary words starting with something at most 1 (or 2) edits away from the typed word, e.g. "jonh" -> john, johnson.
+    // First letter has to be right (people rarely mistype it), so only words with that letter are scanned, not the whole
+    // dictionary, and "maria" doesn't also match every "aria..." word. Most words are rejected after 2-3 letters.
+    private List<RoaringBitmap> fuzzyMatches(String word) {
+        int maxEdits = word.length() >= TWO_EDITS_FROM ? 2 : 1;
+        String firstLetter = word.substring(0, 1);
+        List<RoaringBitmap> matches = new ArrayList<>();
+        for (Map.Entry<String, RoaringBitmap> entry
+                : postings.words.subMap(firstLetter, true, firstLetter + Character.MAX_VALUE, false).entrySet()) {
+            if (prefixDistanceAtMost(word, entry.getKey(), maxEdits)) {
+                matches.add(entry.getValue());
+            }
+        }
+        return matches;
+    }
+
+    // Levenshtein distance between typed word and the closest PREFIX of candidate, row by row over candidate letters.
+    // Stops as soon as a whole row is above maxEdits (no longer prefix can get closer).
+    static boolean prefixDistanceAtMost(String typed, String candidate, int maxEdits) {
+        int[] previous = new int[typed.length() + 1];
+        int[] current = new int[typed.length() + 1];
+        for (int j = 0; j <= typed.length(); j++) {
+            previous[j] = j;
+        }
+        if (previous[typed.length()] <= maxEdits) {
+            return true;
+        }
+        int rows = Math.min(candidate.length(), typed.length() + maxEdits);
+        for (int i = 1; i <= rows; i++) {
+            current[0] = i;
+            int rowMin = i;
+            for (int j = 1; j <= typed.length(); j++) {
+                int substitution = previous[j - 1] + (candidate.charAt(i - 1) == typed.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j] + 1, current[j - 1] + 1));
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (current[typed.length()] <= maxEdits) {
+                return true;
+            }
+            if (rowMin > maxEdits) {
+                return false;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return false;
+    }
+
+    // ids of tier that are not in the better tier, until found is full
+    private static int take(RoaringBitmap tier, RoaringBitmap better, long[] found, int count) {
+        IntIterator ids = tier.getIntIterator();
+        while (count < found.length && ids.hasNext()) {
+            int id = ids.next();
+            if (better == null || !better.contains(id)) {
+                found[count++] = id;
+            }
+        }
+        return count;
+    }
+
+    private void apply(Change change) {
+        write(() -> {
+            change.applyTo(postings);
+            if (changesDuringRebuild != null) {
+                changesDuringRebuild.add(change);
+            }
+        });
+    }
+
+    private void awaitFirstBuild() {
+        try {
+            firstBuild.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the student search index", e);
+        }
+        if (firstBuildFailed) {
+            throw new IllegalStateException("Student search index could not be built on start, see the log (rebuild() retries)");
+        }
+    }
+
+    private <T> T read(Supplier<T> reader) {
+        lock.readLock().lock();
+        try {
+            return reader.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void write(Runnable writer) {
+        lock.writeLock().lock();
+        try {
+            writer.run();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // word -> students and short prefix -> students (every student having a word that starts with it)
+    private static final class Postings {
+
+        final TreeMap<String, RoaringBitmap> words = new TreeMap<>();
+        final Map<String, RoaringBitmap> prefixes = new HashMap<>();
+
+        // stored bitmap for short prefixes, OR of the words otherwise ("john" = john, johnnie, johnson...). Never modify the result
+        RoaringBitmap startingWith(String word) {
+            if (word.length() <= LONGEST_STORED_PREFIX) {
+                return prefixes.getOrDefault(word, EMPTY);
+            }
+            return FastAggregation.or(words.subMap(word, true, word + Character.MAX_VALUE, false).values().iterator());
+        }
+
+        void add(int studentId, Set<String> added) {
+            for (String word : added) {
+                words.computeIfAbsent(word, w -> new RoaringBitmap()).add(studentId);
+                for (String prefix : shortPrefixes(word)) {
+                    prefixes.computeIfAbsent(prefix, p -> new RoaringBitmap()).add(studentId);
+                }
+            }
+        }
+
+        // kept = words the student still has, a prefix stays while one of them starts with it ("mark mason" without "mark" is still "ma")
+        void remove(int studentId, Set<String> removed, Set<String> kept) {
+            Set<String> keptPrefixes = new HashSet<>();
+            kept.forEach(word -> keptPrefixes.addAll(shortPrefixes(word)));
+            for (String word : removed) {
+                if (!kept.contains(word)) {
+                    removeFrom(words, word, studentId);
+                }
+                for (String prefix : shortPrefixes(word)) {
+                    if (!keptPrefixes.contains(prefix)) {
+                        removeFrom(prefixes, prefix, studentId);
+                    }
+                }
+            }
+        }
+
+        private static List<String> shortPrefixes(String word) {
+            List<String> shortPrefixes = new ArrayList<>(LONGEST_STORED_PREFIX);
+            for (int length = MIN_WORD; length <= Math.min(word.length(), LONGEST_STORED_PREFIX); length++) {
+                shortPrefixes.add(word.substring(0, length));
+            }
+            return shortPrefixes;
+        }
+
+        private static void removeFrom(Map<String, RoaringBitmap> postings, String key, int studentId) {
+            RoaringBitmap students = postings.get(key);
+            if (students != null) {
+                students.remove(studentId);
+                if (students.isEmpty()) {
+                    postings.remove(key);
+                }
+            }
+        }
+    }
+
+    // removed/added = all words of the student before/after the commit
+    private record Change(int studentId, Set<String> removed, Set<String> added) {
+
+        void applyTo(Postings postings) {
+            postings.remove(studentId, removed, added);
+            postings.add(studentId, added);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.lorenadiam;
+
+// Record (DTO) projection of a student. JPQL fills it directly with "SELECT new com.lorenadiam.StudentSummary(...)",
+// no entity, no persistence context, no dirty checking snapshot. REST endpoints return it too, because
+// entity can't be returned as JSON (Student -> books -> student would never end).
+public record StudentSummary(Long id, String firstName, String lastName, String email, Integer age) {
+
+    static StudentSummary of(Student student) {
+        return new StudentSummary(
+                student.getId(), student.getFirstName(), student.getLastName(), student.getEmail(), student.getAge());
+    }
+}
@@ -0,0 +1,15 @@
+package com.lorenadiam;
+
+// Interface projection. For derived query methods returning this Spring Data selects ONLY these columns (no entity, no id card JOIN).
+public interface StudentSummaryView {
+
+    Long getId();
+
+    String getFirstName();
+
+    String getLastName();
+
+    String getEmail();
+
+    Integer getAge();
+}
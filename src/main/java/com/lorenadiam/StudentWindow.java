@@ -0,0 +1,7 @@
+package com.lorenadiam;
+
+import java.util.List;
+
+// One "page" of keyset pagination. next is the opaque token for the following page, null when there is nothing more to read.
+public record StudentWindow(List<Student> students, String next) {
+}
@@ -0,0 +1,51 @@
+package com.lorenadiam;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// threads.virtual.enabled=true ("virtual" profile): every HTTP request and every @Async task runs on its own virtual thread.
+// Our requests mostly wait for JDBC, a virtual thread waiting for db doesn't hold an OS thread, so Tomcat's 200 thread limit is gone.
+// Concurrency is then limited by the connection pool (spring.datasource.hikari.maximum-pool-size), size it for the db, not for threads.
+@Configuration
+@ConditionalOnProperty("threads.virtual.enabled")
+public class VirtualThreadConfiguration {
+
+    @Bean
+    TomcatProtocolHandlerCustomizer<?> virtualThreadRequestExecutor() {
+        return protocolHandler -> protocolHandler.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    // replaces Spring Boot's pooled "applicationTaskExecutor" used for @Async and async MVC.
+    // Closed with the context: close() waits for the running tasks and then ends the executor
+    @Bean(name = TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME, destroyMethod = "close")
+    ClosingTaskExecutor applicationTaskExecutor() {
+        return new ClosingTaskExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    @Bean
+    VirtualThreadPinningMonitor virtualThreadPinningMonitor() {
+        return new VirtualThreadPinningMonitor();
+    }
+
+    static class ClosingTaskExecutor extends TaskExecutorAdapter implements AutoCloseable {
+
+        private final ExecutorService executorService;
+
+        ClosingTaskExecutor(ExecutorService executorService) {
+            super(executorService);
+            this.executorService = executorService;
+        }
+
+        @Override
+        public void close() {
+            executorService.close();
+        }
+    }
+}
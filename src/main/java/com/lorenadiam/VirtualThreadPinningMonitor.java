@@ -0,0 +1,51 @@
+package com.lorenadiam;
+
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+
+import java.time.Duration;
+import java.util.stream.Collectors;
+
+// Virtual thread blocked inside "synchronized" (driver, pool, Hibernate...) is PINNED, it keeps its carrier OS thread while waiting.
+// A few of those and all carriers are busy -> every request waits. JFR reports them (jdk.VirtualThreadPinned), we log where it happened.
+// Same information as -Djdk.tracePinnedThreads=short, but only above the threshold and in the normal log.
+public class VirtualThreadPinningMonitor implements InitializingBean, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadPinningMonitor.class);
+
+    @Value("${threads.virtual.pinned-threshold:20ms}")
+    private Duration threshold;
+
+    private RecordingStream recordingStream;
+
+    @Override
+    public void afterPropertiesSet() {
+        recordingStream = new RecordingStream();
+        recordingStream.enable("jdk.VirtualThreadPinned").withThreshold(threshold).withStackTrace();
+        recordingStream.onEvent("jdk.VirtualThreadPinned", event -> log.warn("Virtual thread pinned for {} ms at {}",
+                event.getDuration().toMillis(), topFrames(event.getStackTrace())));
+        recordingStream.startAsync();
+    }
+
+    @Override
+    public void destroy() {
+        recordingStream.close();
+    }
+
+    private static String topFrames(RecordedStackTrace stackTrace) {
+        if (stackTrace == null) {
+            return "unknown";
+        }
+        return stackTrace.getFrames().stream()
+                .limit(8)
+                .map(RecordedFrame::getMethod)
+                .map(method -> method.getType().getName() + "." + method.getName())
+                .collect(Collectors.joining(" <- "));
+    }
+}
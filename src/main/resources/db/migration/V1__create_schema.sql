@@ -0,0 +1,50 @@
+-- Schema as it was created by ddl-auto=create-drop from the entities (sequences reserve 50 ids, see allocationSize)
+create sequence student_sequence start with 1 increment by 50;
+create sequence student_id_card_sequence start with 1 increment by 50;
+create sequence book_sequence start with 1 increment by 50;
+create sequence course_sequence start with 1 increment by 50;
+
+create table student (
+    id bigint not null,
+    first_name TEXT not null,
+    last_name TEXT not null,
+    email TEXT not null,
+    age integer not null,
+    constraint student_pkey primary key (id),
+    constraint student_email_unique unique (email)
+);
+
+create table student_id_card (
+    id bigint not null,
+    card_number varchar(15),
+    student_id bigint,
+    constraint student_id_card_pkey primary key (id),
+    constraint student_id_card_number_unique unique (card_number),
+    constraint student_id_card_student_id_unique unique (student_id),
+    constraint student_id_fk foreign key (student_id) references student (id)
+);
+
+create table book (
+    id bigint not null,
+    book_name TEXT not null,
+    created_at TIMESTAMP WITHOUT TIME ZONE,
+    student_id bigint not null,
+    constraint book_pkey primary key (id),
+    constraint student_book_fk foreign key (student_id) references student (id)
+);
+
+create table course (
+    id bigint not null,
+    name TEXT not null,
+    department TEXT not null,
+    constraint course_pkey primary key (id)
+);
+
+create table enrolment (
+    course_id bigint not null,
+    student_id bigint not null,
+    created_at TIMESTAMP WITHOUT TIME ZONE not null,
+    constraint enrolment_pkey primary key (course_id, student_id),
+    constraint enrolment_course_id_fk foreign key (course_id) references course (id),
+    constraint enrolment_student_id_fk foreign key (student_id) references student (id)
+);
@@ -0,0 +1,16 @@
+-- Indexes for the real access paths of StudentRepository. QueryPlanTests fails when a query scans a big table without them.
+
+-- findStudentsByFirstNameEqualsAndAgeGreaterThan (JPQL and both native versions): first_name = ? AND age >= ?
+-- sortingExamples: ORDER BY first_name, age
+create index student_first_name_age_idx on student (first_name, age);
+
+-- keyset pagination (StudentKeysetPagination): seek after (first_name, id) or (age, id)
+create index student_first_name_id_idx on student (first_name, id);
+create index student_age_id_idx on student (age, id);
+
+-- Student.books, export and bulk delete look books up by student
+create index book_student_id_idx on book (student_id);
+
+-- primary key is (course_id, student_id), so it already serves lookups by course.
+-- Student.enrolments, export and bulk delete look up by student_id, which is the 2nd column of the key
+create index enrolment_student_id_idx on enrolment (student_id);
@@ -0,0 +1,17 @@
+-- Counters kept by AggregateCounters: books per student (student.books) and enrolments per course (course.enrolments).
+-- One counter is split in up to aggregate-counters.stripes rows, its value is the SUM of their amounts. Every transaction adds its +/-
+-- to one random stripe, so concurrent enrolments into the same course mostly lock different rows.
+-- (V3 is PostgreSQL only, see db/vendor/postgresql)
+create table aggregate_counter (
+    name TEXT not null,
+    entity_id bigint not null,
+    stripe smallint not null,
+    amount bigint not null, -- "value" is a keyword in H2
+    constraint aggregate_counter_pkey primary key (name, entity_id, stripe)
+);
+
+-- counters for the rows that are already there
+insert into aggregate_counter (name, entity_id, stripe, amount)
+select 'student.books', student_id, 0, count(*) from book group by student_id;
+insert into aggregate_counter (name, entity_id, stripe, amount)
+select 'course.enrolments', course_id, 0, count(*) from enrolment group by course_id;
@@ -0,0 +1,3 @@
+-- BookRepository reads books by borrow date (created_at range) and BookArchiver finds the oldest ones with MIN(created_at).
+-- On postgres book is also partitioned by month of created_at (V6, db/vendor/postgresql), this index is then one per partition.
+create index book_created_at_idx on book (created_at);
@@ -0,0 +1,9 @@
+-- Sharded students only (ShardedStudentRepository): every email is claimed on the shard its hash points to, whichever shard
+-- the student lives on (a student keeps its shard when its email changes). The primary key makes emails unique over all shards,
+-- student_email_unique only sees the students of one shard. Empty and unused on the application database.
+create table student_email_claim (
+    email TEXT not null,
+    student_id bigint not null,
+    claimed_at timestamp not null, -- a claim for a transaction that never committed is taken over once it is old
+    constraint student_email_claim_pkey primary key (email)
+);
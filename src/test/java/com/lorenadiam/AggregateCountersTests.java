@@ -0,0 +1,134 @@
+package com.lorenadiam;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+@TestPropertySource(properties = "spring.datasource.url=jdbc:h2:mem:aggregate-counters;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH")
+class AggregateCountersTests {
+
+	@Autowired
+	private StudentRepository studentRepository;
+
+	@Autowired
+	private AggregateCounters aggregateCounters;
+
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	private long studentId;
+	private long courseId;
+
+	@BeforeEach
+	void setUp() {
+		Course course = new Course("Counted " + System.nanoTime(), "IT");
+		Student student = new Student("Counted", "Student", "counted" + System.nanoTime() + "@gmail.com", 30);
+		student.addBook(new Book("Clean code", LocalDateTime.now()));
+		student.addBook(new Book("Dune", LocalDateTime.now()));
+		student.addEnrolment(new Enrolment(student, course, LocalDateTime.now()));
+		studentRepository.save(student);
+		studentId = student.getId();
+		courseId = course.getId();
+	}
+
+	@Test
+	void countersFollowCommittedChanges() {
+		assertThat(aggregateCounters.booksOf(studentId)).isEqualTo(2);
+		assertThat(aggregateCounters.enrolmentsIn(courseId)).isEqualTo(1);
+
+		transactionTemplate.executeWithoutResult(status -> {
+			Student student = studentRepository.findById(studentId).orElseThrow();
+			student.removeBook(student.getBooks().get(0));
+			student.addBook(new Book("Refactoring", LocalDateTime.now()));
+			student.addBook(new Book("Effective Java", LocalDateTime.now()));
+			student.removeEnrolment(student.getEnrolments().get(0));
+		});
+		assertThat(aggregateCounters.booksOf(studentId)).isEqualTo(3);
+		assertThat(aggregateCounters.enrolmentsIn(courseId)).isZero();
+
+		transactionTemplate.executeWithoutResult(status -> {
+			studentRepository.findById(studentId).orElseThrow().addBook(new Book("Rolled back", LocalDateTime.now()));
+			studentRepository.flush();
+			status.setRollbackOnly();
+		});
+		assertThat(aggregateCounters.booksOf(studentId)).isEqualTo(3);
+	}
+
+	@Test
+	void concurrentEnrolmentsIntoOneCourseAreAllCounted() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<?>> enrolments = new ArrayList<>();
+			for (int i = 0; i < 40; i++) {
+				int n = i;
+				enrolments.add(executor.submit(() -> transactionTemplate.executeWithoutResult(status -> {
+					Student student = new Student("Concurrent", "Student", "concurrent" + n + "." + System.nanoTime() + "@gmail.com", 20);
+					student.addEnrolment(new Enrolment(student, studentRepository.findById(studentId).orElseThrow()
+							.getEnrolments().get(0).getCourse(), LocalDateTime.now()));
+					studentRepository.save(student);
+				})));
+			}
+			for (Future<?> enrolment : enrolments) {
+				enrolment.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		assertThat(aggregateCounters.enrolmentsIn(courseId)).isEqualTo(41);
+		assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM aggregate_counter WHERE name = ? AND entity_id = ?",
+				Long.class, AggregateCounters.Aggregate.COURSE_ENROLMENTS.counterName(), courseId)).isGreaterThan(1); // striped
+		assertThat(aggregateCounters.reconcile()).isEmpty();
+	}
+
+	@Test
+	void reconcileFindsAndRepairsDrift() {
+		jdbcTemplate.update("INSERT INTO book (id, book_name, created_at, student_id) VALUES (?, 'Sneaked in', CURRENT_TIMESTAMP, ?)",
+				-studentId, studentId); // plain JDBC: no entity event, counter doesn't know
+
+		List<AggregateCounters.Drift> drifts = aggregateCounters.reconcile();
+
+		assertThat(drifts).containsExactly(new AggregateCounters.Drift(AggregateCounters.Aggregate.STUDENT_BOOKS, studentId, 3, 2));
+		assertThat(aggregateCounters.booksOf(studentId)).isEqualTo(3);
+		assertThat(aggregateCounters.reconcile()).isEmpty();
+	}
+
+	@Test
+	void concurrentReconcileRunsRepairDriftOnce() throws Exception {
+		jdbcTemplate.update("INSERT INTO book (id, book_name, created_at, student_id) VALUES (?, 'Sneaked in', CURRENT_TIMESTAMP, ?)",
+				-studentId, studentId);
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<List<AggregateCounters.Drift>>> runs = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				runs.add(executor.submit(aggregateCounters::reconcile));
+			}
+			for (Future<List<AggregateCounters.Drift>> run : runs) {
+				run.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		assertThat(aggregateCounters.booksOf(studentId)).isEqualTo(3); // +1 once, not once per run
+		assertThat(aggregateCounters.reconcile()).isEmpty();
+	}
+}
@@ -0,0 +1,192 @@
+package com.lorenadiam;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.FileSystemUtils;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// H2 by default. Partition path (lock, write, detach and drop a month) against a real local postgres:
+// mvn test -Dtest=BookArchiverTests -Dbook-archiver.url=jdbc:postgresql://localhost:5432/archiver -Dbook-archiver.username=... -Dbook-archiver.password=...
+@SpringBootTest
+@TestPropertySource(properties = {
+		"spring.datasource.url=${book-archiver.url:jdbc:h2:mem:book-archiver;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH}",
+		"spring.datasource.username=${book-archiver.username:sa}",
+		"spring.datasource.password=${book-archiver.password:}",
+		"book-archive.enabled=true",
+		"book-archive.retention-months=12"})
+class BookArchiverTests {
+
+	private static final Path DIRECTORY = Path.of("target/book-archiver-tests").toAbsolutePath();
+
+	@DynamicPropertySource
+	static void archiveDirectory(DynamicPropertyRegistry registry) { // must be absolute
+		registry.add("book-archive.directory", DIRECTORY::toString);
+	}
+
+	@Autowired
+	private StudentRepository studentRepository;
+
+	@Autowired
+	private BookRepository bookRepository;
+
+	@Autowired
+	private BookArchiver bookArchiver;
+
+	@Autowired
+	private AggregateCounters aggregateCounters;
+
+	@Autowired
+	private BookPartitions bookPartitions;
+
+	@Autowired
+	private DataSource dataSource;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		FileSystemUtils.deleteRecursively(DIRECTORY);
+	}
+
+	@Test
+	void booksBeforeRetentionWindowMoveToArchiveFiles() throws IOException {
+		YearMonth twoYearsAgo = YearMonth.now().minusYears(2);
+		LocalDateTime recent = LocalDateTime.now().minusDays(3).withNano(0);
+		Student student = new Student("Archived", "Reader", "archived" + System.nanoTime() + "@gmail.com", 40);
+		student.addBook(new Book("Recent, still borrowed", recent));
+		student.addBook(new Book("Old \"quoted\", with comma", twoYearsAgo.atDay(3).atTime(10, 15)));
+		student.addBook(new Book("Old\nwith line break", twoYearsAgo.atDay(20).atTime(8, 0)));
+		student.addBook(new Book("Older", twoYearsAgo.minusMonths(5).atDay(1).atStartOfDay()));
+		studentRepository.save(student);
+		List<Book> books = student.getBooks();
+
+		List<BookArchiver.ArchivedMonth> archived = bookArchiver.archive();
+
+		assertThat(archived).extracting(BookArchiver.ArchivedMonth::month, BookArchiver.ArchivedMonth::books)
+				.containsExactly(tuple(twoYearsAgo.minusMonths(5), 1L), tuple(twoYearsAgo, 2L)); // oldest first
+		assertThat(archived).allSatisfy(month -> assertThat(month.file()).exists());
+		try (Stream<Path> files = Files.list(DIRECTORY)) {
+			assertThat(files.map(file -> file.getFileName().toString())).noneMatch(name -> name.endsWith(".tmp"));
+		}
+
+		// only the recent book is left in the table, its counter follows
+		assertThat(bookRepository.findBorrowedByStudentBetween(student.getId(), LocalDateTime.now().minusYears(10), LocalDateTime.now()))
+				.containsExactly(new BorrowedBook(books.get(0).getId(), "Recent, still borrowed", recent, student.getId()));
+		assertThat(aggregateCounters.booksOf(student.getId())).isEqualTo(1);
+
+		// same rows back from the files, names with quotes/commas/line breaks included
+		assertThat(bookArchiver.archivedBetween(twoYearsAgo.atDay(1).atStartOfDay(), twoYearsAgo.plusMonths(1).atDay(1).atStartOfDay()))
+				.containsExactly(
+						new BorrowedBook(books.get(1).getId(), "Old \"quoted\", with comma", twoYearsAgo.atDay(3).atTime(10, 15), student.getId()),
+						new BorrowedBook(books.get(2).getId(), "Old\nwith line break", twoYearsAgo.atDay(20).atTime(8, 0), student.getId()));
+		assertThat(bookArchiver.archivedBetween(twoYearsAgo.atDay(10).atStartOfDay(), twoYearsAgo.atDay(21).atStartOfDay()))
+				.extracting(BorrowedBook::bookName).containsExactly("Old\nwith line break");
+		assertThat(bookArchiver.archivedBetween(LocalDateTime.now().minusYears(10), LocalDateTime.now())).hasSize(3);
+
+		assertThat(bookArchiver.archive()).isEmpty(); // nothing old left
+	}
+
+	@Test
+	void fileOfRolledBackArchiveIsNotReadAsArchived() throws IOException {
+		YearMonth twoYearsAgo = YearMonth.now().minusYears(2);
+		LocalDateTime from = twoYearsAgo.atDay(1).atStartOfDay();
+		LocalDateTime to = twoYearsAgo.plusMonths(1).atDay(1).atStartOfDay();
+		Student student = new Student("Rollback", "Reader", "rollback" + System.nanoTime() + "@gmail.com", 40);
+		student.addBook(new Book("Archived twice", twoYearsAgo.atDay(7).atStartOfDay()));
+		studentRepository.save(student);
+
+		// like a crash after the file got its name: the file stays, the rows too
+		Path leftover = DIRECTORY.resolve("book_" + twoYearsAgo + ".1.csv.gz");
+		new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+			try {
+				Files.copy(bookArchiver.archive().get(0).file(), leftover);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			status.setRollbackOnly();
+		});
+		try (Stream<Path> files = Files.list(DIRECTORY)) {
+			assertThat(files).containsExactly(leftover); // rollback deleted its own file
+		}
+		assertThat(bookRepository.countBorrowedBetween(from, to)).isEqualTo(1);
+		assertThat(bookArchiver.archivedBetween(from, to)).isEmpty();
+
+		bookArchiver.archive(); // same row to a new file
+
+		assertThat(bookArchiver.archivedBetween(from, to)).extracting(BorrowedBook::bookName).containsExactly("Archived twice");
+	}
+
+	@Test
+	void booksInsideRetentionWindowStay() {
+		LocalDateTime elevenMonthsAgo = LocalDateTime.now().minusMonths(11);
+		Student student = new Student("Kept", "Reader", "kept" + System.nanoTime() + "@gmail.com", 40);
+		student.addBook(new Book("Borrowed 11 months ago", elevenMonthsAgo));
+		student.addBook(new Book("No date", null)); // @PrePersist: borrowed now
+		studentRepository.save(student);
+
+		assertThat(bookArchiver.archive()).isEmpty();
+
+		assertThat(bookRepository.countBorrowedBetween(elevenMonthsAgo.minusSeconds(1), elevenMonthsAgo.plusSeconds(1))).isEqualTo(1);
+		assertThat(bookRepository.findBorrowedBetween(elevenMonthsAgo.minusSeconds(1), elevenMonthsAgo.plusSeconds(1), PageRequest.ofSize(10)))
+				.extracting(BorrowedBook::bookName).contains("Borrowed 11 months ago");
+		assertThat(bookRepository.findBorrowedByStudentBetween(student.getId(), LocalDateTime.now().minusHours(1), LocalDateTime.now().plusMinutes(1)))
+				.extracting(BorrowedBook::bookName).containsExactly("No date");
+	}
+
+	// Postgres only: an old month with its own partition is written to the file, detached and dropped (no DELETE)
+	@Test
+	void partitionOfOldMonthIsArchivedAndDropped() {
+		assumeTrue(bookPartitions.partitioned(), "book is partitioned on postgres only");
+		YearMonth threeYearsAgo = YearMonth.now().minusYears(3);
+		Student student = new Student("Partition", "Reader", "partition" + System.nanoTime() + "@gmail.com", 40);
+		student.addBook(new Book("In old partition", threeYearsAgo.atDay(5).atStartOfDay()));
+		student.addBook(new Book("Recent", LocalDateTime.now().minusDays(1).withNano(0)));
+		studentRepository.save(student);
+		bookPartitions.create(threeYearsAgo); // moves the old book out of book_default
+		assertThat(bookPartitions.months()).contains(threeYearsAgo);
+
+		List<BookArchiver.ArchivedMonth> archived = bookArchiver.archive();
+
+		assertThat(archived).extracting(BookArchiver.ArchivedMonth::month, BookArchiver.ArchivedMonth::books)
+				.contains(tuple(threeYearsAgo, 1L));
+		assertThat(bookPartitions.months()).doesNotContain(threeYearsAgo);
+		assertThat(bookArchiver.archivedBetween(threeYearsAgo.atDay(1).atStartOfDay(), threeYearsAgo.plusMonths(1).atDay(1).atStartOfDay()))
+				.extracting(BorrowedBook::bookName).containsExactly("In old partition");
+		assertThat(aggregateCounters.booksOf(student.getId())).isEqualTo(1);
+	}
+
+	@Test
+	void relativeOrMissingDirectoryIsRejected() {
+		for (String directory : List.of("", "archive/books")) {
+			assertThatThrownBy(() -> new BookArchiver(dataSource, transactionManager, bookPartitions, aggregateCounters,
+					new SimpleMeterRegistry(), 12, directory, Duration.ofDays(1)))
+					.isInstanceOf(IllegalStateException.class)
+					.hasMessageContaining("book-archive.directory");
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package com.lorenadiam;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+class ConnectionPoolEndpointTests {
+
+	@Autowired
+	private StudentRepository studentRepository;
+
+	@Autowired
+	private ConnectionPoolEndpoint connectionPoolEndpoint;
+
+	@Test
+	void showsPoolStateAcquireLatencyAndStatementCacheHits() {
+		for (int i = 0; i < 3; i++) {
+			studentRepository.findStudentByEmail("nobody-pool@gmail.com"); // same JPQL -> plan cache hit after first call
+		}
+
+		ConnectionPoolEndpoint.PoolSummary summary = connectionPoolEndpoint.pool();
+
+		assertThat(summary.pools()).hasSize(1);
+		ConnectionPoolEndpoint.PoolState pool = summary.pools().get(0);
+		assertThat(pool.pool()).isNotNull();
+		assertThat(pool.active()).isZero(); // no transaction open here
+		assertThat(pool.total()).isEqualTo(pool.idle()).isPositive().isLessThanOrEqualTo(pool.maximumPoolSize());
+		assertThat(pool.pending()).isZero();
+		assertThat(pool.acquires()).isGreaterThanOrEqualTo(3);
+		assertThat(pool.acquireMaxMillis()).isGreaterThanOrEqualTo(0);
+		assertThat(pool.driverSettings()).containsKey("prepareThreshold");
+		assertThat(summary.statementCache().statisticsEnabled()).isTrue();
+		assertThat(summary.statementCache().queryPlanHits()).isPositive();
+		assertThat(summary.statementCache().queryPlanHitRatio()).isBetween(0.0, 1.0);
+	}
+}
@@ -0,0 +1,121 @@
+package com.lorenadiam;
+
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+@TestPropertySource(properties = "spring.datasource.url=jdbc:h2:mem:roster-index;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH")
+class EnrolmentRosterIndexTests {
+
+	@Autowired
+	private StudentRepository studentRepository;
+
+	@Autowired
+	private EnrolmentRosterIndex enrolmentRosterIndex;
+
+	@Autowired
+	private StudentBulkOperations studentBulkOperations;
+
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+
+	@Autowired
+	private EntityManager entityManager;
+
+	private long java;
+	private long sql;
+	private long both;
+	private long onlyJava;
+	private long onlySql;
+
+	// 3 students: one in both courses, one in each. Age > 100 so only these students are removed by the bulk delete test
+	@BeforeEach
+	void setUp() {
+		Course javaCourse = new Course("Roster Java " + System.nanoTime(), "IT");
+		Course sqlCourse = new Course("Roster SQL " + System.nanoTime(), "IT");
+		Student inBoth = student("both", 150, javaCourse, sqlCourse);
+		Student inJava = student("java", 150, javaCourse);
+		Student inSql = student("sql", 120, sqlCourse);
+		studentRepository.saveAll(List.of(inBoth, inJava, inSql));
+		java = javaCourse.getId();
+		sql = sqlCourse.getId();
+		both = inBoth.getId();
+		onlyJava = inJava.getId();
+		onlySql = inSql.getId();
+	}
+
+	@Test
+	void committedEnrolmentsAreInTheIndexAndQueriesSendNoSql() {
+		long[] before = HibernateCallCounters.snapshot();
+		assertThat(enrolmentRosterIndex.studentsIn(java)).containsExactly(both, onlyJava);
+		assertThat(enrolmentRosterIndex.studentsInAll(java, sql)).containsExactly(both);
+		assertThat(enrolmentRosterIndex.studentsInAny(java, sql)).containsExactly(both, onlyJava, onlySql);
+		assertThat(enrolmentRosterIndex.countInAll(java, sql)).isEqualTo(1);
+		assertThat(enrolmentRosterIndex.headcount(sql)).isEqualTo(2);
+		assertThat(enrolmentRosterIndex.isEnrolled(onlySql, java)).isFalse();
+		assertThat(enrolmentRosterIndex.studentsIn(-1)).isEmpty();
+		assertThat(HibernateCallCounters.statements(before, HibernateCallCounters.snapshot())).isZero();
+	}
+
+	@Test
+	void removedEnrolmentLeavesIndexOnlyAfterCommit() {
+		transactionTemplate.executeWithoutResult(status -> {
+			removeEnrolment(both, sql);
+			studentRepository.flush();
+			status.setRollbackOnly();
+		});
+		assertThat(enrolmentRosterIndex.isEnrolled(both, sql)).isTrue();
+
+		transactionTemplate.executeWithoutResult(status -> removeEnrolment(both, sql));
+		assertThat(enrolmentRosterIndex.isEnrolled(both, sql)).isFalse();
+		assertThat(enrolmentRosterIndex.studentsInAll(java, sql)).isEmpty();
+		assertThat(headcountsInTable()).isEqualTo(enrolmentRosterIndex.headcounts());
+	}
+
+	@Test
+	void bulkDeleteAndRebuildMatchTheTable() {
+		studentBulkOperations.deleteStudentsOlderThan(130); // both, onlyJava: no entity events, index is rebuilt after commit
+
+		assertThat(enrolmentRosterIndex.studentsInAny(java, sql)).containsExactly(onlySql);
+		assertThat(headcountsInTable()).isEqualTo(enrolmentRosterIndex.headcounts());
+
+		enrolmentRosterIndex.rebuild();
+		assertThat(headcountsInTable()).isEqualTo(enrolmentRosterIndex.headcounts());
+	}
+
+	private void removeEnrolment(long studentId, long courseId) {
+		Student student = studentRepository.findById(studentId).orElseThrow();
+		student.getEnrolments().stream()
+				.filter(enrolment -> enrolment.getId().getCourseId() == courseId)
+				.toList()
+				.forEach(student::removeEnrolment);
+	}
+
+	// the JPQL the index replaces
+	private Map<Long, Long> headcountsInTable() {
+		return entityManager.createQuery(
+						"SELECT e.id.courseId, COUNT(e) FROM Enrolment e GROUP BY e.id.courseId", Object[].class)
+				.getResultList().stream()
+				.collect(Collectors.toMap(row -> (Long) row[0], row -> (Long) row[1]));
+	}
+
+	private static Student student(String name, int age, Course... courses) {
+		Student student = new Student(name, "Roster", name + System.nanoTime() + "@gmail.com", age);
+		for (Course course : courses) {
+			student.addEnrolment(new Enrolment(student, course, LocalDateTime.now()));
+		}
+		return student;
+	}
+}
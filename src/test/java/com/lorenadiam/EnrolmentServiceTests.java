@@ -0,0 +1,130 @@
+package com.lorenadiam;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+class EnrolmentServiceTests {
+
+	@Autowired
+	private EnrolmentService enrolmentService;
+
+	@Autowired
+	private StudentRepository studentRepository;
+
+	@Autowired
+	private StudentBulkOperations studentBulkOperations;
+
+	@Autowired
+	private AggregateCounters aggregateCounters;
+
+	@Autowired
+	private EnrolmentRosterIndex enrolmentRosterIndex;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	private final List<EnrolmentService.EnrolmentPair> pairs = new ArrayList<>();
+	private long course1Id;
+
+	@BeforeEach
+	void setUp() {
+		Course course1 = new Course("Algorithms", "IT");
+		Course course2 = new Course("Databases", "IT");
+		Student first = new Student("Cohort", "Student", "cohort0@gmail.com", 160); // age > 100, removed by bulk delete in tearDown
+		first.addEnrolment(new Enrolment(first, course1, LocalDateTime.now())); // saves the courses with first student
+		first.addEnrolment(new Enrolment(first, course2, LocalDateTime.now()));
+		studentRepository.save(first);
+
+		List<Student> cohort = new ArrayList<>();
+		for (int i = 1; i < 1500; i++) {
+			cohort.add(new Student("Cohort", "Student", "cohort" + i + "@gmail.com", 160));
+		}
+		studentRepository.saveAll(cohort);
+		course1Id = course1.getId();
+		for (Student student : cohort) {
+			pairs.add(new EnrolmentService.EnrolmentPair(student.getId(), course1.getId()));
+			pairs.add(new EnrolmentService.EnrolmentPair(student.getId(), course2.getId()));
+		}
+		pairs.add(new EnrolmentService.EnrolmentPair(first.getId(), course1.getId())); // already enrolled
+	}
+
+	@AfterEach
+	void tearDown() {
+		studentBulkOperations.deleteStudentsOlderThan(159);
+	}
+
+	@Test
+	void enrolsCohortInChunksWithoutLoadingStudentsOrCourses() {
+		List<EnrolmentService.EnrolmentPair> request = new ArrayList<>(pairs);
+		request.add(pairs.get(0)); // same pair twice in one request
+
+		long[] before = HibernateCallCounters.snapshot();
+		EnrolmentService.EnrolmentResult result = enrolmentService.enrol(request);
+		long[] after = HibernateCallCounters.snapshot();
+
+		assertThat(result.enrolled()).isEqualTo(2 * 1499);
+		assertThat(result.duplicates()).isEqualTo(2);
+		assertThat(HibernateCallCounters.entitiesLoaded(before, after)).isZero(); // only ids, INSERT ... SELECT FROM UNNEST
+		assertThat(jdbcTemplate.queryForObject(
+				"SELECT count(*) FROM enrolment e JOIN student s ON s.id = e.student_id WHERE s.email LIKE 'cohort%'", Long.class))
+				.isEqualTo(2 * 1500);
+		assertThat(aggregateCounters.enrolmentsIn(course1Id)).isEqualTo(1500); // no entity events, service adds the counts
+		assertThat(enrolmentRosterIndex.headcount(course1Id)).isEqualTo(1500);
+	}
+
+	@Test
+	void secondCallIsNoOp() {
+		enrolmentService.enrol(pairs);
+
+		EnrolmentService.EnrolmentResult again = enrolmentService.enrol(pairs);
+
+		assertThat(again.enrolled()).isZero();
+		assertThat(again.duplicates()).isEqualTo(pairs.size());
+	}
+
+	@Test
+	void concurrentCallsWithTheSamePairsEnrolEachOnce() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<EnrolmentService.EnrolmentResult> first = executor.submit(() -> enrolmentService.enrol(pairs));
+			Future<EnrolmentService.EnrolmentResult> second = executor.submit(() -> enrolmentService.enrol(pairs));
+
+			// no unique violation: one of them inserts a pair, the other skips it
+			assertThat(first.get().enrolled() + second.get().enrolled()).isEqualTo(2 * 1499);
+		} finally {
+			executor.shutdown();
+		}
+		assertThat(aggregateCounters.enrolmentsIn(course1Id)).isEqualTo(1500);
+		assertThat(enrolmentRosterIndex.headcount(course1Id)).isEqualTo(1500);
+	}
+
+	@Test
+	void studentPersistedEarlierInTheSameTransactionCanBeEnrolled() {
+		EnrolmentService.EnrolmentResult result = new TransactionTemplate(transactionManager).execute(status -> {
+			Student student = studentRepository.save(new Student("Cohort", "Student", "cohort-new@gmail.com", 160)); // no INSERT yet
+			return enrolmentService.enrol(List.of(new EnrolmentService.EnrolmentPair(student.getId(), course1Id)));
+		});
+
+		assertThat(result.enrolled()).isEqualTo(1);
+		assertThat(aggregateCounters.enrolmentsIn(course1Id)).isEqualTo(2);
+	}
+}
@@ -0,0 +1,121 @@
+package com.lorenadiam;
+
+import jakarta.persistence.EntityManager;
+import org.hibernate.Hibernate;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// equals/hashCode/toString of the entities: id based, no SQL, no recursion, cost doesn't depend on the size of associations
+@DataJpaTest
+class EntityIdentityTests {
+
+	@Autowired
+	private StudentRepository studentRepository;
+
+	@Autowired
+	private EntityManager entityManager;
+
+	private Long studentId;
+
+	@BeforeEach
+	void setUp() {
+		studentId = studentRepository.save(studentWithBooks("identity@gmail.com", 200)).getId();
+		entityManager.flush();
+		entityManager.clear(); // entities below come from the database, with lazy collections
+	}
+
+	@Test
+	void hashingAndLoggingLoadedEntitiesIssuesNoSql() {
+		Student student = entityManager.find(Student.class, studentId);
+		Student proxy = entityManager.getReference(Student.class, studentId + 1000); // doesn't even exist, must not be loaded
+		StudentIdCard card = student.getStudentIdCard();
+
+		long[] before = HibernateCallCounters.snapshot();
+		Set<Object> entities = new HashSet<>(List.of(student, proxy, card));
+		String logged = student + " " + proxy + " " + card;
+		long[] after = HibernateCallCounters.snapshot();
+
+		assertThat(HibernateCallCounters.statements(before, after)).isZero();
+		assertThat(entities).hasSize(3);
+		assertThat(Hibernate.isInitialized(student.getBooks())).isFalse();
+		assertThat(Hibernate.isInitialized(proxy)).isFalse();
+		assertThat(logged).contains("email=identity@gmail.com", "not loaded", "cardNumber=identity");
+	}
+
+	@Test
+	void equalityIsTheDatabaseId() {
+		Student loaded = entityManager.find(Student.class, studentId);
+		entityManager.clear();
+		Student loadedAgain = entityManager.find(Student.class, studentId);
+		Student proxy = entityManager.getReference(Student.class, studentId); // same session -> the loaded instance
+		entityManager.clear();
+		Student otherProxy = entityManager.getReference(Student.class, studentId);
+
+		assertThat(loaded).isNotSameAs(loadedAgain).isEqualTo(loadedAgain).isEqualTo(otherProxy).hasSameHashCodeAs(otherProxy);
+		assertThat(otherProxy).isEqualTo(loaded).isEqualTo(proxy);
+		assertThat(Hibernate.isInitialized(otherProxy)).isFalse();
+
+		Student same = new Student("Maida", "Karic", "same@gmail.com", 30);
+		Student sameFields = new Student("Maida", "Karic", "same@gmail.com", 30);
+		assertThat(same).isNotEqualTo(sameFields); // not saved yet: only equal to itself
+	}
+
+	@Test
+	void hashCodeDoesNotChangeOnSave() {
+		Student student = studentWithBooks("identity-set@gmail.com", 2);
+		Set<Student> students = new HashSet<>(Set.of(student));
+
+		studentRepository.save(student); // id assigned now
+		entityManager.flush();
+
+		assertThat(students).contains(student);
+		assertThat(student.getBooks()).hasSize(2); // addBook() uses equals, both new books were added
+	}
+
+	@Test
+	void toStringAndHashCodeCostDoesNotGrowWithAssociations() {
+		Student small = studentWithBooks("small@gmail.com", 1);
+		Student large = studentWithBooks("large@gmail.com", 10_000); // @Data toString rendered all of them (and overflowed the stack on card)
+
+		long smallBytes = allocatedBytes(small);
+		long largeBytes = allocatedBytes(large);
+
+		assertThat(large.toString()).hasSizeLessThan(200);
+		assertThat(largeBytes).isLessThan(smallBytes * 2 + 100_000); // same order, not 10 000x more
+	}
+
+	// bytes allocated by 1000 toString() + hashCode() calls, measured after warm up
+	private static long allocatedBytes(Student student) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long ignored = 0;
+		for (int i = 0; i < 1000; i++) {
+			ignored += student.toString().length() + student.hashCode() + student.getStudentIdCard().toString().length();
+		}
+		long before = threads.getCurrentThreadAllocatedBytes();
+		for (int i = 0; i < 1000; i++) {
+			ignored += student.toString().length() + student.hashCode() + student.getStudentIdCard().toString().length();
+		}
+		long bytes = threads.getCurrentThreadAllocatedBytes() - before;
+		assertThat(ignored).isNotZero();
+		return bytes;
+	}
+
+	private static Student studentWithBooks(String email, int books) {
+		Student student = new Student("Maida", "Karic", email, 30);
+		student.setStudentIdCard(new StudentIdCard(email.substring(0, email.indexOf('@')), student)); // card points back to student
+		for (int i = 0; i < books; i++) {
+			student.addBook(new Book("Book " + i, LocalDateTime.now()));
+		}
+		return student;
+	}
+}
@@ -0,0 +1,32 @@
+package com.lorenadiam;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+@ActiveProfiles("fast")
+@TestPropertySource(properties = "spring.datasource.url=jdbc:h2:mem:fast-startup;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH")
+class FastStartupTests {
+
+	@Autowired
+	private ConfigurableApplicationContext context;
+
+	@Test
+	void startsWithoutDemoDataAndCreatesOnlyJpaAndMigrationsEagerly() {
+		assertThat(context.containsBean("commandLineRunner")).isFalse();
+		assertThat(context.getBean(StartupReport.class)).isNotNull();
+
+		assertThat(context.getBeanFactory().containsSingleton("entityManagerFactory")).isTrue(); // schema validated on start
+		assertThat(context.getBeanFactory().containsSingleton("flywayInitializer")).isTrue();
+		assertThat(context.getBeanFactory().containsSingleton("studentExporter")).isFalse(); // lazy, created on first use
+
+		assertThat(context.getBean(StudentExporter.class)).isNotNull();
+		assertThat(context.getBeanFactory().containsSingleton("studentExporter")).isTrue();
+	}
+}
@@ -0,0 +1,91 @@
+package com.lorenadiam;
+
+import org.hibernate.stat.Statistics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Records Hibernate statistics of test scenarios and compares them with the committed baseline file (src/test/resources).
+// More statements, entity loads, flushes or collection fetches than in the baseline = regression (new EAGER association,
+// lost batching, N+1...) and the test fails. Fewer = improvement, it is only printed so the baseline can be lowered.
+// After an intended change run: mvn test -Dtest=HibernateStatisticsRegressionTests -Dstatistics.baseline.update=true
+// and commit the changed file together with the change.
+final class HibernateStatisticsBaseline {
+
+	static final String FILE = "hibernate-statistics-baseline.properties";
+
+	private final Statistics statistics;
+	private final Map<String, Long> actual = new TreeMap<>();
+
+	HibernateStatisticsBaseline(Statistics statistics) {
+		this.statistics = statistics;
+	}
+
+	void record(String scenario, Runnable run) {
+		statistics.clear();
+		run.run();
+		actual.put(scenario + ".statements", statistics.getPrepareStatementCount());
+		actual.put(scenario + ".entityLoads", statistics.getEntityLoadCount());
+		actual.put(scenario + ".flushes", statistics.getFlushCount());
+		actual.put(scenario + ".collectionFetches", statistics.getCollectionFetchCount());
+	}
+
+	void verify() {
+		if (Boolean.getBoolean("statistics.baseline.update")) {
+			write();
+			return;
+		}
+		Properties baseline = read();
+		List<String> regressions = new ArrayList<>();
+		actual.forEach((key, value) -> {
+			String expected = baseline.getProperty(key);
+			if (expected == null) {
+				regressions.add(key + "=" + value + " has no baseline (run with -Dstatistics.baseline.update=true)");
+			} else if (value > Long.parseLong(expected)) {
+				regressions.add(key + ": " + value + " (baseline " + expected + ")");
+			} else if (value < Long.parseLong(expected)) {
+				System.out.println("Improvement, baseline can be lowered: " + key + ": " + value + " (baseline " + expected + ")");
+			}
+		});
+		assertThat(regressions).as("Hibernate statistics above " + FILE).isEmpty();
+	}
+
+	private Properties read() {
+		Properties baseline = new Properties();
+		try (InputStream in = HibernateStatisticsBaseline.class.getResourceAsStream("/" + FILE)) {
+			if (in != null) {
+				baseline.load(in);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return baseline;
+	}
+
+	// sorted, one line per scenario metric, so diffs in review show exactly what changed
+	private void write() {
+		String lines = actual.entrySet().stream()
+				.map(entry -> entry.getKey() + "=" + entry.getValue())
+				.collect(Collectors.joining("\n",
+						"# Hibernate statistics per scenario of HibernateStatisticsRegressionTests, build fails when a value goes up.\n" +
+								"# Regenerate: mvn test -Dtest=HibernateStatisticsRegressionTests -Dstatistics.baseline.update=true\n",
+						"\n"));
+		try {
+			Files.writeString(Path.of("src/test/resources", FILE), lines);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		System.out.println("Written " + FILE + " with " + actual.size() + " values");
+	}
+}
@@ -0,0 +1,159 @@
+package com.lorenadiam;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Statement / entity load / flush / collection fetch counts of the main data access flows, compared with
+// src/test/resources/hibernate-statistics-baseline.properties (see HibernateStatisticsBaseline).
+// Own database, so data left by other test classes can't change the counts.
+@SpringBootTest
+@TestPropertySource(properties = "spring.datasource.url=jdbc:h2:mem:statistics;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH")
+class HibernateStatisticsRegressionTests {
+
+	@Autowired
+	@Qualifier("commandLineRunner")
+	private CommandLineRunner commandLineRunner;
+
+	@Autowired
+	private StudentRepository studentRepository;
+
+	@Autowired
+	private StudentKeysetPagination studentKeysetPagination;
+
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	void hibernateStatisticsDoNotGoAboveBaseline() {
+		List<Long> ids = seed();
+		Long id = ids.get(0);
+		HibernateStatisticsBaseline baseline = new HibernateStatisticsBaseline(
+				entityManagerFactory.unwrap(SessionFactory.class).getStatistics());
+
+		// same order every time, earlier scenarios add students (runner, saves)
+		deleteStudentOfRunner(); // it already ran at startup, its card number is fixed
+		baseline.record("commandLineRunner", () -> {
+			try {
+				commandLineRunner.run();
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		baseline.record("saveStudentGraph", () -> studentRepository.save(student(1000)));
+		baseline.record("saveAll20Students", () -> {
+			List<Student> students = new ArrayList<>();
+			for (int i = 0; i < 20; i++) {
+				students.add(student(2000 + i));
+			}
+			studentRepository.saveAll(students);
+		});
+
+		baseline.record("pagingFindAll", () -> studentRepository.findAll(PageRequest.of(0, 5, Sort.by("firstName"))));
+		baseline.record("pagingWithCardPlan", () -> studentRepository.findAllWithCardBy(PageRequest.of(0, 5, Sort.by("id"))));
+		baseline.record("pagingSummaries", () -> studentRepository.findAllSummaries(PageRequest.of(0, 5, Sort.by("id"))));
+		baseline.record("keysetScrollTwoWindows", () -> {
+			StudentWindow first = studentKeysetPagination.scroll(StudentKeysetPagination.SortKey.FIRST_NAME, null, 5);
+			studentKeysetPagination.scroll(StudentKeysetPagination.SortKey.FIRST_NAME, first.next(), 5);
+		});
+		baseline.record("sortingFirstNameAgeAll", () ->
+				studentRepository.findAll(Sort.by("firstName").ascending().and(Sort.by("age").descending())));
+
+		baseline.record("jpqlFirstNameAndAge", () -> studentRepository.findStudentsByFirstNameEqualsAndAgeGreaterThan("Student", 20));
+		baseline.record("nativeFirstNameAndAge", () -> studentRepository.findStudentsByFirstNameEqualsAndAgeGreaterThanNative("Student", 20));
+		baseline.record("jpqlByEmail", () -> studentRepository.findStudentByEmail("statistics0@gmail.com"));
+		baseline.record("findByIdThenLazyBooks", () -> transactionTemplate.executeWithoutResult(status ->
+				studentRepository.findById(id).orElseThrow().getBooks().forEach(Book::getBookName)));
+		baseline.record("findWithBooksPlan", () -> transactionTemplate.executeWithoutResult(status ->
+				studentRepository.findWithBooksById(id).orElseThrow().getBooks().forEach(Book::getBookName)));
+		baseline.record("hashAndLogStudentPage", () -> transactionTemplate.executeWithoutResult(status -> { // entity equals/toString, no lazy loads
+			Set<Student> students = new HashSet<>(studentRepository.findAllWithCardBy(PageRequest.of(0, 10, Sort.by("id"))).getContent());
+			students.forEach(student -> String.valueOf(student).concat(String.valueOf(student.getStudentIdCard())));
+		}));
+		// Lombok @Data on both sides of Student <-> Book / Enrolment: hashing or logging one side walked the other one's lazy
+		// collection (1 SELECT per student = N+1) and back again. Both directions here, no collection may be fetched
+		baseline.record("hashAndLogBooksWithStudents", () -> transactionTemplate.executeWithoutResult(status -> {
+			Set<Book> books = new HashSet<>();
+			Set<Student> students = new HashSet<>();
+			for (Student student : studentRepository.findAllWithBooksByIdIn(ids.subList(0, 10))) {
+				books.addAll(student.getBooks()); // student's enrolments stay lazy
+				students.add(student);
+			}
+			books.forEach(book -> String.valueOf(book).concat(String.valueOf(book.getStudent())));
+			students.forEach(String::valueOf);
+		}));
+		baseline.record("hashAndLogEnrolmentsWithStudentsAndCourses", () -> transactionTemplate.executeWithoutResult(status -> {
+			Set<Enrolment> enrolments = new HashSet<>();
+			Set<Course> courses = new HashSet<>();
+			for (Student student : studentRepository.findAllWithEnrolmentsAndCoursesByIdIn(ids.subList(0, 10))) {
+				enrolments.addAll(student.getEnrolments()); // student's books and each course's enrolments stay lazy
+				student.getEnrolments().forEach(enrolment -> courses.add(enrolment.getCourse()));
+			}
+			enrolments.forEach(enrolment -> String.valueOf(enrolment).concat(String.valueOf(enrolment.getStudent())));
+			courses.forEach(String::valueOf);
+		}));
+		baseline.record("booksAndEnrolmentsOf10", () -> transactionTemplate.executeWithoutResult(status -> {
+			studentRepository.findAllWithBooksByIdIn(ids.subList(0, 10));
+			studentRepository.findAllWithEnrolmentsAndCoursesByIdIn(ids.subList(0, 10))
+					.forEach(student -> student.getEnrolments().forEach(enrolment -> enrolment.getCourse().getName()));
+		}));
+		baseline.record("updateLoadedStudent", () -> transactionTemplate.executeWithoutResult(status ->
+				studentRepository.findById(id).orElseThrow().setAge(40)));
+
+		baseline.verify();
+	}
+
+	private void deleteStudentOfRunner() {
+		String runnerStudent = "(SELECT student_id FROM student_id_card WHERE card_number = '123456789')";
+		jdbcTemplate.update("DELETE FROM enrolment WHERE student_id = " + runnerStudent);
+		jdbcTemplate.update("DELETE FROM book WHERE student_id = " + runnerStudent);
+		Long studentId = jdbcTemplate.queryForObject(runnerStudent, Long.class);
+		jdbcTemplate.update("DELETE FROM student_id_card WHERE student_id = ?", studentId);
+		jdbcTemplate.update("DELETE FROM student WHERE id = ?", studentId);
+	}
+
+	// 30 students with card, 2 books and 2 enrolments, saved in one call
+	private List<Long> seed() {
+		Course algorithms = new Course("Algorithms", "IT");
+		Course databases = new Course("Databases", "IT");
+		List<Student> students = new ArrayList<>();
+		for (int i = 0; i < 30; i++) {
+			Student student = student(i);
+			student.addEnrolment(new Enrolment(student, algorithms, LocalDateTime.now()));
+			student.addEnrolment(new Enrolment(student, databases, LocalDateTime.now()));
+			students.add(student);
+		}
+		List<Long> ids = new ArrayList<>();
+		studentRepository.saveAll(students).forEach(student -> ids.add(student.getId()));
+		return ids;
+	}
+
+	private static Student student(int i) {
+		Student student = new Student("Student", "Statistics" + i, "statistics" + i + "@gmail.com", 20 + i % 10);
+		student.setStudentIdCard(new StudentIdCard("statistics" + i, student));
+		student.addBook(new Book("Clean code", LocalDateTime.now()));
+		student.addBook(new Book("Spring Data JPA", LocalDateTime.now()));
+		return student;
+	}
+}
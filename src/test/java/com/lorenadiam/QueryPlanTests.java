@@ -0,0 +1,326 @@
+package com.lorenadiam;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.postgresql.PGConnection;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// Runs every repository query against a seeded database, then runs EXPLAIN for each SQL statement it sent (with the same
+// parameters) and fails when the plan reads a whole table that has more than FULL_SCAN_ROW_LIMIT rows = a missing index.
+// Default database is H2 in PostgreSQL mode. Against a real local postgres (same migrations incl. db/vendor/postgresql):
+// mvn test -Dtest=QueryPlanTests -Dquery-plans.url=jdbc:postgresql://localhost:5432/plans -Dquery-plans.username=... -Dquery-plans.password=...
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE) // migrations run on the database from properties
+@TestPropertySource(properties = {
+		"spring.datasource.url=${query-plans.url:jdbc:h2:mem:query-plans;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH}",
+		"spring.datasource.username=${query-plans.username:sa}",
+		"spring.datasource.password=${query-plans.password:}"}) // own database, not the one shared by other test classes
+@Transactional(propagation = Propagation.NOT_SUPPORTED) // seeded data has to be committed, ANALYZE and EXPLAIN run on other connections
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@Import({StudentSearchIndex.class, SimpleMeterRegistry.class, BookPartitions.class}) // for studentRepository.search() and partition checks
+class QueryPlanTests {
+
+	private static final int STUDENTS = 5_000;
+	private static final long FULL_SCAN_ROW_LIMIT = 1_000;
+
+	// H2: FROM "public"."student" /* public.student.tableScan */   postgres: Seq Scan on student s1_0
+	private static final Pattern FULL_SCAN = Pattern.compile(
+			"(?:/\\*\\s*\"?\\w+\"?\\.\"?(\\w+)\"?\\.tableScan)|(?:Seq Scan on \"?(\\w+)\"?)", Pattern.CASE_INSENSITIVE);
+
+	@Autowired
+	private StudentRepository studentRepository;
+
+	@Autowired
+	private StudentIdCardRepository studentIdCardRepository;
+
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private StudentSearchIndex studentSearchIndex;
+
+	@Autowired
+	private BookRepository bookRepository;
+
+	@Autowired
+	private BookPartitions bookPartitions;
+
+	private final List<String> problems = new ArrayList<>();
+
+	@BeforeAll
+	void seed() {
+		List<Course> courses = List.of(new Course("Computer Science", "IT"), new Course("Spring Data JPA", "IT"), new Course("Economics", "Business"));
+		List<Student> students = new ArrayList<>();
+		for (int i = 0; i < STUDENTS; i++) {
+			Student student = new Student("Name" + i % 500, "Test", "plan" + i + "@gmail.com", 18 + i % 60);
+			student.setStudentIdCard(new StudentIdCard("plan" + i, student));
+			student.addBook(new Book("Clean code", LocalDateTime.now()));
+			student.addBook(new Book("Spring Data JPA", LocalDateTime.now()));
+			student.addEnrolment(new Enrolment(student, courses.get(i % 3), LocalDateTime.now()));
+			student.addEnrolment(new Enrolment(student, courses.get((i + 1) % 3), LocalDateTime.now()));
+			students.add(student);
+		}
+		studentRepository.saveAll(students); // one transaction, courses are shared
+		jdbcTemplate.execute("ANALYZE"); // planner needs row counts and value distribution, like a real database has
+		studentSearchIndex.rebuild(); // no ApplicationReadyEvent in a test slice
+	}
+
+	@Test
+	void repositoryQueriesDoNotScanBigTables() {
+		Long id = studentRepository.findStudentByEmail("plan42@gmail.com").orElseThrow().getId();
+		List<Long> ids = List.of(id, id + 1, id + 2);
+		PageRequest page = PageRequest.of(0, 20, Sort.by("id"));
+
+		check("findStudentByEmail", () -> studentRepository.findStudentByEmail("plan7@gmail.com"));
+		check("findStudentsByFirstNameEqualsAndAgeGreaterThan", () -> studentRepository.findStudentsByFirstNameEqualsAndAgeGreaterThan("Name7", 30));
+		check("findStudentsByFirstNameEqualsAndAgeGreaterThanNative", () -> studentRepository.findStudentsByFirstNameEqualsAndAgeGreaterThanNative("Name7", 30));
+		check("testDifferentParamLogic", () -> studentRepository.testDifferentParamLogic("Name7", 30));
+		check("findById", () -> studentRepository.findById(id));
+		check("findWithCardById", () -> studentRepository.findWithCardById(id));
+		check("findWithBooksById", () -> studentRepository.findWithBooksById(id));
+		check("findAllWithBooksByIdIn", () -> studentRepository.findAllWithBooksByIdIn(ids));
+		check("findAllWithEnrolmentsAndCoursesByIdIn", () -> studentRepository.findAllWithEnrolmentsAndCoursesByIdIn(ids));
+		check("findFirstOrderByFirstName", () -> studentRepository.findFirstOrderByFirstName(PageRequest.ofSize(20)));
+		check("findNextOrderByFirstName", () -> studentRepository.findNextOrderByFirstName("Name42", id, PageRequest.ofSize(20)));
+		check("findFirstOrderByAge", () -> studentRepository.findFirstOrderByAge(PageRequest.ofSize(20)));
+		check("findNextOrderByAge", () -> studentRepository.findNextOrderByAge(40, id, PageRequest.ofSize(20)));
+		check("findAllSummaries", () -> studentRepository.findAllSummaries(page));
+		check("findSummaryById", () -> studentRepository.findSummaryById(id));
+		check("findViewsByFirstNameAndAgeGreaterThanEqual", () -> studentRepository.findViewsByFirstNameAndAgeGreaterThanEqual("Name7", 30));
+		check("findAllViewsBy", () -> studentRepository.findAllViewsBy(page));
+		check("findBooksOfStudents", () -> studentRepository.findBooksOfStudents(ids));
+		check("findEnrolmentsWithCourseOfStudents", () -> studentRepository.findEnrolmentsWithCourseOfStudents(ids));
+		check("findByCardNumber", () -> studentIdCardRepository.findByCardNumber("plan7"));
+		check("findIdByEmail", () -> studentRepository.findIdByEmail("plan7@gmail.com"));
+		check("findIdByCardNumber", () -> studentRepository.findIdByCardNumber("plan7"));
+		check("search", () -> studentRepository.search("name7 tes", 20));
+		check("search (email)", () -> studentRepository.search("plan7@gmail.com", 20));
+		LocalDateTime today = LocalDate.now().atStartOfDay();
+		check("findBorrowedBetween", () -> bookRepository.findBorrowedBetween(today.minusDays(1), today, PageRequest.ofSize(20)));
+		check("findBorrowedByStudentBetween", () -> bookRepository.findBorrowedByStudentBetween(id, today.minusMonths(1), today.plusDays(1)));
+		check("countBorrowedBetween", () -> bookRepository.countBorrowedBetween(today.minusDays(1), today));
+		// modifying queries: parameters match no rows, data stays the same for the other checks
+		check("updateStudentById", () -> studentRepository.updateStudentById("Nobody", -1L));
+		check("deleteStudentById", () -> studentRepository.deleteStudentById(-1L));
+		check("renameStudents", () -> transactionTemplate.execute(status -> studentRepository.renameStudents("Nobody", "Somebody", 20, 30)));
+		check("deleteEnrolmentsOfStudentsOlderThan", () -> transactionTemplate.execute(status -> studentRepository.deleteEnrolmentsOfStudentsOlderThan(1000)));
+		check("deleteBooksOfStudentsOlderThan", () -> transactionTemplate.execute(status -> studentRepository.deleteBooksOfStudentsOlderThan(1000)));
+		check("deleteIdCardsOfStudentsOlderThan", () -> transactionTemplate.execute(status -> studentRepository.deleteIdCardsOfStudentsOlderThan(1000)));
+		check("deleteStudentsOlderThan", () -> transactionTemplate.execute(status -> studentRepository.deleteStudentsOlderThan(1000)));
+		// NOT checked, they read whole tables on purpose: findAll(Sort), findAllWithCardBy (count(*) of the page), streamAllWithCard (export),
+		// findLookupKeys (cache warm up)
+
+		assertThat(problems).isEmpty();
+	}
+
+	// Seek, not filter: on postgres the page after a key starts inside the key's index, the row comparison is the Index Cond
+	// ("a > ?1 OR (a = ?1 AND id > ?2)" is only a Filter over the index from its first entry). H2 has no seek for row values,
+	// there it must at least read the index in order (no sort of the whole table before the limit)
+	@Test
+	void keysetPagesSeekIntoTheirIndex() {
+		Long id = studentRepository.findStudentByEmail("plan42@gmail.com").orElseThrow().getId();
+		String byFirstName = explainAll(() -> studentRepository.findNextOrderByFirstName("Name42", id, PageRequest.ofSize(20))).get(0);
+		String byAge = explainAll(() -> studentRepository.findNextOrderByAge(40, id, PageRequest.ofSize(20))).get(0);
+
+		if (jdbcTemplate.execute((ConnectionCallback<Boolean>) connection -> connection.isWrapperFor(PGConnection.class))) {
+			assertThat(byFirstName).contains("Index Scan using student_first_name_id_idx").contains("Index Cond: (ROW(first_name, id) > ROW(");
+			assertThat(byAge).contains("Index Scan using student_age_id_idx").contains("Index Cond: (ROW(age, id) > ROW(");
+		} else {
+			assertThat(byFirstName).contains("student_first_name_id_idx").contains("index sorted");
+			assertThat(byAge).contains("student_age_id_idx").contains("index sorted");
+		}
+	}
+
+	// Postgres only (V6): a created_at range of one month reads only that month's partition, not the others and not book_default.
+	// mvn test -Dtest=QueryPlanTests -Dquery-plans.url=jdbc:postgresql://... (skipped on H2, book is not partitioned there)
+	@Test
+	void bookDateRangeReadsOnlyPartitionsOfItsMonths() {
+		assumeTrue(bookPartitions.partitioned(), "book is partitioned on postgres only");
+		YearMonth nextMonth = YearMonth.now().plusMonths(1); // created by V6 / createAhead(), like this month and the one after
+		Student student = new Student("Partitioned", "Reader", "partitioned@gmail.com", 30);
+		student.addBook(new Book("This month", LocalDateTime.now()));
+		student.addBook(new Book("Next month", nextMonth.atDay(2).atStartOfDay()));
+		student.addBook(new Book("Month after", nextMonth.plusMonths(1).atDay(2).atStartOfDay()));
+		studentRepository.save(student);
+		jdbcTemplate.execute("ANALYZE book");
+
+		LocalDateTime from = nextMonth.atDay(1).atStartOfDay();
+		LocalDateTime to = nextMonth.plusMonths(1).atDay(1).atStartOfDay();
+		List<String> plans = new ArrayList<>(explainAll(() -> bookRepository.findBorrowedBetween(from, to, PageRequest.ofSize(20))));
+		plans.addAll(explainAll(() -> bookRepository.countBorrowedBetween(from, to)));
+		plans.addAll(explainAll(() -> bookRepository.findBorrowedByStudentBetween(student.getId(), from, to)));
+
+		for (String plan : plans) {
+			Matcher partitions = Pattern.compile("book_(p\\d{4}_\\d{2}|default)").matcher(plan);
+			Set<String> read = new LinkedHashSet<>();
+			while (partitions.find()) {
+				read.add(partitions.group());
+			}
+			assertThat(read).as(plan).containsExactly(BookPartitions.name(nextMonth));
+		}
+	}
+
+	// runs the call, then EXPLAINs every statement it sent
+	private void check(String query, Runnable call) {
+		List<RecordedStatement> statements = record(call);
+		assertThat(statements).as(query + " sent no SQL").isNotEmpty();
+		for (RecordedStatement statement : statements) {
+			String plan = explain(statement);
+			Matcher fullScan = FULL_SCAN.matcher(plan);
+			while (fullScan.find()) {
+				String table = fullScan.group(1) != null ? fullScan.group(1) : fullScan.group(2);
+				Long rows = jdbcTemplate.queryForObject("SELECT count(*) FROM " + table, Long.class);
+				if (rows != null && rows > FULL_SCAN_ROW_LIMIT) {
+					problems.add(query + ": full scan of " + table + " (" + rows + " rows)\n  SQL: " + statement.sql() + "\n  plan: " + plan);
+				}
+			}
+		}
+	}
+
+	private List<String> explainAll(Runnable call) {
+		return record(call).stream().map(this::explain).toList();
+	}
+
+	private List<RecordedStatement> record(Runnable call) {
+		RecordingDataSource.statements.clear();
+		RecordingDataSource.recording = true;
+		try {
+			call.run();
+		} finally {
+			RecordingDataSource.recording = false;
+		}
+		return List.copyOf(RecordingDataSource.statements);
+	}
+
+	private String explain(RecordedStatement statement) {
+		try (Connection connection = RecordingDataSource.target().getConnection();
+			 PreparedStatement explain = connection.prepareStatement("EXPLAIN " + statement.sql())) {
+			for (ParameterCall parameter : statement.parameters()) {
+				parameter.method().invoke(explain, parameter.args()); // same setString/setLong/... as Hibernate did
+			}
+			StringBuilder plan = new StringBuilder();
+			try (ResultSet rows = explain.executeQuery()) {
+				while (rows.next()) {
+					plan.append(rows.getString(1)).append('\n');
+				}
+			}
+			return plan.toString();
+		} catch (SQLException | ReflectiveOperationException e) {
+			throw new IllegalStateException("Could not EXPLAIN " + statement.sql(), e);
+		}
+	}
+
+	record ParameterCall(Method method, Object[] args) {
+	}
+
+	record RecordedStatement(String sql, List<ParameterCall> parameters) {
+	}
+
+	// Wraps the application DataSource: while recording, every executed SELECT/UPDATE/DELETE is kept with its parameter calls
+	static class RecordingDataSource {
+
+		static volatile boolean recording;
+		static final List<RecordedStatement> statements = new CopyOnWriteArrayList<>();
+		private static DataSource target; // EXPLAIN goes here directly, so it is not recorded itself
+		private static final Set<String> SKIPPED = new LinkedHashSet<>(List.of("insert", "call", "select next")); // inserts and sequences
+
+		static DataSource wrap(DataSource dataSource) {
+			target = dataSource;
+			return proxy(DataSource.class, dataSource, (method, args, result) ->
+					method.getName().equals("getConnection") ? wrapConnection((Connection) result) : result);
+		}
+
+		static DataSource target() {
+			return target;
+		}
+
+		private static Connection wrapConnection(Connection connection) {
+			return proxy(Connection.class, connection, (method, args, result) ->
+					method.getName().equals("prepareStatement") ? wrapStatement((PreparedStatement) result, (String) args[0]) : result);
+		}
+
+		private static PreparedStatement wrapStatement(PreparedStatement statement, String sql) {
+			List<ParameterCall> parameters = new ArrayList<>();
+			return proxy(PreparedStatement.class, statement, (method, args, result) -> {
+				if (method.getName().startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+					parameters.add(new ParameterCall(method, args.clone()));
+				} else if (method.getName().startsWith("execute") && recording
+						&& SKIPPED.stream().noneMatch(prefix -> sql.toLowerCase().startsWith(prefix))) {
+					statements.add(new RecordedStatement(sql, List.copyOf(parameters)));
+				}
+				return result;
+			});
+		}
+
+		interface AfterCall {
+			Object apply(Method method, Object[] args, Object result) throws SQLException;
+		}
+
+		@SuppressWarnings("unchecked")
+		private static <T> T proxy(Class<T> type, T target, AfterCall afterCall) {
+			return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+				Object result;
+				try {
+					result = method.invoke(target, args);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+				return afterCall.apply(method, args, result);
+			});
+		}
+	}
+
+	@TestConfiguration
+	static class RecordingDataSourceConfiguration {
+		@Bean
+		static BeanPostProcessor recordingDataSourcePostProcessor() {
+			return new BeanPostProcessor() {
+				@Override
+				public Object postProcessAfterInitialization(Object bean, String beanName) {
+					return bean instanceof DataSource dataSource ? RecordingDataSource.wrap(dataSource) : bean;
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package com.lorenadiam;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+
+import javax.sql.DataSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Two embedded databases stand in for primary and replica. Nothing is replicated between them,
+// so a row that exists only in one of them shows where a query went.
+@SpringBootTest
+@TestPropertySource(properties = {
+		"spring.datasource.url=jdbc:h2:mem:routing-primary;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH",
+		"datasource.replica.url=jdbc:h2:mem:routing-replica;DB_CLOSE_DELAY=-1;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH",
+		"datasource.replica.username=sa",
+		"datasource.replica.migrate=true",
+		"datasource.replica.lag-query=SELECT seconds FROM replication_lag",
+		"datasource.replica.max-lag=5s",
+		"datasource.replica.lag-check-interval=1h"}) // tests call refresh() themselves
+class ReadWriteRoutingTests {
+
+	private static final String REPLICA_ONLY = "routing-replica-only@gmail.com";
+
+	@Autowired
+	private StudentRepository studentRepository;
+
+	@Autowired
+	private StudentReadService studentReadService;
+
+	@Autowired
+	private ReplicaLagMonitor replicaLagMonitor;
+
+	@Autowired
+	private ConnectionPoolEndpoint connectionPoolEndpoint;
+
+	@Autowired
+	@Qualifier("primaryDataSource")
+	private DataSource primaryDataSource;
+
+	@Autowired
+	@Qualifier("replicaDataSource")
+	private DataSource replicaDataSource;
+
+	private JdbcTemplate primary;
+	private JdbcTemplate replica;
+
+	@BeforeEach
+	void setUp() {
+		primary = new JdbcTemplate(primaryDataSource);
+		replica = new JdbcTemplate(writable(replicaDataSource));
+		replica.execute("CREATE TABLE IF NOT EXISTS replication_lag (seconds DOUBLE PRECISION)");
+		replica.update("DELETE FROM replication_lag");
+		replica.update("INSERT INTO replication_lag VALUES (0)");
+		replica.update("DELETE FROM student WHERE email = ?", REPLICA_ONLY);
+		replica.update("INSERT INTO student (id, first_name, last_name, email, age) VALUES (1000000, 'Routing', 'Replica', ?, 30)",
+				REPLICA_ONLY);
+		replicaLagMonitor.refresh();
+	}
+
+	@Test
+	void readOnlyCallsGoToReplica() {
+		assertThat(replicaLagMonitor.replicaUsable()).isTrue();
+
+		assertThat(studentRepository.findStudentByEmail(REPLICA_ONLY)).isPresent(); // Spring Data read method
+		assertThat(studentReadService.search("Routing", 18)).hasSize(1); // @Transactional(readOnly = true) service
+		assertThat(primary.queryForObject("SELECT count(*) FROM student WHERE email = ?", Long.class, REPLICA_ONLY)).isZero();
+	}
+
+	@Test
+	void writesAndModifyingQueriesGoToPrimary() {
+		Student student = studentRepository.save(new Student("Routing", "Primary", "routing-primary@gmail.com", 30));
+		int updated = studentRepository.updateStudentById("Updated", student.getId()); // @Modifying, read-write transaction
+
+		assertThat(updated).isEqualTo(1);
+		assertThat(primary.queryForObject("SELECT first_name FROM student WHERE id = ?", String.class, student.getId()))
+				.isEqualTo("Updated");
+		assertThat(replica.queryForObject("SELECT count(*) FROM student WHERE id = ?", Long.class, student.getId())).isZero();
+		studentRepository.deleteById(student.getId());
+	}
+
+	@Test
+	void laggingOrUnreachableReplicaFallsBackToPrimary() {
+		replica.update("UPDATE replication_lag SET seconds = 30");
+		replicaLagMonitor.refresh();
+
+		assertThat(replicaLagMonitor.replicaUsable()).isFalse();
+		assertThat(studentRepository.findStudentByEmail(REPLICA_ONLY)).isEmpty(); // read on primary
+
+		replica.execute("DROP TABLE replication_lag"); // lag query fails like an unreachable replica
+		replicaLagMonitor.refresh();
+
+		assertThat(replicaLagMonitor.replicaUsable()).isFalse();
+		assertThat(replicaLagMonitor.lagSeconds()).isNaN();
+		assertThat(studentRepository.findStudentByEmail(REPLICA_ONLY)).isEmpty();
+	}
+
+	@Test
+	void poolEndpointShowsPrimaryAndReplicaPools() {
+		studentRepository.findStudentByEmail(REPLICA_ONLY); // replica
+		studentRepository.updateStudentById("Nobody", -1L); // primary
+
+		assertThat(connectionPoolEndpoint.pool().pools()).extracting(ConnectionPoolEndpoint.PoolState::pool)
+				.containsExactlyInAnyOrder("primary", "replica");
+		assertThat(connectionPoolEndpoint.pool().pools()).allSatisfy(pool -> {
+			assertThat(pool.total()).isPositive();
+			assertThat(pool.acquires()).isPositive();
+		});
+	}
+
+	// replica pool is read-only, the test writes "replicated" rows with a plain connection
+	private static DataSource writable(DataSource replicaDataSource) {
+		com.zaxxer.hikari.HikariDataSource hikari = (com.zaxxer.hikari.HikariDataSource) replicaDataSource;
+		return new org.springframework.jdbc.datasource.DriverManagerDataSource(hikari.getJdbcUrl(), hikari.getUsername(), hikari.getPassword());
+	}
+}
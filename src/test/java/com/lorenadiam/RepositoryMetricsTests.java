@@ -0,0 +1,36 @@
+package com.lorenadiam;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+class RepositoryMetricsTests {
+
+	@Autowired
+	private StudentRepository studentRepository;
+
+	@Autowired
+	private RepositoryMetricsEndpoint repositoryMetricsEndpoint;
+
+	@Test
+	void repositoryCallsAreMeasuredPerMethod() {
+		Student student = studentRepository.save(new Student("Nerol", "Karic", "nerol-metrics@gmail.com", 30));
+		studentRepository.findStudentsByFirstNameEqualsAndAgeGreaterThan("Nerol", 18);
+
+		Map<String, RepositoryMetricsEndpoint.MethodSummary> summaries = repositoryMetricsEndpoint.repositories();
+
+		assertThat(summaries).containsKeys("StudentRepository.save");
+		RepositoryMetricsEndpoint.MethodSummary query = summaries.get("StudentRepository.findStudentsByFirstNameEqualsAndAgeGreaterThan");
+		assertThat(query.calls()).isEqualTo(1);
+		assertThat(query.statementsPerCall()).isGreaterThanOrEqualTo(1); // student SELECT (+ id card SELECT)
+		assertThat(query.rowsPerCall()).isEqualTo(1);
+		assertThat(query.entitiesLoadedPerCall()).isGreaterThanOrEqualTo(1);
+
+		studentRepository.deleteById(student.getId());
+	}
+}
@@ -0,0 +1,72 @@
+package com.lorenadiam;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Every repository call runs in its own transaction here (NOT_SUPPORTED), like in the app, so the cache really is shared between them
+@DataJpaTest
+@ActiveProfiles("cache")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class SecondLevelCacheTests {
+
+	@Autowired
+	private StudentRepository studentRepository;
+
+	@Autowired
+	private StudentIdCardRepository studentIdCardRepository;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	private Statistics statistics;
+
+	private Student student;
+
+	@BeforeEach
+	void setUp() {
+		student = new Student("Maida", "Karic", "maida-cache@gmail.com", 32);
+		student.setStudentIdCard(new StudentIdCard("987654321", student));
+		student = studentRepository.save(student);
+
+		statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		statistics.clear();
+	}
+
+	@AfterEach
+	void tearDown() {
+		studentRepository.deleteById(student.getId());
+	}
+
+	@Test
+	void idCardIsReadFromCacheSecondTime() {
+		Long cardId = student.getStudentIdCard().getId();
+		studentIdCardRepository.findById(cardId);
+		studentIdCardRepository.findById(cardId);
+
+		assertThat(statistics.getDomainDataRegionStatistics("student-id-card").getHitCount()).isPositive();
+	}
+
+	@Test
+	void emailQueryIsCachedUntilStudentIsUpdated() {
+		studentRepository.findStudentByEmail("maida-cache@gmail.com");
+		studentRepository.findStudentByEmail("maida-cache@gmail.com");
+		assertThat(statistics.getQueryCacheHitCount()).isEqualTo(1);
+
+		studentRepository.updateStudentById("Maja", student.getId()); // @Modifying JPQL has to invalidate the cached result
+
+		assertThat(studentRepository.findStudentByEmail("maida-cache@gmail.com"))
+				.hasValueSatisfying(found -> assertThat(found.getFirstName()).isEqualTo("Maja"));
+		assertThat(statistics.getQueryCacheHitCount()).isEqualTo(1);
+	}
+}
@@ -0,0 +1,123 @@
+package com.lorenadiam;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@TestPropertySource(properties = {
+		"spring.datasource.url=jdbc:h2:mem:seed-data;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH",
+		"seed.partition-size=1000",
+		"seed.parallelism=3"})
+@Import(SeedDataGenerator.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED) // generator commits on its own connections
+class SeedDataGeneratorTests {
+
+	@Autowired
+	private SeedDataGenerator seedDataGenerator;
+
+	@Autowired
+	private StudentRepository studentRepository;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@BeforeEach
+	void setUp() {
+		deleteAll();
+	}
+
+	@Test
+	void generatesAllTablesInPartitions() {
+		SeedDataGenerator.Result result = seedDataGenerator.generate(2_500, 42); // 3 partitions, last one is not full
+
+		assertThat(count("student")).isEqualTo(2_500);
+		assertThat(count("student_id_card")).isEqualTo(2_500);
+		assertThat(count("course")).isEqualTo(SeedDataGenerator.COURSES);
+		assertThat(count("book")).isEqualTo(result.books());
+		assertThat(count("enrolment")).isEqualTo(result.enrolments()).isGreaterThanOrEqualTo(2_500);
+	}
+
+	@Test
+	void sameSeedGivesSameDataset() {
+		seedDataGenerator.generate(2_500, 42);
+		List<String> first = dataset();
+
+		deleteAll();
+		seedDataGenerator.generate(2_500, 42); // ids are different now (sequences moved), everything else must be the same
+		assertThat(dataset()).isEqualTo(first);
+
+		deleteAll();
+		seedDataGenerator.generate(2_500, 7);
+		assertThat(dataset()).isNotEqualTo(first);
+	}
+
+	@Test
+	void appCanInsertAfterGeneratedIds() {
+		seedDataGenerator.generate(1_000, 42);
+
+		Student student = new Student("After", "Seed", "after-seed@gmail.com", 30);
+		student.setStudentIdCard(new StudentIdCard("after-seed", student));
+		student.addBook(new Book("Clean code", LocalDateTime.now()));
+		studentRepository.save(student); // no duplicate key with generated rows
+
+		assertThat(count("student")).isEqualTo(1_001);
+	}
+
+	@Test
+	void failedPartitionStillMovesSequencesAboveCommittedIds() {
+		jdbcTemplate.update("INSERT INTO student (id, first_name, last_name, email, age) VALUES (-1, 'Taken', 'Card', 'taken-card@gmail.com', 30)");
+		jdbcTemplate.update("INSERT INTO student_id_card (id, card_number, student_id) VALUES (-1, 'S00000000002100', -1)"); // partition 2
+		long before = nextval("student_sequence");
+
+		assertThatThrownBy(() -> seedDataGenerator.generate(2_500, 42)).isInstanceOf(IllegalStateException.class);
+
+		// seeded ids are before + 50 + 1 .. + 2_500, whichever partitions committed
+		assertThat(nextval("student_sequence")).isGreaterThan(before + 50 + 2_500)
+				.isGreaterThan(jdbcTemplate.queryForObject("SELECT max(id) FROM student", Long.class));
+	}
+
+	// rows without ids, in id order
+	private List<String> dataset() {
+		List<String> rows = new ArrayList<>(jdbcTemplate.queryForList(
+				"SELECT concat_ws('|', s.first_name, s.last_name, s.email, s.age, c.card_number) FROM student s " +
+						"JOIN student_id_card c ON c.student_id = s.id ORDER BY s.id", String.class));
+		rows.addAll(jdbcTemplate.queryForList(
+				"SELECT concat_ws('|', s.email, b.book_name, b.created_at) FROM book b JOIN student s ON s.id = b.student_id ORDER BY b.id",
+				String.class));
+		rows.addAll(jdbcTemplate.queryForList(
+				"SELECT concat_ws('|', s.email, c.name, c.department, e.created_at) FROM enrolment e " +
+						"JOIN student s ON s.id = e.student_id JOIN course c ON c.id = e.course_id ORDER BY s.id, c.id",
+				String.class));
+		return rows;
+	}
+
+	private long nextval(String sequence) {
+		return jdbcTemplate.queryForObject("SELECT nextval('" + sequence + "')", Long.class);
+	}
+
+	private long count(String table) {
+		return jdbcTemplate.queryForObject("SELECT count(*) FROM " + table, Long.class);
+	}
+
+	private void deleteAll() {
+		for (String table : List.of("enrolment", "book", "student_id_card", "student", "course")) {
+			jdbcTemplate.update("DELETE FROM " + table);
+		}
+	}
+}
@@ -0,0 +1,313 @@
+package com.lorenadiam;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// Three embedded databases as shards (+ the usual application database). Nothing is shared between them, so a row found with
+// plain JDBC on one of them shows where the repository put it.
+@SpringBootTest
+@TestPropertySource(properties = {
+		"spring.datasource.url=jdbc:h2:mem:sharding-application;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH",
+		"sharding.urls=jdbc:h2:mem:shard-0;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH," +
+				"jdbc:h2:mem:shard-1;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH," +
+				"jdbc:h2:mem:shard-2;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH",
+		"sharding.username=sa"})
+class ShardedStudentRepositoryTests {
+
+	@Autowired
+	private ShardedStudentRepository shardedStudentRepository;
+
+	@Autowired
+	private StudentReadService studentReadService;
+
+	@Autowired
+	private StudentKeysetPagination studentKeysetPagination;
+
+	@Autowired
+	private StudentExporter studentExporter;
+
+	@Autowired
+	private ApplicationContext applicationContext;
+
+	private final List<JdbcTemplate> shards = new ArrayList<>();
+	private Course course;
+
+	@BeforeEach
+	void setUp() {
+		shards.clear();
+		for (int index = 0; index < shardedStudentRepository.shardCount(); index++) {
+			shards.add(new JdbcTemplate(shardedStudentRepository.shard(index).dataSource()));
+		}
+		course = shardedStudentRepository.saveCourse(new Course("Sharding " + System.nanoTime(), "IT"));
+	}
+
+	@Test
+	void studentLivesWithCardBooksAndEnrolmentsOnTheShardOfItsId() {
+		String run = "graph" + System.nanoTime();
+		List<Student> saved = shardedStudentRepository.saveAll(IntStream.range(0, 30).mapToObj(i -> student(run, i)).toList());
+
+		assertThat(saved).extracting(Student::getEmail).containsExactlyElementsOf(IntStream.range(0, 30).mapToObj(i -> email(run, i)).toList());
+		assertThat(saved).extracting(Student::getId).doesNotHaveDuplicates();
+		for (Student student : saved) {
+			int home = shardedStudentRepository.shardOf(student.getId());
+			for (int index = 0; index < shards.size(); index++) {
+				long expected = index == home ? 1 : 0;
+				assertThat(count(index, "SELECT COUNT(*) FROM student WHERE id = ?", student.getId())).isEqualTo(expected);
+				assertThat(count(index, "SELECT COUNT(*) FROM student_id_card WHERE student_id = ?", student.getId())).isEqualTo(expected);
+				assertThat(count(index, "SELECT COUNT(*) FROM book WHERE student_id = ?", student.getId())).isEqualTo(expected);
+				assertThat(count(index, "SELECT COUNT(*) FROM enrolment WHERE student_id = ?", student.getId())).isEqualTo(expected);
+			}
+		}
+		assertThat(saved).extracting(student -> shardedStudentRepository.shardOf(student.getId())).contains(0, 1, 2); // spread over all
+
+		Student one = saved.get(7);
+		assertThat(shardedStudentRepository.findWithBooksById(one.getId())).hasValueSatisfying(found ->
+				assertThat(found.getBooks()).extracting(Book::getBookName).containsExactly("Sharded book 7"));
+		assertThat(shardedStudentRepository.findStudentByEmail(email(run, 8))).map(Student::getId).contains(saved.get(8).getId());
+	}
+
+	@Test
+	void findAllAndPagesMergeTheShardsInSortOrder() {
+		String run = "pages" + System.nanoTime();
+		shardedStudentRepository.saveAll(IntStream.range(0, 25).mapToObj(i -> student(run, i)).toList());
+		Sort sort = Sort.by(Sort.Order.asc("firstName"), Sort.Order.desc("age"));
+
+		List<Student> students = shardedStudentRepository.findAll(sort);
+
+		assertThat(students).hasSize((int) shardedStudentRepository.count());
+		assertThat(students).isSortedAccordingTo(ShardedStudentRepository.comparator(sort));
+		for (int page = 0; page * 7 < students.size(); page++) {
+			Page<Student> found = shardedStudentRepository.findAll(PageRequest.of(page, 7, sort));
+			assertThat(found.getTotalElements()).isEqualTo(students.size());
+			assertThat(found.getContent()).extracting(Student::getId).containsExactlyElementsOf(
+					students.subList(page * 7, Math.min(students.size(), page * 7 + 7)).stream().map(Student::getId).toList());
+		}
+	}
+
+	@Test
+	void shardsSortNamesInTheOrderTheyAreMergedIn() {
+		String run = "order" + System.nanoTime();
+		List<String> names = List.of("émile", "gamma", "Beta", "Émile", "alpha", "\uFFFD", "Zoe", "beta");
+		shardedStudentRepository.saveAll(IntStream.range(0, 24).mapToObj(i -> student(run, i, names.get(i % names.size()))).toList());
+		Sort sort = Sort.by("firstName");
+
+		// by code point, as in the "C" collation: capitals before small letters, accents after z
+		List<Student> students = shardedStudentRepository.findAll(sort);
+		assertThat(students).isSortedAccordingTo(ShardedStudentRepository.comparator(sort));
+		assertThat(students.stream().map(Student::getFirstName).filter(names::contains).distinct().toList())
+				.containsExactly("Beta", "Zoe", "alpha", "beta", "gamma", "Émile", "émile", "\uFFFD");
+		List<Long> paged = new ArrayList<>();
+		for (int page = 0; page * 5 < students.size(); page++) {
+			shardedStudentRepository.findAll(PageRequest.of(page, 5, sort)).forEach(student -> paged.add(student.getId()));
+		}
+		assertThat(paged).containsExactlyElementsOf(students.stream().map(Student::getId).toList());
+
+		// above U+FFFF by code point too (postgres "C" compares UTF-8 bytes), ignore case folds A-Z only like lower() there
+		assertThat(ShardedStudentRepository.CODE_POINT_ORDER.compare("\uFFFD", "\uD83D\uDE00")).isNegative();
+		assertThat(ShardedStudentRepository.comparator(Sort.by(Sort.Order.asc("firstName").ignoreCase()))
+				.compare(student(run, 0, "alpha"), student(run, 1, "Beta"))).isNegative();
+		assertThatThrownBy(() -> ShardedStudentRepository.comparator(Sort.by("nickname"))).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	void changesAndDeletesGoToTheShardOfTheId() {
+		String run = "change" + System.nanoTime();
+		Student student = shardedStudentRepository.save(student(run, 1));
+		int home = shardedStudentRepository.shardOf(student.getId());
+
+		shardedStudentRepository.inShardOf(student.getId(), studentRepository -> {
+			studentRepository.findById(student.getId()).orElseThrow().addBook(new Book("Second book", LocalDateTime.now()));
+			return null;
+		});
+		assertThat(count(home, "SELECT COUNT(*) FROM book WHERE student_id = ?", student.getId())).isEqualTo(2);
+
+		// same email -> same shard -> its unique constraint
+		assertThatThrownBy(() -> shardedStudentRepository.save(student(run, 1))).isInstanceOf(DataIntegrityViolationException.class);
+
+		shardedStudentRepository.deleteById(student.getId());
+		assertThat(shardedStudentRepository.findById(student.getId())).isEmpty();
+		assertThat(count(home, "SELECT COUNT(*) FROM book WHERE student_id = ?", student.getId())).isZero();
+		assertThat(count(home, "SELECT COUNT(*) FROM enrolment WHERE student_id = ?", student.getId())).isZero();
+	}
+
+	@Test
+	void emailIsUniqueOverAllShards() {
+		String run = "unique" + System.nanoTime();
+		Student student = shardedStudentRepository.save(student(run, 0));
+		int home = shardedStudentRepository.shardOf(student.getId());
+		List<String> elsewhere = IntStream.range(1, 100).mapToObj(i -> email(run, i))
+				.filter(email -> shardedStudentRepository.shardOfEmail(email) != home).limit(3).toList();
+
+		// the student keeps its shard, the new email belongs to another one
+		changeEmail(student.getId(), elsewhere.get(0));
+		assertThatThrownBy(() -> shardedStudentRepository.save(studentWithEmail(run, elsewhere.get(0))))
+				.isInstanceOf(DataIntegrityViolationException.class);
+		assertThat(shardedStudentRepository.findStudentByEmail(elsewhere.get(0))).hasValueSatisfying(s -> assertThat(s.getId()).isEqualTo(student.getId()));
+		assertThat(shardedStudentRepository.save(studentWithEmail(run, email(run, 0))).getId()).isNotNull(); // old one is free
+
+		// rolled back change: its claim on the other shard is released again
+		assertThatThrownBy(() -> shardedStudentRepository.inShardOf(student.getId(), studentRepository -> {
+			studentRepository.findById(student.getId()).orElseThrow().setEmail(elsewhere.get(1));
+			studentRepository.flush();
+			throw new IllegalStateException("rolled back");
+		})).hasMessage("rolled back");
+		assertThat(shardedStudentRepository.save(studentWithEmail(run, elsewhere.get(1))).getId()).isNotNull();
+
+		// taken by a student of another shard: the change fails
+		Student other = shardedStudentRepository.save(studentWithEmail(run, elsewhere.get(2)));
+		assertThatThrownBy(() -> changeEmail(other.getId(), elsewhere.get(0))).isInstanceOf(DataIntegrityViolationException.class);
+
+		shardedStudentRepository.deleteById(student.getId());
+		assertThat(shardedStudentRepository.save(studentWithEmail(run, elsewhere.get(0))).getId()).isNotNull();
+	}
+
+	@Test
+	void searchAsksEveryShardAndMergesByName() {
+		String run = "search" + System.nanoTime();
+		List<Student> saved = shardedStudentRepository.saveAll(IntStream.range(0, 12).mapToObj(i -> student(run, i)).toList());
+		assertThat(saved).extracting(student -> shardedStudentRepository.shardOf(student.getId())).contains(0, 1, 2);
+
+		List<StudentSummary> found = shardedStudentRepository.search(run + " sharded1", 10); // email prefix AND first name prefix
+
+		assertThat(found).extracting(StudentSummary::email).containsExactlyInAnyOrder(email(run, 1), email(run, 5), email(run, 9));
+		assertThat(shardedStudentRepository.search(run, 5)).hasSize(5)
+				.isSortedAccordingTo(Comparator.comparing(StudentSummary::firstName).thenComparing(StudentSummary::id));
+		assertThat(shardedStudentRepository.search(run.substring(0, 6) + "%", 5)).isEmpty(); // % is a letter, not a wildcard
+	}
+
+	@Test
+	void courseFailingOnOneShardIsOnNoShard() {
+		String name = "Rejected " + System.nanoTime();
+		shards.get(2).execute("ALTER TABLE course ADD CONSTRAINT reject_test_course CHECK (name <> '" + name + "')");
+		try {
+			assertThatThrownBy(() -> shardedStudentRepository.saveCourse(new Course(name, "IT")))
+					.isInstanceOf(DataIntegrityViolationException.class);
+		} finally {
+			shards.get(2).execute("ALTER TABLE course DROP CONSTRAINT reject_test_course");
+		}
+		for (JdbcTemplate shard : shards) {
+			assertThat(shard.queryForObject("SELECT COUNT(*) FROM course WHERE name = ?", Long.class, name)).isZero();
+		}
+	}
+
+	@Test
+	void appReadsGoToEveryShard() {
+		String run = "reads" + System.nanoTime();
+		shardedStudentRepository.saveAll(IntStream.range(0, 20).mapToObj(i -> student(run, i)).toList());
+		List<Long> ids = shardedStudentRepository.findAll(Sort.by("id")).stream().map(Student::getId).toList();
+
+		assertThat(studentReadService.listSummaries(1, 6)).extracting(StudentSummary::id).containsExactlyElementsOf(ids.subList(6, 12));
+		assertThat(studentReadService.listStudents(0, 6)).extracting(Student::getId).containsExactlyElementsOf(ids.subList(0, 6));
+
+		// scrolled to the end, every student once, in the merged order
+		List<Student> scrolled = new ArrayList<>();
+		String token = null;
+		do {
+			StudentWindow window = studentKeysetPagination.scroll(StudentKeysetPagination.SortKey.FIRST_NAME, token, 7);
+			scrolled.addAll(window.students());
+			token = window.next();
+		} while (token != null);
+		assertThat(scrolled).extracting(Student::getId).containsExactlyInAnyOrderElementsOf(ids);
+		assertThat(scrolled).isSortedAccordingTo(ShardedStudentRepository.comparator(Sort.by("firstName")));
+
+		ByteArrayOutputStream csv = new ByteArrayOutputStream();
+		assertThat(studentExporter.export(StudentExporter.Format.CSV, csv)).isEqualTo(ids.size());
+		String exported = csv.toString(StandardCharsets.UTF_8);
+		assertThat(exported).startsWith(RosterRecord.CSV_HEADER + "\n").contains(email(run, 0), email(run, 19));
+	}
+
+	@Test
+	void lookupsByEmailAndCardAskTheShards() {
+		String run = "lookup" + System.nanoTime();
+		Student saved = shardedStudentRepository.save(student(run, 0));
+		String cardNumber = saved.getStudentIdCard().getCardNumber();
+
+		assertThat(studentReadService.findByEmail(email(run, 0))).hasValueSatisfying(s -> assertThat(s.id()).isEqualTo(saved.getId()));
+		assertThat(studentReadService.findByCardNumber(cardNumber)).hasValueSatisfying(s -> assertThat(s.id()).isEqualTo(saved.getId()));
+
+		// changed on its shard: the cached old email goes (events of the shard's EntityManagerFactory)
+		shardedStudentRepository.inShardOf(saved.getId(), studentRepository -> {
+			studentRepository.findById(saved.getId()).orElseThrow().setEmail(email(run, 1));
+			return null;
+		});
+		assertThat(studentReadService.findByEmail(email(run, 0))).isEmpty();
+		assertThat(studentReadService.findByEmail(email(run, 1))).isPresent();
+	}
+
+	@Test
+	void beansOfTheApplicationDatabaseStudentsAreNotThere() {
+		for (Class<?> type : List.of(StudentBulkOperations.class, StudentRosterImporter.class, EnrolmentService.class, SeedDataGenerator.class,
+				StudentSearchIndex.class, EnrolmentRosterIndex.class, AggregateCounters.class)) {
+			assertThat(applicationContext.getBeanNamesForType(type)).as(type.getSimpleName()).isEmpty();
+		}
+	}
+
+	@Test
+	void startupFailsWhenAnotherBeanGotTheApplicationStudentRepository() {
+		DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+		beanFactory.registerSingleton("studentRepository", Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[]{StudentRepository.class}, (proxy, method, args) -> null));
+		beanFactory.registerDependentBean("studentRepository", "studentReadService");
+		ShardingConfiguration.checkApplicationStudentRepositoriesUnused(beanFactory);
+
+		beanFactory.registerDependentBean("studentRepository", "reportService");
+		assertThatThrownBy(() -> ShardingConfiguration.checkApplicationStudentRepositoriesUnused(beanFactory))
+				.isInstanceOf(IllegalStateException.class).hasMessageContaining("reportService -> studentRepository");
+	}
+
+	private Student student(String run, int i) {
+		return student(run, i, "Sharded" + i % 4);
+	}
+
+	private Student student(String run, int i, String firstName) {
+		Student student = new Student(firstName, "Student", email(run, i), 18 + i % 5);
+		student.setStudentIdCard(new StudentIdCard(run.substring(0, 5) + (System.nanoTime() % 10_000_000_000L), student));
+		student.addBook(new Book("Sharded book " + i, LocalDateTime.now()));
+		student.addEnrolment(new Enrolment(student, course, LocalDateTime.now()));
+		return student;
+	}
+
+	private Student studentWithEmail(String run, String email) {
+		Student student = student(run, 0);
+		student.setEmail(email);
+		return student;
+	}
+
+	private void changeEmail(long studentId, String email) {
+		shardedStudentRepository.inShardOf(studentId, studentRepository -> {
+			studentRepository.findById(studentId).orElseThrow().setEmail(email);
+			return null;
+		});
+	}
+
+	private static String email(String run, int i) {
+		return run + "." + i + "@gmail.com";
+	}
+
+	private long count(int shard, String sql, long studentId) {
+		Long count = shards.get(shard).queryForObject(sql, Long.class, studentId);
+		return count == null ? 0 : count;
+	}
+}
@@ -0,0 +1,80 @@
+package com.lorenadiam;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.IllegalTransactionStateException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DataJpaTest
+@Import({StudentBulkOperations.class, StudentLookupCache.class, EnrolmentRosterIndex.class, AggregateCounters.class,
+		StudentSearchIndex.class, SimpleMeterRegistry.class})
+class StudentBulkOperationsTests {
+
+	@Autowired
+	private StudentRepository studentRepository;
+
+	@Autowired
+	private StudentBulkOperations studentBulkOperations;
+
+	@Autowired
+	private EntityManager entityManager;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@BeforeEach
+	void setUp() { // ages over 100, so nothing else in the database matches
+		Course course = new Course("Computer Science", "IT");
+		for (int i = 0; i < 10; i++) {
+			Student student = new Student("Old", "Student", "bulk" + i + "@gmail.com", 101 + i % 2);
+			student.setStudentIdCard(new StudentIdCard("bulk" + i, student));
+			student.addBook(new Book("Clean code", LocalDateTime.now()));
+			student.addBook(new Book("Dune", LocalDateTime.now()));
+			student.addEnrolment(new Enrolment(student, course, LocalDateTime.now()));
+			studentRepository.save(student);
+		}
+		entityManager.flush();
+		entityManager.clear(); // bulk operations run on what is in the database, not on managed entities
+	}
+
+	@Test
+	void deletesStudentsWithCardsBooksAndEnrolments() {
+		StudentBulkOperations.DeleteResult result = studentBulkOperations.deleteStudentsOlderThan(101); // only age 102
+
+		assertThat(result).isEqualTo(new StudentBulkOperations.DeleteResult(5, 5, 10, 5));
+		assertThat(studentRepository.findStudentByEmail("bulk1@gmail.com")).isEmpty();
+		assertThat(studentRepository.findStudentByEmail("bulk0@gmail.com")).isPresent();
+	}
+
+	@Test
+	void renamesMatchingStudents() {
+		int renamed = studentBulkOperations.renameStudents("Old", "Senior", 102, 200);
+
+		assertThat(renamed).isEqualTo(5);
+		assertThat(studentRepository.findStudentByEmail("bulk1@gmail.com"))
+				.hasValueSatisfying(student -> assertThat(student.getFirstName()).isEqualTo("Senior"));
+	}
+
+	@Test
+	void bulkQueriesRefuseToRunWithoutTransaction() {
+		TransactionTemplate withoutTransaction = new TransactionTemplate(transactionManager);
+		withoutTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_NOT_SUPPORTED); // suspends the test's one
+
+		assertThatThrownBy(() -> withoutTransaction.executeWithoutResult(status -> studentRepository.deleteStudentsOlderThan(101)))
+				.isInstanceOf(IllegalTransactionStateException.class);
+		assertThatThrownBy(() -> withoutTransaction.executeWithoutResult(status -> studentRepository.renameStudents("Old", "Senior", 102, 200)))
+				.isInstanceOf(IllegalTransactionStateException.class);
+	}
+}
@@ -0,0 +1,90 @@
+package com.lorenadiam;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+class StudentExporterTests {
+
+	@Autowired
+	private StudentRepository studentRepository;
+
+	@Autowired
+	private StudentExporter studentExporter;
+
+	private final List<Long> studentIds = new ArrayList<>();
+
+	@BeforeEach
+	void setUp() {
+		Course course = new Course("Computer Science", "IT");
+		List<Student> students = new ArrayList<>();
+		for (int i = 0; i < 1200; i++) { // more than one chunk
+			Student student = new Student("Export", "Student", "export" + i + "@gmail.com", 20);
+			student.setStudentIdCard(new StudentIdCard("export" + i, student));
+			student.addBook(new Book("Clean code", LocalDateTime.now()));
+			student.addBook(new Book("Thinking, Fast and Slow", LocalDateTime.now())); // comma has to be quoted in CSV
+			student.addEnrolment(new Enrolment(student, course, LocalDateTime.now()));
+			students.add(student);
+		}
+		studentRepository.saveAll(students).forEach(student -> studentIds.add(student.getId())); // one transaction, course is shared
+	}
+
+	@AfterEach
+	void tearDown() {
+		studentRepository.deleteAllById(studentIds);
+	}
+
+	@Test
+	void csvExportCanBeReadByImporterFormat() {
+		List<String> lines = export(StudentExporter.Format.CSV);
+
+		assertThat(lines.get(0)).isEqualTo(RosterRecord.CSV_HEADER);
+		List<RosterRecord> exported = lines.stream().skip(1)
+				.map(RosterRecord::fromCsv)
+				.filter(record -> record.email().startsWith("export"))
+				.toList();
+		assertThat(exported).hasSize(1200);
+		assertThat(exported.get(0)).isEqualTo(new RosterRecord("Export", "Student", "export0@gmail.com", 20, "export0",
+				List.of("Clean code", "Thinking, Fast and Slow"),
+				List.of(new RosterRecord.CourseRef("Computer Science", "IT"))));
+	}
+
+	@Test
+	void listSeparatorsInsideBooksAndCoursesSurviveTheRoundTrip() {
+		RosterRecord record = new RosterRecord("Csv", "Student", "csv@gmail.com", 20, null,
+				List.of("Love; Actually", "C:\\Windows", "Plain"),
+				List.of(new RosterRecord.CourseRef("CS/IT", "Science; Tech"), new RosterRecord.CourseRef("Economics", "Business")));
+
+		assertThat(RosterRecord.fromCsv(record.toCsv())).isEqualTo(record);
+		// files written before escaping: last "/" splits name and department
+		assertThat(RosterRecord.fromCsv("Old,Student,old@gmail.com,20,,Clean code,CS/IT/IT").courses())
+				.containsExactly(new RosterRecord.CourseRef("CS/IT", "IT"));
+	}
+
+	@Test
+	void ndjsonExportHasOneStudentPerLine() {
+		List<String> lines = export(StudentExporter.Format.NDJSON);
+
+		assertThat(lines.stream().filter(line -> line.contains("\"email\":\"export"))).hasSize(1200);
+		assertThat(lines).allMatch(line -> line.startsWith("{") && line.endsWith("}"));
+	}
+
+	private List<String> export(StudentExporter.Format format) {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		long count = studentExporter.export(format, outputStream);
+		List<String> lines = outputStream.toString(StandardCharsets.UTF_8).lines().toList();
+		assertThat(lines).hasSize((int) count + (format == StudentExporter.Format.CSV ? 1 : 0));
+		return lines;
+	}
+}
@@ -0,0 +1,69 @@
+package com.lorenadiam;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Sort;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DataJpaTest
+@Import(StudentKeysetPagination.class)
+class StudentKeysetPaginationTests {
+
+	@Autowired
+	private StudentRepository studentRepository;
+
+	@Autowired
+	private StudentKeysetPagination studentKeysetPagination;
+
+	@BeforeEach
+	void setUp() {
+		for (int i = 0; i < 23; i++) { // same first names and ages repeat, id has to break the ties
+			studentRepository.save(new Student("Name" + i % 4, "Test", "keyset" + i + "@gmail.com", 20 + i % 3));
+		}
+	}
+
+	@Test
+	void scrollingByFirstNameVisitsEveryStudentOnceInOrder() {
+		assertThat(scrollAll(StudentKeysetPagination.SortKey.FIRST_NAME))
+				.containsExactlyElementsOf(idsOf(Sort.by("firstName", "id")));
+	}
+
+	@Test
+	void scrollingByAgeVisitsEveryStudentOnceInOrder() {
+		assertThat(scrollAll(StudentKeysetPagination.SortKey.AGE))
+				.containsExactlyElementsOf(idsOf(Sort.by("age", "id")));
+	}
+
+	@Test
+	void tokenOfOtherSortIsRejected() {
+		String token = studentKeysetPagination.scroll(StudentKeysetPagination.SortKey.AGE, null, 5).next();
+
+		assertThatThrownBy(() -> studentKeysetPagination.scroll(StudentKeysetPagination.SortKey.FIRST_NAME, token, 5))
+				.isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> studentKeysetPagination.scroll(StudentKeysetPagination.SortKey.AGE, "not a token", 5))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	private List<Long> scrollAll(StudentKeysetPagination.SortKey sortKey) {
+		List<Long> ids = new ArrayList<>();
+		String token = null;
+		do {
+			StudentWindow window = studentKeysetPagination.scroll(sortKey, token, 5);
+			window.students().forEach(student -> ids.add(student.getId()));
+			token = window.next();
+		} while (token != null);
+		return ids;
+	}
+
+	private List<Long> idsOf(Sort sort) {
+		return studentRepository.findAll(sort).stream().map(Student::getId).toList();
+	}
+}
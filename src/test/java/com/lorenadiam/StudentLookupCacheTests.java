@@ -0,0 +1,137 @@
+package com.lorenadiam;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+class StudentLookupCacheTests {
+
+	@Autowired
+	private StudentRepository studentRepository;
+
+	@Autowired
+	private StudentIdCardRepository studentIdCardRepository;
+
+	@Autowired
+	private StudentLookupCache studentLookupCache;
+
+	@Autowired
+	private StudentBulkOperations studentBulkOperations;
+
+	@Autowired
+	private StudentReadService studentReadService;
+
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+
+	private Long studentId;
+
+	@BeforeEach
+	void setUp() {
+		Student student = new Student("Lookup", "Student", "lookup@gmail.com", 150); // age > 100, only bulk delete test removes it
+		student.setStudentIdCard(new StudentIdCard("lookup-1", student));
+		studentId = studentRepository.save(student).getId();
+	}
+
+	@AfterEach
+	void tearDown() {
+		studentRepository.findById(studentId).ifPresent(studentRepository::delete);
+	}
+
+	@Test
+	void secondLookupSendsNoSql() {
+		assertThat(studentLookupCache.findStudentIdByEmail("lookup@gmail.com")).hasValue(studentId);
+
+		long[] before = HibernateCallCounters.snapshot();
+		assertThat(studentLookupCache.findStudentIdByEmail("lookup@gmail.com")).hasValue(studentId);
+		assertThat(HibernateCallCounters.statements(before, HibernateCallCounters.snapshot())).isZero();
+
+		assertThat(studentLookupCache.findStudentIdByCardNumber("lookup-1")).hasValue(studentId);
+		assertThat(studentLookupCache.findStudentIdByEmail("nobody@gmail.com")).isEqualTo(OptionalLong.empty());
+	}
+
+	@Test
+	void readServiceFindsStudentsByEmailAndCardThroughTheCache() {
+		assertThat(studentReadService.findByEmail("lookup@gmail.com")).hasValueSatisfying(s -> assertThat(s.id()).isEqualTo(studentId));
+
+		long[] before = HibernateCallCounters.snapshot();
+		assertThat(studentReadService.findByEmail("lookup@gmail.com")).isPresent();
+		assertThat(HibernateCallCounters.statements(before, HibernateCallCounters.snapshot())).isEqualTo(1); // summary only
+
+		assertThat(studentReadService.findByCardNumber("lookup-1")).hasValueSatisfying(s -> assertThat(s.email()).isEqualTo("lookup@gmail.com"));
+		assertThat(studentReadService.findByEmail("nobody@gmail.com")).isEmpty();
+	}
+
+	@Test
+	void loadOverlappingAnInvalidationIsNotKept() {
+		StudentLookupCache.LookupTable table = new StudentLookupCache.LookupTable("test", 10, Duration.ofMinutes(10), new SimpleMeterRegistry());
+		AtomicInteger loads = new AtomicInteger();
+
+		// the key is changed and committed while its old id is being read
+		assertThat(table.get("k", key -> {
+			loads.incrementAndGet();
+			table.remove(key);
+			return Optional.of(1L);
+		})).hasValue(1);
+		assertThat(table.size()).isZero();
+
+		assertThat(table.get("k", key -> {
+			loads.incrementAndGet();
+			return Optional.of(2L);
+		})).hasValue(2);
+		assertThat(table.get("k", key -> Optional.of(3L))).hasValue(2);
+		assertThat(loads).hasValue(2);
+	}
+
+	@Test
+	void changedKeysAreInvalidatedAfterCommit() {
+		studentLookupCache.findStudentIdByEmail("lookup@gmail.com");
+		studentLookupCache.findStudentIdByCardNumber("lookup-1");
+
+		transactionTemplate.executeWithoutResult(status -> {
+			studentRepository.findById(studentId).orElseThrow().setEmail("lookup-changed@gmail.com");
+			studentIdCardRepository.findByCardNumber("lookup-1").orElseThrow().setCardNumber("lookup-2");
+		});
+
+		assertThat(studentLookupCache.findStudentIdByEmail("lookup@gmail.com")).isEmpty();
+		assertThat(studentLookupCache.findStudentIdByEmail("lookup-changed@gmail.com")).hasValue(studentId);
+		assertThat(studentLookupCache.findStudentIdByCardNumber("lookup-1")).isEmpty();
+		assertThat(studentLookupCache.findStudentIdByCardNumber("lookup-2")).hasValue(studentId);
+	}
+
+	@Test
+	void rolledBackChangeKeepsCachedKey() {
+		studentLookupCache.findStudentIdByEmail("lookup@gmail.com");
+
+		transactionTemplate.executeWithoutResult(status -> {
+			studentRepository.findById(studentId).orElseThrow().setEmail("lookup-changed@gmail.com");
+			studentRepository.flush();
+			status.setRollbackOnly();
+		});
+
+		assertThat(studentLookupCache.findStudentIdByEmail("lookup@gmail.com")).hasValue(studentId);
+	}
+
+	@Test
+	void deletedStudentsAreInvalidated() {
+		studentLookupCache.findStudentIdByEmail("lookup@gmail.com");
+		studentLookupCache.findStudentIdByCardNumber("lookup-1");
+
+		studentBulkOperations.deleteStudentsOlderThan(149);
+
+		assertThat(studentLookupCache.findStudentIdByEmail("lookup@gmail.com")).isEmpty();
+		assertThat(studentLookupCache.findStudentIdByCardNumber("lookup-1")).isEmpty();
+	}
+}
@@ -0,0 +1,90 @@
+package com.lorenadiam;
+
+import jakarta.persistence.EntityManager;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Counts SQL statements (Hibernate statistics) needed to load a page of 100 students with every fetch plan.
+@DataJpaTest
+class StudentRepositoryFetchPlanTests {
+
+	private static final PageRequest FIRST_100 = PageRequest.of(0, 100, Sort.by("id"));
+
+	@Autowired
+	private StudentRepository studentRepository;
+
+	@Autowired
+	private EntityManager entityManager;
+
+	private Statistics statistics;
+
+	private final List<Long> studentIds = new ArrayList<>(); // page of 100 students saved in setUp()
+
+	@BeforeEach
+	void setUp() {
+		Course computerScience = new Course("Computer Science", "IT");
+		Course springDataJpa = new Course("Spring Data JPA", "IT");
+		for (int i = 0; i < 100; i++) {
+			Student student = new Student("Student" + i, "Test", "student" + i + "@gmail.com", 20 + i % 30);
+			student.setStudentIdCard(new StudentIdCard(String.valueOf(100_000 + i), student));
+			student.addBook(new Book("Clean code", LocalDateTime.now()));
+			student.addBook(new Book("Spring Data JPA", LocalDateTime.now()));
+			student.addEnrolment(new Enrolment(student, computerScience, LocalDateTime.now()));
+			student.addEnrolment(new Enrolment(student, springDataJpa, LocalDateTime.now()));
+			studentIds.add(studentRepository.save(student).getId());
+		}
+		entityManager.flush();
+		entityManager.clear(); // next queries have to go to the database
+
+		statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+		statistics.clear();
+	}
+
+	@Test
+	void findAllWithoutPlanLoadsEveryCardWithOwnQuery() { // proves that counting works, this is the N+1 we want to avoid
+		studentRepository.findAll(FIRST_100).forEach(student -> student.getStudentIdCard().getCardNumber());
+
+		assertThat(statistics.getPrepareStatementCount()).isGreaterThan(100);
+	}
+
+	@Test
+	void pageWithCardsLoadsInOneSelectAndCount() {
+		Page<Student> page = studentRepository.findAllWithCardBy(FIRST_100);
+		page.forEach(student -> student.getStudentIdCard().getCardNumber());
+
+		assertThat(page.getNumberOfElements()).isEqualTo(100);
+		assertThat(statistics.getPrepareStatementCount()).isEqualTo(2); // select + count
+	}
+
+	@Test
+	void pageWithBooksLoadsInConstantNumberOfStatements() {
+		List<Student> students = studentRepository.findAllWithBooksByIdIn(studentIds);
+		students.forEach(student -> student.getBooks().forEach(Book::getBookName));
+
+		assertThat(students.size()).isEqualTo(100);
+		assertThat(students.stream().map(student -> student.getBooks().size())).containsOnly(2);
+		assertThat(statistics.getPrepareStatementCount()).isEqualTo(1); // students with cards and books
+	}
+
+	@Test
+	void pageWithEnrolmentsAndCoursesLoadsInConstantNumberOfStatements() {
+		List<Student> students = studentRepository.findAllWithEnrolmentsAndCoursesByIdIn(studentIds);
+		students.forEach(student -> student.getEnrolments().forEach(enrolment -> enrolment.getCourse().getName()));
+
+		assertThat(students.stream().map(student -> student.getEnrolments().size())).containsOnly(2);
+		assertThat(statistics.getPrepareStatementCount()).isEqualTo(1); // students with cards, enrolments and courses
+	}
+}
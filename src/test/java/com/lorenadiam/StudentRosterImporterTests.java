@@ -0,0 +1,54 @@
+package com.lorenadiam;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+class StudentRosterImporterTests {
+
+	@Autowired
+	private StudentRosterImporter studentRosterImporter;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	void resumeAfterCrashBetweenCommitAndCheckpointSkipsTheCommittedChunk() throws Exception {
+		String run = "roster" + System.nanoTime();
+		Path directory = Files.createDirectories(Path.of("target", "roster-importer-tests"));
+		Path rosterFile = directory.resolve(run + ".csv");
+		List<String> lines = new ArrayList<>(List.of(RosterRecord.CSV_HEADER));
+		for (int i = 0; i < 1500; i++) { // chunk-size 1000: two chunks
+			lines.add("Roster,Student," + run + "." + i + "@gmail.com,20,,Clean code,Computer Science/IT");
+		}
+		Files.write(rosterFile, lines);
+		Path checkpointFile = directory.resolve(run + ".csv.checkpoint");
+
+		assertThat(studentRosterImporter.importRoster(rosterFile)).isEqualTo(1500);
+		assertThat(Files.readString(checkpointFile)).isEqualTo("1500");
+
+		// second chunk committed, but the process died before its checkpoint was written
+		Files.writeString(checkpointFile, "1000");
+		assertThat(studentRosterImporter.importRoster(rosterFile)).isEqualTo(1500);
+
+		assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM student WHERE email LIKE ?", Long.class, run + ".%"))
+				.isEqualTo(1500);
+		assertThat(Files.readString(checkpointFile)).isEqualTo("1500");
+		assertThat(directory.resolve(run + ".csv.checkpoint.tmp")).doesNotExist();
+
+		// first chunk committed, the process died before the first checkpoint after it: checkpoint 0 is there, it's a resume
+		Files.writeString(checkpointFile, "0");
+		assertThat(studentRosterImporter.importRoster(rosterFile)).isEqualTo(1500);
+		assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM student WHERE email LIKE ?", Long.class, run + ".%"))
+				.isEqualTo(1500);
+	}
+}
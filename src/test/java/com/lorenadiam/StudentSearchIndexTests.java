@@ -0,0 +1,128 @@
+package com.lorenadiam;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+@TestPropertySource(properties = "spring.datasource.url=jdbc:h2:mem:student-search;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH")
+class StudentSearchIndexTests {
+
+	@Autowired
+	private StudentRepository studentRepository;
+
+	@Autowired
+	private StudentSearchIndex studentSearchIndex;
+
+	@Autowired
+	private StudentBulkOperations studentBulkOperations;
+
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+
+	@Autowired
+	private StudentLookupCache studentLookupCache;
+
+	private long johnSmith;
+	private long joanaSmithers;
+	private long johannesMüller;
+
+	// unusual names, so students saved by other test classes in this database don't match. Age > 100 for the bulk delete test
+	@BeforeEach
+	void setUp() {
+		String run = Long.toString(System.nanoTime());
+		johnSmith = save("Johnathan", "Smythwick", "johnathan.s" + run + "@gmail.com", 150);
+		joanaSmithers = save("Joanalyn", "Smythwickers", "jsmythwickers" + run + "@uni.edu", 120);
+		johannesMüller = save("Johannesz", "Müllerova", "hans" + run + "@uni.edu", 150);
+	}
+
+	@AfterEach
+	void tearDown() {
+		studentRepository.deleteAllById(List.of(johnSmith, joanaSmithers, johannesMüller)); // already deleted ones are skipped
+	}
+
+	@Test
+	void prefixesOfEveryWordMatchAndExactWordsComeFirst() {
+		long[] before = HibernateCallCounters.snapshot();
+		assertThat(studentSearchIndex.search("smythwick", 10)).containsExactly(johnSmith, joanaSmithers);
+		assertThat(studentSearchIndex.search("jo smyth", 10)).containsExactlyInAnyOrder(johnSmith, joanaSmithers);
+		assertThat(studentSearchIndex.search("SMYTHWICK johnat", 10)).containsExactly(johnSmith);
+		assertThat(studentSearchIndex.search("mullerova", 10)).containsExactly(johannesMüller); // accents don't matter
+		assertThat(studentSearchIndex.search("jsmythwickers", 10)).containsExactly(joanaSmithers); // email words too
+		assertThat(studentSearchIndex.search("smythwick", 1)).containsExactly(johnSmith);
+		assertThat(studentSearchIndex.search("j", 10)).isEmpty();
+		assertThat(HibernateCallCounters.statements(before, HibernateCallCounters.snapshot())).isZero();
+	}
+
+	@Test
+	void typosAreFoundAfterExactAndPrefixMatches() {
+		assertThat(studentSearchIndex.search("jonathen", 10)).containsExactly(johnSmith); // 2 edits from 8 letters
+		assertThat(studentSearchIndex.search("smytwhick", 10)).containsExactly(johnSmith, joanaSmithers);
+		assertThat(studentSearchIndex.search("joahn", 10)).contains(johnSmith, joanaSmithers); // 1 edit: "john", "joan"
+		assertThat(studentSearchIndex.search("smythwickerz", 10)).containsExactly(joanaSmithers);
+		assertThat(studentSearchIndex.search("smithwikers", 10)).containsExactly(joanaSmithers);
+		assertThat(studentSearchIndex.search("xmythwick", 10)).isEmpty(); // first letter is never a typo
+		assertThat(studentSearchIndex.search("qqqqqqqq", 10)).isEmpty();
+
+		assertThat(StudentSearchIndex.prefixDistanceAtMost("jonh", "johnson", 1)).isTrue();
+		assertThat(StudentSearchIndex.prefixDistanceAtMost("jonh", "jane", 1)).isFalse();
+	}
+
+	@Test
+	void committedChangesAreSearchableAndRollbacksAreNot() {
+		transactionTemplate.executeWithoutResult(status -> {
+			studentRepository.findById(johnSmith).orElseThrow().setLastName("Quillfeather");
+			studentRepository.flush();
+			status.setRollbackOnly();
+		});
+		assertThat(studentSearchIndex.search("quillfeather", 10)).isEmpty();
+
+		transactionTemplate.executeWithoutResult(status ->
+				studentRepository.findById(johnSmith).orElseThrow().setLastName("Quillfeather"));
+		assertThat(studentSearchIndex.search("quillfeather", 10)).containsExactly(johnSmith);
+		assertThat(studentSearchIndex.search("smythwick", 10)).containsExactly(joanaSmithers);
+		assertThat(studentSearchIndex.search("johnat quill", 10)).containsExactly(johnSmith);
+
+		studentRepository.deleteById(johannesMüller);
+		assertThat(studentSearchIndex.search("mullerova", 10)).isEmpty();
+	}
+
+	@Test
+	void repositorySearchLoadsSummariesInIndexOrder() {
+		List<StudentSummary> found = studentRepository.search("smythwick", 10);
+		assertThat(found).extracting(StudentSummary::id).containsExactly(johnSmith, joanaSmithers);
+		assertThat(found.get(0).firstName()).isEqualTo("Johnathan");
+
+		String email = studentRepository.findById(joanaSmithers).orElseThrow().getEmail();
+		assertThat(studentRepository.search(email, 10)).extracting(StudentSummary::id).first().isEqualTo(joanaSmithers);
+
+		studentBulkOperations.deleteStudentsOlderThan(130); // JPQL delete, index is rebuilt after commit
+		assertThat(studentRepository.search("smythwick", 10)).extracting(StudentSummary::id).containsExactly(joanaSmithers);
+	}
+
+	@Test
+	void jpqlRenameAndDeleteOfOneStudentReachIndexAndLookupCache() {
+		assertThat(studentBulkOperations.renameStudent(johnSmith, "Bartholomew")).isTrue(); // JPQL UPDATE, no entity event
+		assertThat(studentSearchIndex.search("bartholomew", 10)).containsExactly(johnSmith);
+		assertThat(studentSearchIndex.search("smythwick", 10)).containsExactly(johnSmith, joanaSmithers);
+
+		String email = studentRepository.findById(johannesMüller).orElseThrow().getEmail();
+		assertThat(studentLookupCache.findStudentIdByEmail(email)).hasValue(johannesMüller);
+		assertThat(studentBulkOperations.deleteStudent(johannesMüller)).isTrue(); // JPQL DELETE
+		assertThat(studentSearchIndex.search("mullerova", 10)).isEmpty();
+		assertThat(studentLookupCache.findStudentIdByEmail(email)).isEmpty();
+		assertThat(studentBulkOperations.deleteStudent(johannesMüller)).isFalse();
+	}
+
+	private long save(String firstName, String lastName, String email, int age) {
+		return studentRepository.save(new Student(firstName, lastName, email, age)).getId();
+	}
+}